@@ -5,7 +5,7 @@
   Java class name: DeleteDupFiles2
   Copyright (c) 2009 by Keith Fenske.  Apache License or GNU GPL.
 
-  This is a Java 1.4 application to compare a folder of unknown files with
+  This is a Java 7 application to compare a folder of unknown files with
   files in a known good or "trusted" folder, then delete files from the unknown
   folder that are already in the trusted folder.  This reduces the amount of
   work required to merge new files into a collection.  Unknown files are
@@ -83,10 +83,18 @@
 import java.awt.*;                // older Java GUI support
 import java.awt.event.*;          // older Java GUI event support
 import java.io.*;                 // standard I/O
+import java.lang.reflect.*;       // Java 9 checksum methods, if available
+import java.nio.*;                // byte buffers for faster file I/O
+import java.nio.channels.*;       // file channels and memory-mapped files
+import java.nio.file.*;           // directory streams and file attributes
+import java.nio.file.attribute.*; // basic and DOS file attributes
 import java.security.*;           // MD5 and SHA1 message digests (checksums)
 import java.text.*;               // number formatting
 import java.util.*;               // calendars, dates, lists, maps, vectors
+import java.util.concurrent.*;    // thread pools for calculating checksums
+import java.util.concurrent.atomic.*; // count of folders listed ahead
 import java.util.regex.*;         // regular expressions
+import java.util.zip.*;           // CRC32C checksums, if available
 import javax.swing.*;             // newer Java GUI support
 import javax.swing.border.*;      // decorative borders
 
@@ -94,33 +102,82 @@ public class DeleteDupFiles2
 {
   /* constants */
 
+  static final int ACTION_QUEUE = 1000; // output lines and deletions queued
   static final long BIG_FILE_SIZE = 5 * 1024 * 1024; // "big" means over 5 MB
   static final int BUFFER_SIZE = 0x10000; // input buffer size in bytes (64 KB)
+  static final String CACHE_HEADER = "DeleteDupFiles2 checksum cache: ";
+                                  // first line of cache file, plus digest name
+  static final int CACHE_SLACK = 1000; // obsolete cache lines before rewrite
   static final String COPYRIGHT_NOTICE =
     "Copyright (c) 2009 by Keith Fenske.  Apache License or GNU GPL.";
   static final String DATE_FORMAT = "yyyy-MM-dd HH:mm:ss z"; // date/time format
+  static final int COMPARE_FILES = 32; // known files compared by -compare
   static final int DEFAULT_HEIGHT = -1; // default window height in pixels
   static final int DEFAULT_LEFT = 50; // default window left position ("x")
   static final int DEFAULT_TOP = 50; // default window top position ("y")
   static final int DEFAULT_WIDTH = -1; // default window width in pixels
-  static final String DIGEST_NAME = "MD5"; // MD5 SHA-1 SHA-256 or SHA-512
+  static final String DIGEST_NAME = "MD5"; // default checksum algorithm
   static final String EMPTY_STATUS = " "; // message when no status to display
+  static final int ENTRY_BYTES = 200; // estimated heap bytes per trusted file,
+                                  // ... plus two bytes per name character
   static final String[] FONT_SIZES = {"10", "12", "14", "16", "18", "20", "24",
     "30"};                        // point sizes for text in output text area
   static final String LICENSE_FILE = "GnuPublicLicense3.txt";
+  static final int LOCALITY_BATCH = 256; // checksums sorted before queued
+  static final int LOCALITY_INODE = 1; // sort checksums by inode, then path
+  static final int LOCALITY_NONE = 0; // queue checksums when found (original)
+  static final int LOCALITY_PATH = 2; // sort checksums by path name
+  static final String MANIFEST_HEADER = "DeleteDupFiles2 quarantine manifest";
+                                  // first line of manifest, for -restore
+  static final String MANIFEST_NAME = "DeleteDupFiles2-moves.txt";
+                                  // manifest file in quarantine folder
+  static final int MAP_CHUNK = 0x4000000; // bytes mapped at one time (64 MB)
+  static final int MAX_BUFFER = 0x100000; // largest channel buffer (1 MB)
+  static final int MAX_OPEN = 64;  // files open at once for -compare
   static final int MIN_FRAME = 200; // minimum window height or width in pixels
+  static final int MOVE_BATCH = 100; // duplicates in one batch for move thread
+  static final int MOVE_QUEUE = 10; // batches queued for move thread
+  static final int PARTIAL_SIZE = 0x10000; // default bytes from each end of
+                                  // ... file for partial checksums (64 KB)
+  static final String PLAN_HEADER = "DeleteDupFiles2 decision plan: ";
+                                  // first line of plan file, plus digest name
   static final String PROGRAM_TITLE =
     "Delete Duplicate Files, Compare Trusted Folder - by: Keith Fenske";
+  static final int QUEUE_AHEAD = 4; // unknown files queued per checksum thread
+  static final int READ_CHANNEL = 1; // read with FileChannel, direct buffer
+  static final int READ_MAPPED = 2; // memory-map big files, else READ_CHANNEL
+  static final int READ_STREAM = 0; // read with FileInputStream (original)
+  static final int STORE_DIRECT = 1; // trusted records in direct buffers
+  static final int STORE_HEAP = 0; // trusted data objects on heap (original)
+  static final int STORE_MAPPED = 2; // trusted records in mapped scratch file
   static final String SYSTEM_FONT = "Dialog"; // this font is always available
   static final int TIMER_DELAY = 400; // 0.400 seconds between status updates
+  static final int TREE_CHUNK = 0x4000000; // bytes in each chunk of a tree
+                                  // ... checksum (64 MB), same as <MAP_CHUNK>
+  static final int WALK_AHEAD = 64; // folders listed ahead per listing thread
 
   /* class variables */
 
+  static ArrayBlockingQueue actionQueue; // output lines and deletions waiting
+                                  // ... for <actionThread>, or <null>
+  static Thread actionThread;     // one thread for output and deletions
+  static String algorithmName;    // checksum algorithm, like MD5 or CRC32C
+  static String applyName;        // plan file to apply, or <null>
+  static HashMap cacheMap;        // mapping of path names to cached checksums
+  static String cacheName;        // checksum cache file name, or <null>
+  static Writer cacheWriter;      // append new checksums to cache file
   static JButton cancelButton;    // graphical button for <cancelFlag>
-  static boolean cancelFlag;      // our signal from user to stop processing
+  static volatile boolean cancelFlag; // our signal from user to stop processing
+  static ByteBuffer compareBuffer1, compareBuffer2; // direct buffers for
+                                  // ... sameContents(), or <null> until used
+  static int compareLimit;        // most known files compared by bytes, or zero
+  static HashMap confirmMap;      // path names to confirming checksums
+  static String confirmName;      // stronger algorithm for matches, or <null>
   static boolean consoleFlag;     // true if running as a console application
   static JLabel countDialog;      // running status count of files and folders
+  static Object countLock;        // synchronizes totals changed by many threads
   static JCheckBox debugCheckbox; // graphical option for <debugFlag>
+  static String digestName;       // checksum algorithm and tree settings
   static boolean debugFlag;       // true if we show debug information
   static JCheckBox dialogAllCheckbox; // graphical option for <dialogAllFlag>
   static boolean dialogAllFlag;   // true if we apply same reply to all files
@@ -140,32 +197,89 @@ public class DeleteDupFiles2
   static JComboBox fontSizeDialog; // graphical option for <fontSize>
   static NumberFormat formatComma; // formats with commas (digit grouping)
   static SimpleDateFormat formatDate; // formats long date/time as numeric text
+  static HashMap deviceLimits;    // file stores to number of checksum threads
+  static HashMap deviceNames;     // folder names to number of threads, -j#=
+  static HashMap devicePools;     // file stores to checksum thread pools, or
+                                  // ... <null> if calculated by search thread
+  static HashMap folderPools;     // folders to checksum thread pools
+  static Vector hashBatch;        // checksums waiting to be sorted, or <null>
+  static int hashThreads;         // checksum threads in all device pools
+  static int hddThreads;          // threads for each rotating disk, or zero
   static boolean hiddenFlag;      // true if we process hidden files or folders
+  static Vector indexFiles;       // trusted files for new index file, or <null>
+  static Vector indexFolders;     // trusted folders for new index file
+  static String indexName;        // trusted index file name, or <null>
   static JButton licenseButton;   // "Show License" button to display GNU GPL
   static boolean licenseExists;   // true if <LICENSE_FILE> exists and is file
+  static int localityMode;        // how checksums are sorted before reading
+  static boolean linkFlag;        // true if duplicates become hard links
+  static boolean joinFlag;        // true if unknown sizes filter trusted files
   static JFrame mainFrame;        // this application's window if GUI
+  static Writer manifestWriter;   // append moves to quarantine manifest file
+  static int maxOpen;             // most files open at once for -compare
+  static long memoryLimit;        // bytes for trusted files, or zero for any
+  static DeleteDupFiles2Move moveBatch; // batch being filled by action thread
+  static ArrayBlockingQueue moveQueue; // batches waiting for <moveThread>
+  static Thread moveThread;       // one thread moving files to quarantine
   static boolean mswinFlag;       // true if running on Microsoft Windows
   static JTextArea outputText;    // generated report if running as GUI
+  static int partialSize;         // bytes from each end for partial checksum
+  static String planName;         // plan file name for decisions, or <null>
+  static Writer planWriter;       // write decisions to plan file, or <null>
+  static Path quarantineBase;     // unknown file/folder, mirrored in quarantine
+  static String quarantineName;   // quarantine folder name, or <null>
+  static Path quarantineRoot;     // quarantine folder in canonical form
+  static ThreadLocal readBuffer;  // one direct byte buffer per worker thread
+  static int readMode;            // how files are read for checksums
   static boolean readonlyFlag;    // true if we try to delete read-only files
   static JCheckBox recurseCheckbox; // graphical option for <recurseFlag>
   static boolean recurseFlag;     // true if we process folders and subfolders
+  static boolean reindexFlag;     // true if we always rebuild trusted index
+  static String restoreName;      // quarantine manifest to restore, or <null>
   static JButton saveButton;      // "Save" button for writing output text
+  static DeleteDupFiles2LongSet sizeFilter; // sizes of unknown files, or <null>
+  static Vector spillRuns;        // sorted run files of trusted, or <null>
   static JCheckBox scrollCheckbox; // graphical option for <scrollFlag>
   static boolean scrollFlag;      // true if we scroll calls to <putOutput>
   static JButton startButton;     // "Start" button to begin file processing
+  static Thread searchThread;     // thread that decides, and queues actions
   static Thread startThread;      // separate thread for doStartButton() method
+  static int storeMode;           // where trusted files are kept while scanned
   static HashMap statusMap;       // mapping between text areas and strings
+  static HashMap storeMap;        // folder path names to file stores, -link
   static javax.swing.Timer statusTimer; // timer for updating status message
-  static long totalChkBytes, totalDelBytes, totalDupBytes, totalUnkBytes;
-                                  // total number of bytes in files (size)
-  static int totalChkFiles, totalDelErrors, totalDelFiles, totalDupFiles,
-    totalUnkFiles, totalUnkFolders; // total number of files and folders
+  static int threadCount;         // number of threads calculating checksums
+  static long totalCacheBytes, totalChkBytes, totalDelBytes, totalDupBytes,
+    totalPartBytes, totalUnkBytes; // total number of bytes in files (size)
+  static long totalCmpBytes;      // bytes read to compare files directly
+  static int totalCmpFiles;       // unknown files compared directly
+  static long totalConfirmBytes;  // bytes read for confirming checksums
+  static int totalConfirmFiles, totalConfirmMisses; // confirming checksums,
+                                  // ... and matches that weren't confirmed
+  static int totalCacheFiles, totalChkFiles, totalDelErrors, totalDelFiles,
+    totalDupFiles, totalPartFiles, totalUnkFiles, totalUnkFolders;
+                                  // total number of files and folders
+  static int totalHashPeak, totalHashWaits, totalQueuePeak, totalQueueWaits,
+    totalWalkWaits;               // pipeline counters for debug summary
+  static long totalLinkBytes;     // bytes in unknown files linked to trusted
+  static int totalLinkFiles;      // unknown files same inode as trusted file
+  static long totalPlanBytes;     // bytes in duplicates saved to plan file
+  static int totalPlanFiles, totalPlanSkips; // decisions saved, or skipped
+  static int totalSkipFiles;      // trusted files skipped by <sizeFilter>
+  static int totalTreeFiles;      // big files with tree checksums
   static JButton trustedButton;   // button to select "trusted" file folder
   static JTextField trustedDialog; // text field for "trusted" file folder
   static File trustedFolder;      // Java object for "trusted" file folder
+  static long trustedBytes;       // estimated heap bytes for trusted files
+  static DeleteDupFiles2Store trustedStore; // trusted records, or <null>
+  static ForkJoinPool treePool;   // threads hashing chunks of big files
+  static long treeSize;           // smallest file with tree checksum, or zero
   static JButton unknownButton;   // button to select "unknown" file folder
   static JTextField unknownDialog; // text field for "unknown" file folder
   static File unknownFolder;      // Java object for "unknown" file folder
+  static AtomicInteger walkAhead; // folders listed but not yet searched
+  static int walkCount;           // number of threads listing folders ahead
+  static ForkJoinPool walkPool;   // worker threads listing folders, or <null>
   static JCheckBox zeroCheckbox;  // graphical option for <zeroFlag>
   static boolean zeroFlag;        // true if we process zero-byte empty files
 
@@ -190,23 +304,59 @@ public class DeleteDupFiles2
 
     /* Initialize variables used by both console and GUI applications. */
 
+    algorithmName = DIGEST_NAME;  // default checksum algorithm
+    applyName = null;             // by default, search for duplicates
     buttonFont = null;            // by default, don't use customized font
+    cacheName = null;             // by default, no checksum cache file
     cancelFlag = false;           // don't cancel unless user complains
+    compareLimit = 0;             // by default, always compare checksums
+    confirmName = null;           // by default, checksum matches are final
     consoleFlag = false;          // assume no files or folders on command line
+    countLock = new Object();     // synchronizes totals changed by many threads
     debugFlag = false;            // by default, don't show debug information
+    deviceNames = new HashMap();  // by default, same threads for all devices
     firstFilename = secondFilename = null; // parameters on the command line
     fontName = "Verdana";         // preferred font name for output text area
     fontSize = 16;                // default point size for output text area
+    hddThreads = 0;               // by default, rotating disks not detected
     hiddenFlag = false;           // by default, don't process hidden files
+    indexFiles = indexFolders = null; // no trusted index file being built
+    indexName = null;             // by default, no trusted index file
+    joinFlag = false;             // by default, keep all trusted files
     licenseExists = (new File(LICENSE_FILE)).isFile(); // true if license file
+    linkFlag = false;             // by default, delete duplicate files
+    localityMode = LOCALITY_NONE; // by default, checksums in order found
     maximizeFlag = false;         // by default, don't maximize our main window
+    maxOpen = MAX_OPEN;           // default limit on open files
+    memoryLimit = 0;              // by default, no limit for trusted files
     mswinFlag = System.getProperty("os.name").startsWith("Windows");
+    partialSize = PARTIAL_SIZE;   // default bytes for partial checksums
+    planName = null;              // by default, act on duplicates when found
+    quarantineName = null;        // by default, no quarantine folder
+    readBuffer = new ThreadLocal(); // buffers are allocated as needed
+    readMode = READ_STREAM;       // by default, read files as input streams
     readonlyFlag = false;         // by default, don't delete read-only files
     recurseFlag = true;           // by default, process subfolders
+    reindexFlag = false;          // by default, use trusted index if current
+    restoreName = null;           // by default, search for duplicates
     scrollFlag = true;            // by default, scroll calls to <putOutput>
-    totalChkBytes = totalDelBytes = totalDupBytes = totalUnkBytes = 0;
-    totalChkFiles = totalDelErrors = totalDelFiles = totalDupFiles
-      = totalUnkFiles = totalUnkFolders = 0; // no files or folders yet
+    storeMode = STORE_HEAP;       // by default, trusted data objects on heap
+    threadCount = Runtime.getRuntime().availableProcessors();
+                                  // by default, one checksum thread per core
+    treeSize = 0;                 // by default, one checksum for whole file
+    totalCacheBytes = totalChkBytes = totalDelBytes = totalDupBytes
+      = totalPartBytes = totalUnkBytes = 0;
+    totalCacheFiles = totalChkFiles = totalDelErrors = totalDelFiles
+      = totalDupFiles = totalPartFiles = totalUnkFiles = totalUnkFolders = 0;
+                                  // no files or folders yet
+    totalHashPeak = totalHashWaits = totalQueuePeak = totalQueueWaits
+      = totalWalkWaits = 0;       // nothing has waited yet
+    totalCmpBytes = totalCmpFiles = 0; // no files compared directly yet
+    totalConfirmBytes = totalConfirmFiles = totalConfirmMisses = 0;
+    totalLinkBytes = totalLinkFiles = 0; // no hard links found yet
+    totalPlanBytes = totalPlanFiles = totalPlanSkips = 0; // no plan yet
+    totalSkipFiles = totalTreeFiles = 0; // no trusted files skipped yet
+    walkCount = 0;                // by default, list folders as they are found
     windowHeight = DEFAULT_HEIGHT; // default window position and size
     windowLeft = DEFAULT_LEFT;
     windowTop = DEFAULT_TOP;
@@ -247,6 +397,88 @@ public class DeleteDupFiles2
         System.exit(0);           // exit application after printing help
       }
 
+      else if (word.startsWith("-apply=")
+        || (mswinFlag && word.startsWith("/apply=")))
+      {
+        /* This option is followed by the name of a plan file written by the
+        -plan option.  Each decision in the plan is checked again, and then
+        carried out without calculating any checksums.  Use the original
+        parameter, not lowercase. */
+
+        applyName = args[i].substring(7); // must be an existing file
+        if (applyName.length() == 0)
+        {
+          System.err.println("Missing file name for plan to apply: "
+            + args[i]);           // notify user of our arbitrary limits
+          showHelp();             // show help summary
+          System.exit(-1);        // exit application after printing help
+        }
+      }
+
+      else if (word.startsWith("-cache=")
+        || (mswinFlag && word.startsWith("/cache=")))
+      {
+        /* This option is followed by the name of a file that saves checksums
+        from one run to the next.  Use the original parameter, not lowercase. */
+
+        cacheName = args[i].substring(7); // may be a new file, or existing
+        if (cacheName.length() == 0)
+        {
+          System.err.println("Missing file name for checksum cache: "
+            + args[i]);           // notify user of our arbitrary limits
+          showHelp();             // show help summary
+          System.exit(-1);        // exit application after printing help
+        }
+      }
+
+      else if (word.equals("-compare")
+        || (mswinFlag && word.equals("/compare")))
+      {
+        compareLimit = COMPARE_FILES; // compare bytes if few known files
+      }
+      else if (word.startsWith("-compare=")
+        || (mswinFlag && word.startsWith("/compare=")))
+      {
+        /* This option is followed by the most known files of the same size
+        that are compared byte by byte with an unknown file, instead of
+        calculating checksums.  Zero always compares checksums. */
+
+        int count = -1;           // default value for number of files
+        try                       // try to parse remainder as unsigned integer
+        {
+          count = Integer.parseInt(word.substring(9));
+        }
+        catch (NumberFormatException nfe) // if not a number or bad syntax
+        {
+          count = -1;             // set result to an illegal value
+        }
+        if ((count < 0) || (count > 9999))
+        {
+          System.err.println("Number of files to compare must be from 0 to 9999: "
+            + args[i]);           // notify user of our arbitrary limits
+          showHelp();             // show help summary
+          System.exit(-1);        // exit application after printing help
+        }
+        compareLimit = count;     // compare bytes if this many or fewer
+      }
+
+      else if (word.startsWith("-confirm=")
+        || (mswinFlag && word.startsWith("/confirm=")))
+      {
+        /* This option is followed by the name of a stronger checksum
+        algorithm, which is calculated only for files whose first checksums
+        are the same, before anything is done to the unknown file. */
+
+        confirmName = word.substring(9).toUpperCase(); // like SHA-256
+        try { getDigest(confirmName); } // is this algorithm available?
+        catch (NoSuchAlgorithmException nsae)
+        {
+          System.err.println("Checksum algorithm not available: " + args[i]);
+          showHelp();             // show help summary
+          System.exit(-1);        // exit application after printing help
+        }
+      }
+
       else if (word.equals("-d") || (mswinFlag && word.equals("/d")))
       {
         debugFlag = true;         // show debug information
@@ -255,6 +487,22 @@ public class DeleteDupFiles2
           System.err.println("main args[" + k + "] = <" + args[k] + ">");
       }
 
+      else if (word.startsWith("-digest=")
+        || (mswinFlag && word.startsWith("/digest=")))
+      {
+        /* This option is followed by the name of the checksum algorithm: any
+        message digest known to Java, or one of our fast checksums. */
+
+        algorithmName = word.substring(8).toUpperCase(); // like CRC32C
+        try { getDigest(algorithmName); } // is this algorithm available?
+        catch (NoSuchAlgorithmException nsae)
+        {
+          System.err.println("Checksum algorithm not available: " + args[i]);
+          showHelp();             // show help summary
+          System.exit(-1);        // exit application after printing help
+        }
+      }
+
 //    else if (word.equals("-h") || (mswinFlag && word.equals("/h"))
 //      || word.equals("-h1") || (mswinFlag && word.equals("/h1")))
 //    {
@@ -263,6 +511,277 @@ public class DeleteDupFiles2
 //    else if (word.equals("-h0") || (mswinFlag && word.equals("/h0")))
 //      hiddenFlag = false;       // ignore hidden files or subfolders
 
+      else if (word.startsWith("-index=")
+        || (mswinFlag && word.startsWith("/index=")))
+      {
+        /* This option is followed by the name of a file with a sorted index
+        of the trusted folder, which is used instead of scanning the folder
+        again, if no trusted folder has changed since the index was saved. */
+
+        indexName = args[i].substring(7); // may be a new file, or existing
+        if (indexName.length() == 0)
+        {
+          System.err.println("Missing file name for trusted index: "
+            + args[i]);           // notify user of our arbitrary limits
+          showHelp();             // show help summary
+          System.exit(-1);        // exit application after printing help
+        }
+      }
+
+      else if (word.startsWith("-io=")
+        || (mswinFlag && word.startsWith("/io=")))
+      {
+        /* This option selects how files are read for full checksums, so that
+        the speed of each method can be compared on different storage. */
+
+        String mode = word.substring(4); // everything after the equal sign
+        if (mode.equals("stream"))
+          readMode = READ_STREAM; // FileInputStream with heap buffer
+        else if (mode.equals("channel"))
+          readMode = READ_CHANNEL; // FileChannel with direct buffer
+        else if (mode.equals("map"))
+          readMode = READ_MAPPED; // memory-mapped big files
+        else
+        {
+          System.err.println("Read mode must be stream, channel, or map: "
+            + args[i]);           // notify user of our arbitrary limits
+          showHelp();             // show help summary
+          System.exit(-1);        // exit application after printing help
+        }
+      }
+
+      else if (word.equals("-join") || (mswinFlag && word.equals("/join")))
+        joinFlag = true;          // unknown sizes filter trusted files
+
+      else if (word.startsWith("-jhdd=")
+        || (mswinFlag && word.startsWith("/jhdd=")))
+      {
+        /* This option is followed by the number of threads that calculate
+        checksums for each device that the system reports as a rotating disk.
+        Only Linux says which disks rotate. */
+
+        int count = -1;           // default value for number of threads
+        try                       // try to parse remainder as unsigned integer
+        {
+          count = Integer.parseInt(word.substring(6));
+        }
+        catch (NumberFormatException nfe) // if not a number or bad syntax
+        {
+          count = -1;             // set result to an illegal value
+        }
+        if ((count < 1) || (count > 999))
+        {
+          System.err.println("Number of threads must be from 1 to 999: "
+            + args[i]);           // notify user of our arbitrary limits
+          showHelp();             // show help summary
+          System.exit(-1);        // exit application after printing help
+        }
+        hddThreads = count;       // use this many threads for each disk
+      }
+
+      else if (word.startsWith("-j") || (mswinFlag && word.startsWith("/j")))
+      {
+        /* This option is followed by the number of threads that calculate
+        checksums at the same time.  One thread does all work in the order
+        that files are found, as in earlier versions of this program.  Each
+        device (file store) has its own threads, so a slow disk doesn't hold
+        up a fast one.  When the number is followed by an equal sign and a
+        folder name, the number is only for the device with that folder. */
+
+        int count = -1;           // default value for number of threads
+        int equal = word.indexOf('='); // before folder name, if any
+        try                       // try to parse remainder as unsigned integer
+        {
+          count = Integer.parseInt((equal < 0) ? word.substring(2)
+            : word.substring(2, equal));
+        }
+        catch (NumberFormatException nfe) // if not a number or bad syntax
+        {
+          count = -1;             // set result to an illegal value
+        }
+        if ((count < 1) || (count > 999))
+        {
+          System.err.println("Number of threads must be from 1 to 999: "
+            + args[i]);           // notify user of our arbitrary limits
+          showHelp();             // show help summary
+          System.exit(-1);        // exit application after printing help
+        }
+        if (equal < 0)            // same number of threads for all devices?
+          threadCount = count;    // use this many checksum threads
+        else if (equal == (word.length() - 1)) // nothing after equal sign?
+        {
+          System.err.println("Missing folder name for number of threads: "
+            + args[i]);           // notify user of our arbitrary limits
+          showHelp();             // show help summary
+          System.exit(-1);        // exit application after printing help
+        }
+        else                      // use original parameter, not lowercase
+          deviceNames.put(args[i].substring(equal + 1), Integer.valueOf(count));
+      }
+
+      else if (word.equals("-link") || (mswinFlag && word.equals("/link")))
+        linkFlag = true;          // replace duplicates with hard links
+
+      else if (word.startsWith("-locality=")
+        || (mswinFlag && word.startsWith("/locality=")))
+      {
+        /* This option sorts checksums in batches before they are given to the
+        checksum threads, so that a rotating disk reads files in the order
+        that they are stored, instead of seeking back and forth. */
+
+        String mode = word.substring(10); // everything after the equal sign
+        if (mode.equals("none"))
+          localityMode = LOCALITY_NONE; // same order as files are found
+        else if (mode.equals("inode"))
+          localityMode = LOCALITY_INODE; // inode numbers, on UNIX
+        else if (mode.equals("path"))
+          localityMode = LOCALITY_PATH; // path names, same folders together
+        else
+        {
+          System.err.println("Locality must be none, inode, or path: "
+            + args[i]);           // notify user of our arbitrary limits
+          showHelp();             // show help summary
+          System.exit(-1);        // exit application after printing help
+        }
+      }
+
+      else if (word.startsWith("-l") || (mswinFlag && word.startsWith("/l")))
+      {
+        /* This option is followed by the number of threads that list folders
+        ahead of the search.  Zero lists each folder when the search gets to
+        it, as in earlier versions of this program. */
+
+        int count = -1;           // default value for number of threads
+        try                       // try to parse remainder as unsigned integer
+        {
+          count = Integer.parseInt(word.substring(2));
+        }
+        catch (NumberFormatException nfe) // if not a number or bad syntax
+        {
+          count = -1;             // set result to an illegal value
+        }
+        if ((count < 0) || (count > 999))
+        {
+          System.err.println("Number of listing threads must be from 0 to 999: "
+            + args[i]);           // notify user of our arbitrary limits
+          showHelp();             // show help summary
+          System.exit(-1);        // exit application after printing help
+        }
+        walkCount = count;        // use this many listing threads
+      }
+
+      else if (word.startsWith("-maxmemory=")
+        || (mswinFlag && word.startsWith("/maxmemory=")))
+      {
+        /* This option is followed by the number of megabytes (MB) that trusted
+        files may use in memory.  Beyond that, they are moved to sorted run
+        files on disk, which are merged after the trusted folder is scanned.
+        Zero means no limit. */
+
+        int size = -1;            // default value for size in megabytes
+        try                       // try to parse remainder as unsigned integer
+        {
+          size = Integer.parseInt(word.substring(11));
+        }
+        catch (NumberFormatException nfe) // if not a number or bad syntax
+        {
+          size = -1;              // set result to an illegal value
+        }
+        if ((size < 0) || (size > 9999999))
+        {
+          System.err.println("Memory limit must be from 0 to 9999999 MB: "
+            + args[i]);           // notify user of our arbitrary limits
+          showHelp();             // show help summary
+          System.exit(-1);        // exit application after printing help
+        }
+        memoryLimit = size * 1024L * 1024L; // convert megabytes to bytes
+      }
+
+      else if (word.startsWith("-maxopen=")
+        || (mswinFlag && word.startsWith("/maxopen=")))
+      {
+        /* This option is followed by the most files that -compare may have
+        open at the same time, including the unknown file.  More known files
+        are compared in groups of this size. */
+
+        int count = -1;           // default value for number of files
+        try                       // try to parse remainder as unsigned integer
+        {
+          count = Integer.parseInt(word.substring(9));
+        }
+        catch (NumberFormatException nfe) // if not a number or bad syntax
+        {
+          count = -1;             // set result to an illegal value
+        }
+        if ((count < 2) || (count > 9999))
+        {
+          System.err.println("Number of open files must be from 2 to 9999: "
+            + args[i]);           // notify user of our arbitrary limits
+          showHelp();             // show help summary
+          System.exit(-1);        // exit application after printing help
+        }
+        maxOpen = count;          // open at most this many files
+      }
+
+      else if (word.startsWith("-plan=")
+        || (mswinFlag && word.startsWith("/plan=")))
+      {
+        /* This option is followed by the name of a file where duplicates are
+        saved as a plan, instead of being deleted, so that they can be checked
+        before -apply does the deletions.  Use the original parameter, not
+        lowercase. */
+
+        planName = args[i].substring(6); // may be a new file, or existing
+        if (planName.length() == 0)
+        {
+          System.err.println("Missing file name for plan: " + args[i]);
+          showHelp();             // show help summary
+          System.exit(-1);        // exit application after printing help
+        }
+      }
+
+      else if (word.startsWith("-p") || (mswinFlag && word.startsWith("/p")))
+      {
+        /* This option is followed by the number of kilobytes (KB) read from
+        the beginning and from the end of large files to calculate a partial
+        checksum.  Zero disables partial checksums. */
+
+        int size = -1;            // default value for size in kilobytes
+        try                       // try to parse remainder as unsigned integer
+        {
+          size = Integer.parseInt(word.substring(2));
+        }
+        catch (NumberFormatException nfe) // if not a number or bad syntax
+        {
+          size = -1;              // set result to an illegal value
+        }
+        if ((size < 0) || (size > 65536))
+        {
+          System.err.println("Partial checksum size must be from 0 to 65536 KB: "
+            + args[i]);           // notify user of our arbitrary limits
+          showHelp();             // show help summary
+          System.exit(-1);        // exit application after printing help
+        }
+        partialSize = size * 1024; // convert kilobytes to bytes
+      }
+
+      else if (word.startsWith("-quarantine=")
+        || (mswinFlag && word.startsWith("/quarantine=")))
+      {
+        /* This option is followed by the name of a folder where duplicates
+        are moved, instead of being deleted, with the same subfolders as in
+        the unknown folder.  Use the original parameter, not lowercase. */
+
+        quarantineName = args[i].substring(12); // may be new or existing
+        if (quarantineName.length() == 0)
+        {
+          System.err.println("Missing folder name for quarantine: "
+            + args[i]);           // notify user of our arbitrary limits
+          showHelp();             // show help summary
+          System.exit(-1);        // exit application after printing help
+        }
+      }
+
 //    else if (word.equals("-r") || (mswinFlag && word.equals("/r"))
 //      || word.equals("-r1") || (mswinFlag && word.equals("/r1")))
 //    {
@@ -271,6 +790,27 @@ public class DeleteDupFiles2
 //    else if (word.equals("-r0") || (mswinFlag && word.equals("/r0")))
 //      readonlyFlag = false;     // don't try to delete read-only files
 
+      else if (word.equals("-reindex")
+        || (mswinFlag && word.equals("/reindex")))
+        reindexFlag = true;       // always scan trusted folder, save new index
+
+      else if (word.startsWith("-restore=")
+        || (mswinFlag && word.startsWith("/restore=")))
+      {
+        /* This option is followed by the name of a manifest file written by
+        the -quarantine option.  All files in the manifest are moved back to
+        where they were found.  Use the original parameter, not lowercase. */
+
+        restoreName = args[i].substring(9); // must be an existing file
+        if (restoreName.length() == 0)
+        {
+          System.err.println("Missing file name for quarantine manifest: "
+            + args[i]);           // notify user of our arbitrary limits
+          showHelp();             // show help summary
+          System.exit(-1);        // exit application after printing help
+        }
+      }
+
       else if (word.equals("-s") || (mswinFlag && word.equals("/s"))
         || word.equals("-s1") || (mswinFlag && word.equals("/s1")))
       {
@@ -279,6 +819,55 @@ public class DeleteDupFiles2
       else if (word.equals("-s0") || (mswinFlag && word.equals("/s0")))
         recurseFlag = false;      // stop doing subfolders
 
+      else if (word.startsWith("-store=")
+        || (mswinFlag && word.startsWith("/store=")))
+      {
+        /* This option selects where trusted files are kept while the trusted
+        folder is scanned.  Very big trusted folders can be kept outside of
+        the Java heap, so that garbage collection stays fast. */
+
+        String mode = word.substring(7); // everything after the equal sign
+        if (mode.equals("heap"))
+          storeMode = STORE_HEAP; // data objects in size buckets
+        else if (mode.equals("direct"))
+          storeMode = STORE_DIRECT; // fixed-size records in direct buffers
+        else if (mode.equals("mapped"))
+          storeMode = STORE_MAPPED; // fixed-size records in scratch file
+        else
+        {
+          System.err.println("Trusted store must be heap, direct, or mapped: "
+            + args[i]);           // notify user of our arbitrary limits
+          showHelp();             // show help summary
+          System.exit(-1);        // exit application after printing help
+        }
+      }
+
+      else if (word.startsWith("-tree=")
+        || (mswinFlag && word.startsWith("/tree=")))
+      {
+        /* This option is followed by the size in megabytes of the smallest
+        file that is hashed in chunks by all processor cores, instead of by
+        one thread.  Zero hashes all files in one piece. */
+
+        long size = -1;           // default value for size in megabytes
+        try                       // try to parse remainder as unsigned integer
+        {
+          size = Long.parseLong(word.substring(6));
+        }
+        catch (NumberFormatException nfe) // if not a number or bad syntax
+        {
+          size = -1;              // set result to an illegal value
+        }
+        if ((size < 0) || (size > 1048576))
+        {
+          System.err.println("Tree checksum size must be from 0 to 1048576 MB: "
+            + args[i]);           // notify user of our arbitrary limits
+          showHelp();             // show help summary
+          System.exit(-1);        // exit application after printing help
+        }
+        treeSize = size * 1024 * 1024; // convert megabytes to bytes
+      }
+
       else if (word.startsWith("-u") || (mswinFlag && word.startsWith("/u")))
       {
         /* This option is followed by a font point size that will be used for
@@ -369,6 +958,50 @@ public class DeleteDupFiles2
     command line.  We ignore <cancelFlag> because the user has no way of
     interrupting us at this point (no graphical interface). */
 
+    /* Tree checksums are different from whole-file checksums, so the tree
+    settings are part of the algorithm name saved in cache, index, and plan
+    files.  Otherwise, a file saved one way would never match the other. */
+
+    digestName = (treeSize == 0) ? algorithmName : (algorithmName + "-tree-"
+      + treeSize + "-" + TREE_CHUNK); // smallest file size and chunk size
+
+    if (linkFlag && (quarantineName != null)) // two different replacements?
+    {
+      System.err.println("Options -link and -quarantine can't be used together.");
+      showHelp();                 // show help summary
+      System.exit(-1);            // exit application after printing help
+    }
+    if ((planName != null) && (applyName != null)) // save and apply plan?
+    {
+      System.err.println("Options -plan and -apply can't be used together.");
+      showHelp();                 // show help summary
+      System.exit(-1);            // exit application after printing help
+    }
+    if (applyName != null)        // carry out decisions saved in plan file?
+    {
+      consoleFlag = true;         // don't allow GUI methods to be called
+      if (firstFilename != null)  // folders come from the plan file
+      {
+        System.err.println("No file or folder names allowed with -apply: "
+          + firstFilename);
+        System.exit(-1);
+      }
+      doFileApply(new File(applyName)); // apply decisions in plan file
+      System.exit(totalDelFiles); // exit from application with status
+    }
+    if (restoreName != null)      // move quarantined files back?
+    {
+      consoleFlag = true;         // don't allow GUI methods to be called
+      if (firstFilename != null)  // no folders are searched when restoring
+      {
+        System.err.println("No file or folder names allowed with -restore: "
+          + firstFilename);
+        System.exit(-1);
+      }
+      doFileRestore(new File(restoreName)); // restore files in manifest
+      System.exit(totalDelFiles); // exit from application with status
+    }
+
     if (firstFilename == null)    // any files or folders on command line?
     {
       /* No files or folders given.  Do nothing here.  Run as GUI later. */
@@ -751,7 +1384,8 @@ public class DeleteDupFiles2
     dialogDateText.setOpaque(false);
     panel11.add(dialogDateText, gbcData);
 
-    dialogCheckLabel = new JLabel((DIGEST_NAME + " Checksum:"), JLabel.RIGHT);
+    dialogCheckLabel = new JLabel((algorithmName + " Checksum:"),
+      JLabel.RIGHT);
     dialogCheckLabel.setEnabled(false);
     if (buttonFont != null) dialogCheckLabel.setFont(buttonFont);
     panel11.add(dialogCheckLabel, gbcName);
@@ -834,7 +1468,7 @@ public class DeleteDupFiles2
         "Compare a folder of unknown files with files in a known good"
       + "\nor \"trusted\" folder, then delete files from the unknown folder"
       + "\nthat are already in the trusted folder.  Duplicate files are"
-      + "\ndeleted if they have the same size and same " + DIGEST_NAME
+      + "\ndeleted if they have the same size and same " + algorithmName
       + " checksum."
       + "\nDuplicates are not detected inside the trusted folder.  Deleted"
       + "\nfiles are permanently gone and do not appear in the recycle"
@@ -891,35 +1525,37 @@ public class DeleteDupFiles2
 /*
   calculateChecksum() method
 
-  Given a File object, return the MD5 checksum for that file as a hexadecimal
-  string.  If the checksum can not be calculated, then a string beginning with
-  "unknown" is returned instead.
+  Given a data object, return the MD5 checksum for that file as raw binary
+  bytes.  If the checksum can not be calculated, then <null> is returned
+  instead.  Checksums are only converted to hexadecimal when they are shown
+  to the user or written to a file.
 
   Reading the input one byte at a time is a very slow way to calculate the
   checksum: about one second per megabyte on an Intel Pentium 4 at 3 GHz.
   Reading the input in a large byte buffer, and passing this buffer to the
   message digest, is over 30 times faster.
+
+  This method may be called by several worker threads at the same time (see
+  startChecksum() and waitChecksum()), so it must not print anything to the
+  report, whose order would then depend upon which thread finishes first.
 */
-  static String calculateChecksum(File givenFile)
+  static byte[] calculateChecksum(DeleteDupFiles2Data entry)
   {
-    byte[] buffer;                // input buffer for reading file
+    File file;                    // caller's file, created only when hashed
+    long fileDate;                // last modified date of caller's file
     String fileName;              // name of caller's file, without path
     String filePath;              // name of caller's file, including path
     long fileSize;                // size of caller's file in bytes
-    int i;                        // index variable
-    FileInputStream inStream;     // input file stream
     MessageDigest messDigest;     // object for calculating MD5 checksum
-    String result;                // our result (the checksum as a string)
-    long sizeDone;                // how much of <fileSize> has been finished
-    long sizeUser;                // last <sizeDone> reported to user
+    byte[] result;                // our result (the checksum as raw bytes)
 
     /* Get some initial information about the file.  If we are running as a
     graphical application, then use the inner dialog box for status. */
 
-    fileName = givenFile.getName(); // get name of caller's file, no path
-    filePath = givenFile.getPath(); // get name of caller's file, with path
-    fileSize = givenFile.length(); // get size of caller's file in bytes
-    sizeDone = sizeUser = 0;      // we haven't read anything yet
+    file = entry.getFile();       // Java File object, only while hashing
+    fileName = file.getName();    // get name of caller's file, no path
+    filePath = file.getPath();    // get name of caller's file, with path
+    fileSize = entry.size;        // size when folder was listed, no system call
 
     if (consoleFlag == false)     // format text fields if running as GUI
     {
@@ -935,65 +1571,274 @@ public class DeleteDupFiles2
 //    statusPending(dialogSizeText, EMPTY_STATUS); // will do this later
     }
 
-    try
+    /* A checksum cache file may already have this checksum, if the size and
+    date of the file have not changed since the checksum was saved. */
+
+    if (cacheMap != null)         // is there a checksum cache file?
     {
-      buffer = new byte[BUFFER_SIZE]; // allocate bigger, faster input buffer
-      inStream = new FileInputStream(givenFile); // open file for reading bytes
-      messDigest = MessageDigest.getInstance(DIGEST_NAME);
-                                  // initialize MD5 or SHA message digest
-      while ((i = inStream.read(buffer, 0, BUFFER_SIZE)) > 0)
+      fileDate = entry.date;      // date when folder was listed
+      result = lookupCache(filePath, fileSize, fileDate);
+      if (result != null)         // was the checksum found in the cache?
       {
-        /* The user may cancel our processing if this is a very big file.  We
-        must always return a String result, even when things go wrong. */
-
-        if (cancelFlag)           // stop if user hit the panic button
+        synchronized (countLock)  // totals are shared by all worker threads
         {
-          inStream.close();       // try to close input file early
-          return("unknown: cancelled by user for " + filePath);
+          totalCacheBytes += fileSize; // total number of bytes found in cache
+          totalCacheFiles ++;     // total number of checksums found in cache
         }
+        return(result);           // don't read the file
+      }
+    }
+    else
+      fileDate = 0;               // date not needed without a cache file
 
-        /* Update the checksum calculation with the new data. */
-
-        messDigest.update(buffer, 0, i); // update checksum with input bytes
-        sizeDone += i;            // add to number of bytes finished
-
-        /* Update the GUI status if this is a big file. */
+    try
+    {
+      if ((treeSize > 0) && (fileSize >= treeSize)) // big enough for tree?
+        result = digestTree(file, fileSize); // chunks hashed by all cores
+      else
+      {
+        messDigest = getDigest(algorithmName);
+                                  // initialize MD5, SHA, or fast checksum
+        result = digestFile(file, fileSize, messDigest) ? messDigest.digest()
+          : null;                 // raw bytes, not converted to hex string
+      }
+      if (result == null)
+      {
+        /* The user may cancel our processing if this is a very big file.  A
+        null result never matches any other checksum. */
 
-        if ((consoleFlag == false) && ((sizeDone - sizeUser) > BIG_FILE_SIZE))
-        {
-          statusPending(dialogSizeText, formatComma.format(sizeDone));
-                                  // count up file size until completion
-          sizeUser = sizeDone;    // remember what we last told the user
-        }
+        return(null);             // cancelled by user
       }
-      inStream.close();           // try to close input file
-      result = formatHexBytes(messDigest.digest()); // convert to hex string
-      totalChkBytes += fileSize;  // total number of bytes in checksum files
-      totalChkFiles ++;           // total number of checksums calculated
+      synchronized (countLock)    // totals are shared by all worker threads
+      {
+        totalChkBytes += fileSize; // total number of bytes in checksum files
+        totalChkFiles ++;         // total number of checksums calculated
+      }
+      if (cacheMap != null)       // save new checksum in cache file?
+        saveCache(filePath, fileSize, fileDate, result);
       if (consoleFlag == false)   // format text fields if running as GUI
       {
-        statusPending(dialogCheckText, result); // show checksum result
-        statusPending(dialogSizeText, formatComma.format(sizeDone));
+        statusPending(dialogCheckText, formatHexBytes(result)); // show result
+        statusPending(dialogSizeText, formatComma.format(fileSize));
                                   // show file size or final completed size
       }
     }
     catch (IOException ioe)       // file may be locked, invalid, etc
     {
-      result = "unknown: file I/O error for " + filePath;
+      result = null;              // file I/O error
     }
     catch (NoSuchAlgorithmException nsae) // report our failure as a result
     {
-      result = "unknown: bad algorithm for " + filePath;
+      result = null;              // bad algorithm
     }
-
-    if (debugFlag)                // does user want to see what we're doing?
-      putOutput(filePath + " size " + formatComma.format(fileSize)
-        + " checksum " + result);
     return(result);               // return calculated MD5 checksum to caller
 
   } // end of calculateChecksum() method
 
 
+/*
+  calculateConfirm() method
+
+  Given a data object, return the checksum for that file from the stronger
+  <confirmName> algorithm, or <null> if it can't be calculated.  Each checksum
+  is kept in <confirmMap> by path name, because a trusted file may match many
+  unknown files.  These checksums are never cached in a file, or hashed as a
+  tree.  This is called only by the search thread.
+*/
+  static byte[] calculateConfirm(DeleteDupFiles2Data entry)
+  {
+    String filePath;              // name of caller's file, including path
+    MessageDigest messDigest;     // object for calculating stronger checksum
+    byte[] result;                // our result (the checksum as raw bytes)
+
+    filePath = entry.getPath();   // path name is the mapping key
+    result = (byte[]) confirmMap.get(filePath);
+    if (result != null)           // already calculated for an earlier match?
+      return(result);
+    try
+    {
+      messDigest = getDigest(confirmName); // initialize stronger checksum
+      result = digestFile(entry.getFile(), entry.size, messDigest)
+        ? messDigest.digest() : null; // raw bytes, or cancelled by user
+    }
+    catch (IOException ioe)       // file may be locked, invalid, etc
+    {
+      result = null;              // file I/O error
+    }
+    catch (NoSuchAlgorithmException nsae) // report our failure as a result
+    {
+      result = null;              // bad algorithm
+    }
+    if (result != null)           // remember good checksums for later
+    {
+      confirmMap.put(filePath, result);
+      totalConfirmBytes += entry.size; // total bytes for confirming checksums
+      totalConfirmFiles ++;       // total number of confirming checksums
+    }
+    return(result);               // return confirming checksum to caller
+
+  } // end of calculateConfirm() method
+
+
+/*
+  calculatePartial() method
+
+  Given a data object, return a partial checksum for that file as raw binary
+  bytes, using only the first and last <partialSize> bytes.  This is much
+  faster than a full checksum for large files, and most files with the same
+  size but different contents will have different partial checksums.  Equal
+  partial checksums prove nothing; a full checksum must still be calculated.
+  If the partial checksum can not be calculated, then <null> is returned
+  instead.  Like calculateChecksum(), this method may be called by several
+  worker threads at the same time.
+*/
+  static byte[] calculatePartial(DeleteDupFiles2Data entry)
+  {
+    byte[] buffer;                // input buffer for reading file
+    File file;                    // caller's file, created only when hashed
+    String filePath;              // name of caller's file, including path
+    long fileSize;                // size of caller's file in bytes
+    RandomAccessFile inFile;      // input file with random access
+    MessageDigest messDigest;     // object for calculating MD5 checksum
+    byte[] result;                // our result (the checksum as raw bytes)
+
+    file = entry.getFile();       // Java File object, only while hashing
+    filePath = file.getPath();    // get name of caller's file, with path
+    fileSize = entry.size;        // size when folder was listed, no system call
+
+    if (consoleFlag == false)     // format text fields if running as GUI
+    {
+      statusPending(dialogFileText, file.getName()); // without path
+      statusPending(dialogPathText, filePath); // caller's file, including path
+    }
+
+    try
+    {
+      buffer = new byte[partialSize]; // one buffer for each end of the file
+      messDigest = getDigest(algorithmName);
+                                  // initialize MD5, SHA, or fast checksum
+      inFile = new RandomAccessFile(file, "r"); // open file for reading
+      try
+      {
+        inFile.readFully(buffer, 0, partialSize); // first bytes in the file
+        messDigest.update(buffer, 0, partialSize);
+        inFile.seek(fileSize - partialSize); // last bytes in the file
+        inFile.readFully(buffer, 0, partialSize);
+        messDigest.update(buffer, 0, partialSize);
+      }
+      finally
+      {
+        inFile.close();           // always close input file, even if shorter
+      }
+      result = messDigest.digest(); // raw bytes, not converted to hex string
+      synchronized (countLock)    // totals are shared by all worker threads
+      {
+        totalPartBytes += 2L * partialSize; // total bytes for partial checksums
+        totalPartFiles ++;        // total number of partial checksums
+      }
+    }
+    catch (IOException ioe)       // file may be locked, invalid, changed, etc
+    {
+      result = null;              // file I/O error
+    }
+    catch (NoSuchAlgorithmException nsae) // report our failure as a result
+    {
+      result = null;              // bad algorithm
+    }
+    return(result);               // return partial checksum to caller
+
+  } // end of calculatePartial() method
+
+
+/*
+  closeCache() method
+
+  Finish writing new checksums to the cache file, if there is one, and release
+  the mapping of cached checksums.
+*/
+  static void closeCache()
+  {
+    if (cacheWriter != null)      // is the cache file open for writing?
+    {
+      synchronized (cacheWriter)  // worker threads may still be adding lines
+      {
+        try { cacheWriter.close(); } // try to close output file
+        catch (IOException ioe)   // not much we can do about it now
+        {
+          putOutput("Can't write to checksum cache file: " + ioe.getMessage());
+        }
+      }
+    }
+    cacheMap = null;              // release cached checksums
+    cacheWriter = null;           // and no more lines written
+  }
+
+
+/*
+  closeQuarantine() method
+
+  Give the last batch of duplicates to the move thread, wait for all moves to
+  finish, and close the quarantine manifest file.  Nothing happens if there is
+  no quarantine folder.
+*/
+  static void closeQuarantine()
+  {
+    if (moveQueue != null)        // was the move thread started?
+    {
+      if (moveBatch.count > 0)    // last batch from the action thread
+        queueMove(null);
+      moveBatch = new DeleteDupFiles2Move(0); // empty batch marks the end
+      queueMove(null);
+      try { moveThread.join(); }  // wait for all moves to finish
+      catch (InterruptedException ie) { }
+      moveBatch = null;
+      moveQueue = null;
+      moveThread = null;
+    }
+    if (manifestWriter != null)   // was the manifest file opened?
+    {
+      try { manifestWriter.close(); } // try to close output file
+      catch (IOException ioe)     // not much we can do about it now
+      {
+        putOutput("Can't write quarantine manifest file: " + ioe.getMessage());
+      }
+      manifestWriter = null;
+    }
+  } // end of closeQuarantine() method
+
+
+/*
+  confirmChecksum() method
+
+  Return <true> if two files that have the same checksum also have the same
+  checksum from the stronger <confirmName> algorithm.  Fast checksums like
+  CRC32C are much more likely to collide by chance than MD5 or SHA, so with the
+  -confirm option, each match is checked again before anything is done to the
+  unknown file.  Files whose first checksums are different, which is most of
+  them, are never read a second time.  A checksum that can't be calculated
+  never confirms a match.  This is called only by the search thread.
+*/
+  static boolean confirmChecksum(
+    DeleteDupFiles2Data entry,    // unknown file
+    DeleteDupFiles2Data known)    // known file with the same checksum
+  {
+    byte[] knownSum, unknownSum;  // stronger checksums for both files
+    boolean result;               // true if both checksums are the same
+
+    knownSum = calculateConfirm(known); // trusted files often match again
+    unknownSum = (knownSum == null) ? null : calculateConfirm(entry);
+    result = (unknownSum != null) && Arrays.equals(knownSum, unknownSum);
+    if ((unknownSum != null) && (result == false)) // a real collision?
+      totalConfirmMisses ++;      // first checksums same, contents different
+    if (debugFlag)                // does user want to see what we're doing?
+      putOutput(entry.getPath() + " - " + confirmName + " checksum "
+        + ((unknownSum != null) ? formatHexBytes(unknownSum) : "unknown")
+        + (result ? " confirms " : " does not confirm ") + known.getPath());
+    return(result);
+
+  } // end of confirmChecksum() method
+
+
 /*
   confirmDelete() method
 
@@ -1166,1065 +2011,5751 @@ public class DeleteDupFiles2
 
 
 /*
-  doCancelButton() method
-
-  This method is called while we are opening files or folders if the user wants
-  to end the processing early, perhaps because it is taking too long.  We must
-  cleanly terminate any secondary threads.  Leave whatever output has already
-  been generated in the output text area.
-*/
-  static void doCancelButton()
-  {
-    cancelFlag = true;            // tell other threads that all work stops now
-    putOutput("Cancelled by user.", true); // print message and scroll
-    dialogRelease();              // release inner dialog box if we are waiting
-  }
-
-
-/*
-  doFileSearch() method
-
-  The caller gives us a Java File object for a "known good" (trusted) file or
-  folder, and a second Java File object for an unknown file or folder.  Create
-  a list of files in the trusted folder, sorted by size.  For each file in the
-  unknown folder, compare MD5 checksums with trusted files of the same size.
-  Delete unknown files that have matching checksums.  Add unknown files with
-  unique checksums to the list, in case there are more unknown files with the
-  same checksum.
+  digestChunk() method
+
+  Return the checksum for one chunk of a big file, as part of a tree checksum.
+  The file channel is shared by all chunks of the same file, and is only read
+  at given positions, which is safe from several threads at once.  Chunks are
+  mapped into memory if <readMode> maps big files, and otherwise are read with
+  this thread's direct buffer.  Return <null> if the user cancelled.  This is
+  called by the threads in <treePool>.
 */
-  static void doFileSearch(File givenTrusted, File givenUnknown)
+  static byte[] digestChunk(
+    FileChannel channel,          // caller's file, opened for reading
+    long start,                   // byte offset of first byte in chunk
+    long length)                  // number of bytes in chunk
+    throws IOException, NoSuchAlgorithmException
   {
-    TreeMap sizeList;             // mapping of file sizes to File objects
-    File thisFile;                // current file or folder when searching
-    File trusted, unknown;        // caller's File objects in canonical form
-
-    /* Convert the caller's abstract path names to more precise canonical form,
-    if the files/folders exist.  This removes differences between absolute and
-    relative path names. */
+    ByteBuffer bufferNio;         // direct byte buffer for reading channel
+    int i;                        // number of bytes read at one time
+    MessageDigest messDigest;     // object for calculating MD5 checksum
+    long sizeDone;                // how much of <length> has been finished
 
-    if (givenTrusted == null)     // algorithm works without pre-existing data
-      trusted = null;             // so we accept missing trusted file/folder
-    else if ((givenTrusted.isDirectory() == false) // if not an existing folder
-      && (givenTrusted.isFile() == false)) // and if not an existing file
+    if (cancelFlag) return(null); // stop if user hit the panic button
+    messDigest = getDigest(algorithmName);
+    if (readMode == READ_MAPPED)  // map whole chunk into memory?
     {
-      putOutput(("Trusted file/folder does not exist: "
-        + givenTrusted.getPath()), true); // print message and scroll
-      return;
-    }
-    else try { trusted = givenTrusted.getCanonicalFile(); }
-    catch (IOException ioe)       // if the system couldn't handle file name
-    {
-      putOutput(("Can't convert trusted file/folder to canonical form: "
-        + givenTrusted.getPath()), true);
-      return;
+      messDigest.update(channel.map(FileChannel.MapMode.READ_ONLY, start,
+        length));                 // digest reads mapped pages directly
+      return(messDigest.digest());
     }
 
-    if ((givenUnknown.isDirectory() == false) // if not an existing folder
-      && (givenUnknown.isFile() == false)) // and if not an existing file
+    bufferNio = (ByteBuffer) readBuffer.get(); // this thread's buffer
+    if ((bufferNio == null) || (bufferNio.capacity() < MAX_BUFFER))
     {
-      putOutput(("Unknown file/folder does not exist: "
-        + givenUnknown.getPath()), true);
-      return;
+      bufferNio = ByteBuffer.allocateDirect(MAX_BUFFER); // chunks are big
+      readBuffer.set(bufferNio);  // remember for next chunk in this thread
     }
-    else try { unknown = givenUnknown.getCanonicalFile(); }
-    catch (IOException ioe)       // if the system couldn't handle file name
+    sizeDone = 0;                 // we haven't read anything yet
+    while (sizeDone < length)
     {
-      putOutput(("Can't convert unknown file/folder to canonical form: "
-        + givenUnknown.getPath()), true);
-      return;
+      if (cancelFlag) return(null); // stop if user hit the panic button
+      bufferNio.clear();          // empty buffer for reading
+      bufferNio.limit((int) Math.min(MAX_BUFFER, (length - sizeDone)));
+      if ((i = channel.read(bufferNio, (start + sizeDone))) <= 0)
+        throw new EOFException("file is shorter than expected");
+      bufferNio.flip();           // prepare to get what was read
+      messDigest.update(bufferNio); // update checksum without copying
+      sizeDone += i;              // add to number of bytes finished
     }
+    return(messDigest.digest());  // raw bytes, not converted to hex string
 
-    /* The trusted folder can not be the same as the unknown folder, or a file
-    or subfolder anywhere inside an unknown folder.  Otherwise, all files in a
-    trusted folder will be incorrectly detected as duplicates.  Be strict: our
-    <recurseFlag> can change by a GUI option while we are scanning folders. */
+  } // end of digestChunk() method
 
-    thisFile = trusted;           // search up directory tree starting here
-    while (thisFile != null)      // ends when we hit a directory root
+
+/*
+  digestFile() method
+
+  Read all bytes in a file and update a message digest (checksum), using the
+  method selected by the <readMode> option.  Return <false> if the user
+  cancelled, or <true> when the whole file has been read.  This is called from
+  calculateChecksum() and may be called by several worker threads at once.
+
+  Input streams copy each block of data from the system into a Java byte array.
+  File channels read into a "direct" byte buffer outside the Java heap, which
+  the message digest can use without that copy.  Each thread keeps its own
+  buffer, sized for the biggest file it has seen so far, up to <MAX_BUFFER>.
+  Big files can also be mapped into memory in chunks, so the system pages in
+  the data without any read calls.  Mapped files stay mapped until Java frees
+  the buffer, and on Windows, a mapped file can't be deleted until then.
+*/
+  static boolean digestFile(
+    File givenFile,               // caller's file to be read
+    long fileSize,                // size of caller's file in bytes
+    MessageDigest messDigest)     // caller's digest, updated with file data
+    throws IOException
+  {
+    byte[] buffer;                // input buffer for reading stream
+    ByteBuffer bufferNio;         // direct byte buffer for reading channel
+    FileChannel channel;          // input file channel
+    long chunk;                   // bytes in one mapped chunk of file
+    int i;                        // index variable
+    FileInputStream inStream;     // input file stream
+    int size;                     // adaptive buffer size for this file
+    long sizeDone;                // how much of <fileSize> has been finished
+    long sizeUser;                // last <sizeDone> reported to user
+
+    inStream = new FileInputStream(givenFile); // open file for reading bytes
+    sizeDone = sizeUser = 0;      // we haven't read anything yet
+    try
     {
-      if (thisFile.equals(unknown)) // if same folder, or any parent is same
+      if (readMode == READ_STREAM) // original method with input stream?
       {
-        putOutput(
-          "Trusted folder can not be same or subfolder of unknown folder.");
-        putOutput("Trusted file/folder resolves to: " + trusted.getPath());
-        putOutput(("Unknown file/folder resolves to: " + unknown.getPath()),
-          true);                  // print message and scroll
-        return;
+        buffer = new byte[BUFFER_SIZE]; // allocate bigger, faster input buffer
+        while ((i = inStream.read(buffer, 0, BUFFER_SIZE)) > 0)
+        {
+          if (cancelFlag) return(false); // stop if user hit the panic button
+          messDigest.update(buffer, 0, i); // update checksum with input bytes
+          sizeDone += i;          // add to number of bytes finished
+          if ((consoleFlag == false) && ((sizeDone - sizeUser) > BIG_FILE_SIZE))
+          {
+            statusPending(dialogSizeText, formatComma.format(sizeDone));
+                                  // count up file size until completion
+            sizeUser = sizeDone;  // remember what we last told the user
+          }
+        }
+        return(true);             // whole file has been read
       }
-      thisFile = thisFile.getParentFile(); // go up in the directory tree
-    }
-
-    /* At this point, it looks like we will be able to proceed.  Clear the
-    output text area if running as a graphical application. */
-
-    if (consoleFlag == false)     // only if running as GUI
-      outputText.setText("");     // clear output text area
-
-    /* Call a recursive helper method to collect file names and sizes for the
-    trusted folder. */
 
-    sizeList = new TreeMap();     // start with an empty size mapping
-    if (trusted != null)          // no trusted means no pre-existing file data
-      doFileTrusted(sizeList, trusted, unknown); // recursive, may be cancelled
-
-    /* Call a recursive helper method to compare file sizes and checksums for
-    the unknown folder. */
+      channel = inStream.getChannel(); // same file, but as a channel
+      if ((readMode == READ_MAPPED) && (fileSize > BIG_FILE_SIZE))
+      {
+        /* Map one chunk of the file at a time, because mapping the whole file
+        may fail for very big files if there isn't enough address space. */
 
-    if (cancelFlag) return;       // stop if user hit the panic button
-    doFileUnknown(sizeList, unknown); // recursive, may be cancelled
+        while (sizeDone < fileSize)
+        {
+          if (cancelFlag) return(false); // stop if user hit the panic button
+          chunk = Math.min(MAP_CHUNK, (fileSize - sizeDone));
+          messDigest.update(channel.map(FileChannel.MapMode.READ_ONLY,
+            sizeDone, chunk));    // digest reads mapped pages directly
+          sizeDone += chunk;      // add to number of bytes finished
+          if (consoleFlag == false)
+            statusPending(dialogSizeText, formatComma.format(sizeDone));
+        }
+        return(true);             // whole file has been read
+      }
 
-    /* Print a summary even if the user cancelled.  Scroll each summary line,
-    because the Java 1.4 run-time may be busy displaying text and "forget" to
-    scroll the last line. */
+      /* Read with a direct buffer.  Small files get a buffer that is just big
+      enough, and bigger files get a bigger buffer, with fewer calls to the
+      system.  The buffer belongs to this thread and is kept for later. */
 
-    putOutput("");                // one blank line before summary
-    putOutput(("Deleted " + prettyPlural(totalDelFiles, "file") + " using "
-      + prettyPlural(totalDelBytes, "byte") + ", with "
-      + prettyPlural(totalDelErrors, "error") + "."), true);
-    putOutput(("Found " + prettyPlural(totalDupFiles, "duplicate file")
-      + " using " + prettyPlural(totalDupBytes, "byte") + "."), true);
-    putOutput(("Calculated " + prettyPlural(totalChkFiles, "checksum")
-      + " with " + prettyPlural(totalChkBytes, "byte") + "."), true);
-    putOutput(((cancelFlag ? "Found " : "Finished ")
-      + prettyPlural(totalUnkFolders, "unknown folder") + " and "
-      + prettyPlural(totalUnkFiles, "file") + " using "
-      + prettyPlural(totalUnkBytes, "byte") + "."), true);
+      size = BUFFER_SIZE;         // start with the usual buffer size
+      while ((size < fileSize) && (size < MAX_BUFFER))
+        size *= 2;                // grow buffer size until big enough
+      bufferNio = (ByteBuffer) readBuffer.get(); // this thread's buffer
+      if ((bufferNio == null) || (bufferNio.capacity() < size))
+      {
+        bufferNio = ByteBuffer.allocateDirect(size); // new or bigger buffer
+        readBuffer.set(bufferNio); // remember for next file in this thread
+      }
+      bufferNio.clear();          // empty buffer for reading
+      while (channel.read(bufferNio) > 0)
+      {
+        if (cancelFlag) return(false); // stop if user hit the panic button
+        bufferNio.flip();         // prepare to get what was read
+        sizeDone += bufferNio.remaining(); // add to number of bytes finished
+        messDigest.update(bufferNio); // update checksum without copying
+        bufferNio.clear();        // empty buffer for next read
+        if ((consoleFlag == false) && ((sizeDone - sizeUser) > BIG_FILE_SIZE))
+        {
+          statusPending(dialogSizeText, formatComma.format(sizeDone));
+                                  // count up file size until completion
+          sizeUser = sizeDone;    // remember what we last told the user
+        }
+      }
+      return(true);               // whole file has been read
+    }
+    finally
+    {
+      inStream.close();           // always close input file (and channel)
+    }
 
-  } // end of doFileSearch() method
+  } // end of digestFile() method
 
 
 /*
-  doFileTrusted() method
+  digestTree() method
 
-  Recursively scan a file directory (folder) to create a mapping of file sizes
-  to vectors of DeleteDupFiles2Data objects.  This is used for the trusted file
-  or folder.  No duplicate detection occurs here.
+  Return a tree checksum for a big file, or <null> if the user cancelled.  The
+  file is cut into chunks of <TREE_CHUNK> bytes, and each chunk is hashed on
+  its own by the threads in <treePool>, so all processor cores work on one
+  file.  The checksums of all chunks, in order, are then hashed again to give
+  the root checksum.  This is not the same as a whole-file checksum, so every
+  file of at least <treeSize> bytes is hashed this way, trusted or unknown.
+
+  This is called from calculateChecksum() and may be called by several worker
+  threads at once.  They all share <treePool>.
 */
-  static void doFileTrusted(
-    TreeMap sizeList,             // mapping of file sizes to File objects
-    File givenFile,               // caller gives us one file or folder
-    File avoidFile)               // don't search this subfolder if found
+  static byte[] digestTree(
+    File givenFile,               // caller's file to be read
+    long fileSize)                // size of caller's file in bytes
+    throws IOException, NoSuchAlgorithmException
   {
-    File[] contents;              // contents if <givenFile> is a folder
-    long fileSize;                // size of caller's file in bytes
+    FileChannel channel;          // input file channel, shared by all chunks
+    long chunk;                   // bytes in one chunk of file
+    int count;                    // number of chunks in file
     int i;                        // index variable
-    File next;                    // next File object from <contents>
-    Long sizeKey;                 // file size converted to an object
-
-    if (cancelFlag) return;       // stop if user hit the panic button
-
-    if (givenFile.equals(avoidFile)) // unknown may be subfolder of trusted
-    {
-      if (debugFlag)              // does user want to see what we're doing?
-        putOutput(givenFile.getPath()
-          + " - ignoring the \"unknown\" file/folder");
-    }
-    else if (givenFile.isDirectory()) // is this a folder?
+    FileInputStream inStream;     // input file stream
+    byte[] part;                  // checksum for one chunk
+    Future[] parts;               // chunks being hashed by <treePool>
+    MessageDigest rootDigest;     // checksum for all chunk checksums
+
+    count = (int) ((fileSize + TREE_CHUNK - 1) / TREE_CHUNK); // round up
+    parts = new Future[count];
+    rootDigest = getDigest(algorithmName);
+    inStream = new FileInputStream(givenFile); // open file for reading bytes
+    try
     {
-      if (true) // (consoleFlag || debugFlag) // trace our directory search?
-        putOutput("Scanning trusted folder " + givenFile.getPath());
-      contents = sortFileList(givenFile.listFiles()); // no filter, but sorted
-      for (i = 0; i < contents.length; i ++) // for each file in order
+      channel = inStream.getChannel(); // same file, but as a channel
+      for (i = 0; i < count; i ++) // start all chunks, in order
       {
-        if (cancelFlag) return;   // stop if user hit the panic button
-        next = contents[i];       // get next File object from <contents>
-        if ((hiddenFlag == false) && next.isHidden()) // hidden file or folder?
-        {
-          if (debugFlag)          // does user want to see what we're doing?
-            putOutput(next.getPath() + " - ignoring hidden file/folder");
-        }
-        else if (next.isDirectory()) // is this entry for a folder?
+        chunk = Math.min(TREE_CHUNK, (fileSize - ((long) i * TREE_CHUNK)));
+        parts[i] = new FutureTask(new DeleteDupFiles2Tree(channel,
+          ((long) i * TREE_CHUNK), chunk)); // one chunk of the file
+        if (treePool != null)     // are there threads for chunks?
+          treePool.execute((Runnable) parts[i]);
+        else                      // no, hash chunk in this thread
+          ((Runnable) parts[i]).run();
+      }
+      for (i = 0; i < count; i ++) // collect results, in order
+      {
+        try { part = (byte[]) parts[i].get(); }
+        catch (ExecutionException ee) // read error, file changed, etc
         {
-          if (recurseFlag)        // does user want us to do subfolders?
-            doFileTrusted(sizeList, next, avoidFile); // yes, do recursion
-          else if (debugFlag)     // does user want to see what we're doing?
-            putOutput(next.getPath() + " - ignoring subfolder");
+          if (ee.getCause() instanceof IOException)
+            throw (IOException) ee.getCause();
+          part = null;            // any other failure
         }
-        else if (next.isFile())   // entry is for a regular file
-          doFileTrusted(sizeList, next, avoidFile); // always do files found
-        else
-          { /* Silently ignore unknown directory entries. */ }
+        catch (InterruptedException ie) { part = null; } // interrupted
+        if (part == null)         // cancelled, or failed
+          return(null);
+        rootDigest.update(part);  // root checksum is over chunk checksums
+        parts[i] = null;          // release finished chunk
       }
-    }
-    else if (givenFile.isFile())  // is this a file?
-    {
-      fileSize = givenFile.length(); // get size of caller's file in bytes
-      if (zeroFlag || (fileSize > 0)) // normally only want non-empty files
+      synchronized (countLock)    // totals are shared by all worker threads
       {
-        sizeKey = new Long(fileSize); // get file size as an object
-        if (sizeList.containsKey(sizeKey) == false) // map entry for this size?
-          sizeList.put(sizeKey, new Vector()); // no, add empty list for size
-        ((Vector) sizeList.get(sizeKey))
-          .add(new DeleteDupFiles2Data(givenFile)); // append new entry
+        totalTreeFiles ++;        // total number of tree checksums
       }
-      else if (debugFlag)         // does user want to see what we're doing?
-        putOutput(givenFile.getPath() + " - ignoring zero-byte empty file");
+      if ((consoleFlag == false) && (cancelFlag == false))
+        statusPending(dialogSizeText, formatComma.format(fileSize));
+      return(rootDigest.digest()); // raw bytes, not converted to hex string
     }
-    else
+    finally
     {
-      /* Silently ignore anything we can't identify as a file or folder. */
+      for (i = 0; i < count; i ++) // don't read after the file is closed
+        if (parts[i] != null) parts[i].cancel(false);
+      inStream.close();           // always close input file (and channel)
     }
-  } // end of doFileTrusted() method
+
+  } // end of digestTree() method
 
 
 /*
-  doFileUnknown() method
+  doActionRunner() method
 
-  Recursively scan a file directory (folder) to find files that have the same
-  size and checksum as files in the <sizeList> mapping.  This is used for the
-  unknown file or folder.  The real duplicate detection occurs here.
+  This method is called inside a separate thread by the runnable interface of
+  our "action" class.  It takes output lines and deletions from the queue, in
+  the order that they were decided by the search, until it finds an empty
+  action marking the end of the queue.
 */
-  static void doFileUnknown(
-    TreeMap sizeList,             // mapping of file sizes to File objects
-    File givenFile)               // caller gives us one file or folder
+  static void doActionRunner()
   {
-    File[] contents;              // contents if <givenFile> is a folder
-    String filePath;              // name of caller's file, including path
-    long fileSize;                // size of caller's file in bytes
-    int i;                        // index variable
-    File next;                    // next File object from <contents>
-    DeleteDupFiles2Data sizeEntry; // current item from <sizeVector>
-    int sizeIndex;                // current index of into <sizeVector>
-    Long sizeKey;                 // file size converted to an object
-    int sizeLength;               // number of items in <sizeVector>
-    Vector sizeVector;            // list of files having the same size
-    DeleteDupFiles2Data unknownEntry; // data object for unknown file
+    DeleteDupFiles2Action action; // one item taken from <actionQueue>
 
-    if (cancelFlag) return;       // stop if user hit the panic button
+    while (true)
+    {
+      try { action = (DeleteDupFiles2Action) actionQueue.take(); }
+      catch (InterruptedException ie) { break; } // treat as end of queue
+      if (action.entry != null)   // is this a duplicate file to delete?
+        doFileDelete(action.entry, action.same);
+      else if (action.text != null) // is this a line of output?
+        putOutput(action.text, action.scroll);
+      else                        // empty action marks end of queue
+        break;
+    }
+  } // end of doActionRunner() method
 
-    filePath = givenFile.getPath(); // get name of caller's file, with path
-    if (givenFile.isDirectory())  // is this a folder?
+
+/*
+  doCancelButton() method
+
+  This method is called while we are opening files or folders if the user wants
+  to end the processing early, perhaps because it is taking too long.  We must
+  cleanly terminate any secondary threads.  Leave whatever output has already
+  been generated in the output text area.
+*/
+  static void doCancelButton()
+  {
+    cancelFlag = true;            // tell other threads that all work stops now
+    putOutput("Cancelled by user.", true); // print message and scroll
+    dialogRelease();              // release inner dialog box if we are waiting
+  }
+
+
+/*
+  doFileApply() method
+
+  Carry out the decisions saved in a plan file by the -plan option, without
+  calculating any checksums.  Each line after the folder names has the
+  checksum, the size, the dates of the duplicate and known files, and then
+  the two path names separated by a tab.  A decision is only carried out if
+  both files still have the size and date that they had when the plan was
+  saved.  The current options choose whether duplicates are deleted, replaced
+  with hard links, or moved to a quarantine folder.
+*/
+  static void doFileApply(File planFile)
+  {
+    byte[] checksum;              // checksum converted from hexadecimal
+    int end1, end2, end3, end4;   // end of fields in one line
+    long givenDate, sameDate;     // dates of both files when plan was saved
+    DeleteDupFiles2Data givenEntry; // duplicate file from "unknown" folder
+    String givenPath, samePath;   // path names for both files
+    BufferedReader input;         // input character stream from plan file
+    String line;                  // one line from plan file
+    DeleteDupFiles2Data sizeEntry; // known file with same size and checksum
+    long size;                    // size of both files when plan was saved
+    int tab;                      // index of tab between path names
+    File trusted, unknown;        // folders that were searched for the plan
+
+    storeMap = linkFlag ? new HashMap() : null; // file store for each folder
+    try
     {
-      totalUnkFolders ++;         // total number of unknown folders
-      if (true) // (consoleFlag || debugFlag) // trace our directory search?
-        putOutput("Checking unknown folder " + givenFile.getPath());
-      contents = sortFileList(givenFile.listFiles()); // no filter, but sorted
-      for (i = 0; i < contents.length; i ++) // for each file in order
+      input = new BufferedReader(new InputStreamReader(new FileInputStream(
+        planFile), "UTF-8"), BUFFER_SIZE); // open plan file for reading
+      try
       {
-        if (cancelFlag) return;   // stop if user hit the panic button
-        next = contents[i];       // get next File object from <contents>
-        if ((hiddenFlag == false) && next.isHidden()) // hidden file or folder?
+        if ((PLAN_HEADER + digestName).equals(input.readLine()) == false)
         {
-          if (debugFlag)          // does user want to see what we're doing?
-            putOutput(next.getPath() + " - ignoring hidden file/folder");
+          putOutput("Not a plan file for " + digestName + " checksums: "
+            + planFile.getPath());
+          return;
         }
-        else if (next.isDirectory()) // is this entry for a folder?
+        line = input.readLine();  // unknown and trusted folders
+        if ((line == null) || ((tab = line.indexOf('\t')) < 0))
         {
-          if (recurseFlag)        // does user want us to do subfolders?
-            doFileUnknown(sizeList, next); // yes, do recursion
-          else if (debugFlag)     // does user want to see what we're doing?
-            putOutput(next.getPath() + " - ignoring subfolder");
+          putOutput("Missing folder names in plan file: " + planFile.getPath());
+          return;
         }
-        else if (next.isFile())   // entry is for a regular file
-          doFileUnknown(sizeList, next); // always do files found
-        else
-          { /* Silently ignore unknown directory entries. */ }
-      }
-    }
-    else if (givenFile.isFile())  // is this a file?
-    {
-      fileSize = givenFile.length(); // get size of caller's file in bytes
-      totalUnkBytes += fileSize;  // total number of bytes in unknown files
-      totalUnkFiles ++;           // total number of unknown files
-      if (zeroFlag || (fileSize > 0)) // normally only want non-empty files
-      {
-        sizeKey = new Long(fileSize); // get file size as an object
-        if (sizeList.containsKey(sizeKey) == false) // map entry for this size?
-          sizeList.put(sizeKey, new Vector()); // no, add empty list for size
-        sizeVector = (Vector) sizeList.get(sizeKey); // files with same size
-        sizeLength = sizeVector.size(); // get number of known files this size
-        unknownEntry = new DeleteDupFiles2Data(givenFile); // saves checksum
-
-        /* Do we need to calculate the checksum for this unknown file? */
+        unknown = new File(line.substring(0, tab));
+        trusted = (tab == (line.length() - 1)) ? null
+          : new File(line.substring(tab + 1)); // may not have trusted folder
+        if (openQuarantine(unknown, trusted) == false) // quarantine folder?
+          return;                 // message has already been printed
 
-        if (sizeLength > 0)       // don't calculate if nothing to compare to
-          unknownEntry.md5 = calculateChecksum(givenFile);
-        if (cancelFlag) return;   // stop if user hit the panic button
-
-        /* Loop through all previously known files with the same size. */
-
-        for (sizeIndex = 0; sizeIndex < sizeLength; sizeIndex ++)
+        while ((line = input.readLine()) != null) // until end of file
         {
-          sizeEntry = (DeleteDupFiles2Data) sizeVector.get(sizeIndex);
-
-          /* Do we need to compute the checksum for this <sizeEntry>? */
-
-          if (sizeEntry.md5 == null) // don't calculate if already done
-            sizeEntry.md5 = calculateChecksum(sizeEntry.file);
-          if (cancelFlag) return; // stop if user hit the panic button
-
-          /* Does the unknown file have the same checksum as <sizeEntry>? */
-
-          if (sizeEntry.md5.equals(unknownEntry.md5))
+          end1 = line.indexOf(' '); // end of checksum
+          end2 = (end1 < 0) ? -1 : line.indexOf(' ', (end1 + 1)); // size
+          end3 = (end2 < 0) ? -1 : line.indexOf(' ', (end2 + 1)); // date
+          end4 = (end3 < 0) ? -1 : line.indexOf(' ', (end3 + 1)); // date
+          tab = (end4 < 0) ? -1 : line.indexOf('\t', (end4 + 1)); // names
+          checksum = (end1 > 0) ? parseHexBytes(line.substring(0, end1))
+            : null;               // convert checksum to raw bytes
+          try
           {
-            totalDupBytes += fileSize; // total number of duplicate bytes
-            totalDupFiles ++;     // total number of duplicate files
-            putOutput(filePath + " - same as " + sizeEntry.file.getPath());
-            if (cancelFlag) return; // stop if user hit the panic button
-            if ((readonlyFlag == false) && (givenFile.canWrite() == false))
-            {
-              /* On systems such as Microsoft Windows, Java can and will delete
-              read-only files.  Don't allow this.  Since the read-only flag is
-              generally set for a good reason, don't count this as an error. */
+            size = Long.parseLong(line.substring((end1 + 1), end2));
+            givenDate = Long.parseLong(line.substring((end2 + 1), end3));
+            sameDate = Long.parseLong(line.substring((end3 + 1), end4));
+          }
+          catch (RuntimeException re) // bad number, or missing field
+          {
+            size = -1;            // same as a line with no checksum
+            givenDate = sameDate = 0;
+          }
+          if ((tab < 0) || (checksum == null) || (size < 0))
+          {
+            totalPlanSkips ++;    // count as a decision not carried out
+            putOutput("Bad line in plan file: " + line);
+            continue;
+          }
+          givenPath = line.substring((end4 + 1), tab);
+          samePath = line.substring(tab + 1);
 
-              putOutput(filePath + " - can't delete read-only files");
-            }
-            else if ((hiddenFlag == false) && givenFile.isHidden())
-            {
-              /* Similarly, don't delete hidden files, unless we were given
-              explicit permission to do this with a command-line option. */
+          /* Both files must be exactly as they were when the plan was saved.
+          Otherwise, the checksum in the plan may no longer be correct. */
 
-              putOutput(filePath + " - can't delete hidden files");
-            }
-            else if (confirmDelete(givenFile, sizeEntry.file, sizeEntry.md5)
-              == false)           // if GUI, ask user if we can delete file
-            {
-              if (cancelFlag == false) // only say something if not cancelled
-                putOutput(filePath + " - user said \"no\" to deletion");
-            }
-            else if (debugFlag)   // don't delete files while debugging
-            {
-              putOutput(filePath + " - debug flag simulates deletion");
-            }
-            else if (false && givenFile.delete()) // try to delete this file
-            {
-              totalDelBytes += fileSize; // total number of bytes deleted
-              totalDelFiles ++;   // total number of deleted files
-              putOutput(filePath + " - deleted");
-            }
-            else                  // Java doesn't say why delete failed
-            {
-              totalDelErrors ++;  // total number of failures to delete
-              putOutput(filePath + " - failed to delete file");
-            }
-            return;               // exit early from <for> loop
+          givenEntry = getFileData(Paths.get(givenPath), null);
+          sizeEntry = getFileData(Paths.get(samePath), null);
+          if ((givenEntry == null) || givenEntry.folder
+            || (givenEntry.size != size) || (givenEntry.date != givenDate))
+          {
+            totalPlanSkips ++;
+            putOutput(givenPath + " - changed since plan was saved");
+          }
+          else if ((sizeEntry == null) || sizeEntry.folder
+            || (sizeEntry.size != size) || (sizeEntry.date != sameDate))
+          {
+            totalPlanSkips ++;
+            putOutput(givenPath + " - known file changed since plan was saved");
+          }
+          else
+          {
+            sizeEntry.setChecksum(checksum); // for debug output and dialogs
+            totalPlanBytes += size; // total number of bytes in decisions
+            totalPlanFiles ++;    // total number of decisions carried out
+            doFileDelete(givenEntry, sizeEntry);
           }
         }
-        sizeVector.add(unknownEntry); // unknown file is unique, add to list
       }
-      else if (debugFlag)         // does user want to see what we're doing?
-        putOutput(filePath + " - ignoring zero-byte empty file");
+      finally
+      {
+        input.close();            // try to close input file
+        closeQuarantine();        // finish moving files, close manifest
+      }
     }
-    else
+    catch (IOException ioe)       // file may be missing, locked, etc
     {
-      /* Silently ignore anything we can't identify as a file or folder. */
+      putOutput("Can't read plan file: " + ioe.getMessage());
     }
-  } // end of doFileUnknown() method
+    storeMap = null;              // release file stores for folders
+
+    putOutput("");                // one blank line before summary
+    putDeleted();                 // deleted, replaced, or moved files
+    putOutput(("Applied " + prettyPlural(totalPlanFiles, "decision")
+      + " using " + prettyPlural(totalPlanBytes, "byte") + ", and skipped "
+      + prettyPlural(totalPlanSkips, "decision") + "."), true);
+
+  } // end of doFileApply() method
 
 
 /*
-  doSaveButton() method
+  doFileDelete() method
 
-  Ask the user for an output file name, create or replace that file, and copy
-  the contents of our output text area to that file.  The output file will be
-  in the default character set for the system, so if there are special Unicode
-  characters in the displayed text (Arabic, Chinese, Eastern European, etc),
-  then you are better off copying and pasting the output text directly into a
-  Unicode-aware application like Microsoft Word.
+  Delete an unknown file that has the same size and checksum as a known file,
+  if it isn't protected, and if the user agrees.  This is called by the action
+  thread, after all earlier output has been written, so that a slow deletion
+  or a GUI prompt doesn't stop the search.
 */
-  static void doSaveButton()
+  static void doFileDelete(
+    DeleteDupFiles2Data givenEntry, // duplicate file from "unknown" folder
+    DeleteDupFiles2Data sizeEntry) // known file with same size and checksum
   {
-    FileWriter output;            // output file stream
-    File userFile;                // file chosen by the user
-
-    /* Ask the user for an output file name. */
+    File givenFile;               // caller's unknown file
+    String filePath;              // name of caller's file, including path
 
-    fileChooser.resetChoosableFileFilters(); // remove any existing filters
-    fileChooser.setDialogTitle("Save Output as Text File...");
-    fileChooser.setFileHidingEnabled(true); // don't show hidden files
-    fileChooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
-    fileChooser.setMultiSelectionEnabled(false); // allow only one file
-    if (fileChooser.showSaveDialog(mainFrame) != JFileChooser.APPROVE_OPTION)
-      return;                     // user cancelled file selection dialog box
-    userFile = fileChooser.getSelectedFile();
+    if (cancelFlag) return;       // stop if user hit the panic button
 
-    /* See if we can write to the user's chosen file. */
+    givenFile = givenEntry.getFile(); // caller's unknown file
+    filePath = givenFile.getPath(); // get name of caller's file, with path
+    if ((readonlyFlag == false) && givenEntry.isReadOnly())
+    {
+      /* On systems such as Microsoft Windows, Java can and will delete
+      read-only files.  Don't allow this.  Since the read-only flag is
+      generally set for a good reason, don't count this as an error. */
 
-    if (userFile.exists() == false) // if file doesn't exist in any form
+      putOutput(filePath + " - can't delete read-only files");
+    }
+    else if ((hiddenFlag == false) && givenEntry.hidden)
     {
-      /* Maybe we can create a new file by this name.  Do nothing here.  The
-      method File.canWrite() is meaningless for objects that don't exist. */
+      /* Similarly, don't delete hidden files, unless we were given explicit
+      permission to do this with a command-line option. */
+
+      putOutput(filePath + " - can't delete hidden files");
     }
-    else if (userFile.isDirectory()) // can't write to directories or folders
+    else if (planWriter != null)  // save decision in plan file instead
     {
-      JOptionPane.showMessageDialog(mainFrame, (userFile.getName()
-        + " is a directory or folder.\nPlease select a normal file."));
-      return;
+      savePlan(givenEntry, sizeEntry);
     }
-    else if (userFile.isHidden()) // won't write to hidden (protected) files
+    else if (confirmDelete(givenFile, sizeEntry.getFile(),
+      sizeEntry.formatChecksum()) == false) // if GUI, ask user to delete
     {
-      JOptionPane.showMessageDialog(mainFrame, (userFile.getName()
-        + " is hidden or protected.\nPlease select a normal file."));
-      return;
+      if (cancelFlag == false)    // only say something if not cancelled
+        putOutput(filePath + " - user said \"no\" to deletion");
     }
-    else if (userFile.canWrite() == false) // file exists but is read-only?
+    else if (debugFlag)           // don't delete files while debugging
     {
-      JOptionPane.showMessageDialog(mainFrame, (userFile.getName()
-        + " is locked or read-only.\nCan't write to this file."));
-      return;
+      putOutput(filePath + (linkFlag ? " - debug flag simulates hard link"
+        : (quarantineName != null) ? " - debug flag simulates quarantine"
+        : " - debug flag simulates deletion"));
     }
-    else if (userFile.isFile() == false) // can write but isn't a file?
+    else if (linkFlag)            // replace with hard link, don't delete
     {
-      /* This object exists, and we can write to it, but isn't a standard file
-      or folder.  Assume it is similar to the UNIX null device /dev/null and
-      don't ask more questions. */
+      doFileLink(givenEntry, sizeEntry);
     }
-    else if (JOptionPane.showConfirmDialog(mainFrame, (userFile.getName()
-      + " already exists.\nDo you want to replace this with a new file?"))
-      != JOptionPane.YES_OPTION)
+    else if (quarantineName != null) // move to quarantine folder, don't delete
     {
-      return;                     // user cancelled file replacement dialog
+      queueMove(givenEntry);      // moved later by move thread, in batches
     }
-
-    /* Write lines to output file. */
-
-    try                           // catch file I/O errors
+    else if (false && givenFile.delete()) // try to delete this file
     {
-      output = new FileWriter(userFile); // try to open output file
-      outputText.write(output);   // couldn't be much easier for writing!
-      output.close();             // try to close output file
+      totalDelBytes += givenEntry.size; // total number of bytes deleted
+      totalDelFiles ++;           // total number of deleted files
+      putOutput(filePath + " - deleted");
     }
-    catch (IOException ioe)       // format multi-line error message
+    else                          // Java doesn't say why delete failed
     {
-      JTextArea text = new JTextArea(("Can't write to text file: "
-        + ioe.getMessage()), 4, 30); // create multi-line text area
-      text.setEditable(false);    // user can't change this text area
-      text.setFont((Font) UIManager.get("Button.font")); // use better font
-      text.setLineWrap(true);     // allow text lines to wrap
-      text.setOpaque(false);      // transparent background, not white
-      text.setWrapStyleWord(true); // wrap at word boundaries
-      JScrollPane scroll = new JScrollPane(text); // may need scroll bars
-      scroll.setBorder(BorderFactory.createEmptyBorder()); // but no borders
-      JOptionPane.showMessageDialog(mainFrame, scroll); // show error message
+      totalDelErrors ++;          // total number of failures to delete
+      putOutput(filePath + " - failed to delete file");
     }
-  } // end of doSaveButton() method
+  } // end of doFileDelete() method
 
 
 /*
-  doStartButton() method
-
-  The user clicked on the Start button.  First we must check that proper files
-  or folders are selected for both "trusted" and "unknown".  Then we create a
-  thread to run the doFileSearch() method as a background task.
+  doFileLink() method
+
+  Replace an unknown file with a hard link to the known file that it
+  duplicates, so that the space is freed but the unknown folder keeps all of
+  its names.  The link is first made with a temporary name in the same folder,
+  then renamed over the duplicate, so there is never a moment when the name is
+  missing.  Hard links only work inside one file system, which is checked once
+  for each folder by comparing file stores, not by trying each file.
 */
-  static void doStartButton()
+  static void doFileLink(
+    DeleteDupFiles2Data givenEntry, // duplicate file from "unknown" folder
+    DeleteDupFiles2Data sizeEntry) // known file with same size and checksum
   {
-    /* Do a rough check on the trusted and unknown files or folders.  We don't
-    actually need a trusted file/folder for this algorithm to work; it's just a
-    safer way of finding and deleting duplicate files.  We check that files or
-    folders exist, even though a similar check is done by the doFileSearch()
-    method, because a pop-up dialog is more normal for GUI users than an error
-    message written to the bottom of the output text. */
+    String filePath;              // name of caller's file, including path
+    Path givenPath, samePath;     // duplicate file and file that it duplicates
+    Path tempPath;                // temporary name for new hard link
 
-    trustedFolder = getFileOrName(trustedFolder, trustedDialog);
-    if (trustedFolder == null)    // this <if> statement can be disabled
+    filePath = givenEntry.getPath(); // get name of caller's file, with path
+    givenPath = Paths.get(filePath);
+    samePath = Paths.get(sizeEntry.getPath());
+
+    /* The known file must be on the same file store (file system), and must
+    still have the size that it had when its checksum was calculated. */
+
+    FileStore givenStore = getFileStore(givenPath.getParent());
+    if ((givenStore == null)
+      || (givenStore.equals(getFileStore(samePath.getParent())) == false))
     {
-//    JOptionPane.showMessageDialog(mainFrame,
-//      "Please select a trusted file or folder.");
-//    return;
+      synchronized (countLock) { totalDelErrors ++; } // can't replace
+      putOutput(filePath + " - can't hard link to a different file system");
+      return;
     }
-    else if (trustedFolder.exists() == false)
+    if (sizeEntry.getFile().length() != sizeEntry.size)
     {
-      JOptionPane.showMessageDialog(mainFrame,
-        "Your trusted file or folder does not exist.");
+      synchronized (countLock) { totalDelErrors ++; }
+      putOutput(filePath + " - known file has changed, not linked");
       return;
     }
 
-    unknownFolder = getFileOrName(unknownFolder, unknownDialog);
-    if (unknownFolder == null)    // an "unknown" file/folder must be given
+    tempPath = givenPath.resolveSibling(givenPath.getFileName()
+      + ".ddf2link");             // unlikely name, in the same folder
+    try
     {
-      if (trustedFolder == null)  // are both files or folders missing?
-        JOptionPane.showMessageDialog(mainFrame,
-          "You must select trusted and unknown folders\nbefore clicking the Start button.");
-      else                        // trusted was given, unknown is missing
-        JOptionPane.showMessageDialog(mainFrame,
-          "Please select an unknown file or folder.");
-      return;
+      if (Files.isSameFile(givenPath, samePath)) // already a hard link?
+      {
+        putOutput(filePath + " - already a hard link");
+        return;
+      }
+      Files.createLink(tempPath, samePath); // fails if temporary name exists
+      try
+      {
+        Files.move(tempPath, givenPath, StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING); // rename over duplicate
+      }
+      finally                     // don't leave temporary link behind
+      {
+        try { Files.deleteIfExists(tempPath); } catch (IOException ioe) { }
+      }
+      synchronized (countLock)    // totals are shared with move thread
+      {
+        totalDelBytes += givenEntry.size; // total number of bytes freed
+        totalDelFiles ++;         // total number of replaced files
+      }
+      putOutput(filePath + " - replaced with hard link");
     }
-    else if (unknownFolder.exists() == false)
+    catch (IOException ioe)       // not permitted, not supported, etc
     {
-      JOptionPane.showMessageDialog(mainFrame,
-        "Your unknown file or folder does not exist.");
-      return;
+      synchronized (countLock) { totalDelErrors ++; } // failed to replace
+      putOutput(filePath + " - failed to hard link: " + ioe.getMessage());
+    }
+    catch (UnsupportedOperationException uoe) // file system has no links
+    {
+      synchronized (countLock) { totalDelErrors ++; }
+      putOutput(filePath + " - file system doesn't support hard links");
     }
+  } // end of doFileLink() method
 
-    /* We have our files or folders.  Disable the "Start" button until we are
-    done, and enable a "Cancel" button in case our secondary thread runs for a
-    long time and the user panics. */
 
-    cancelButton.setEnabled(true); // enable button to cancel this processing
-    cancelButton.requestFocusInWindow(); // shift focus to "Cancel" button
-    cancelFlag = false;           // but don't cancel unless user complains
-    countDialog.setText(EMPTY_STATUS); // clear dialog for file counters
-    dialogAllCheckbox.setEnabled(false); // force user to re-select this option
-    dialogAllCheckbox.setSelected(false); // ... on each click of Start button
-    dialogAllFlag = false;
-    dialogCheckText.setText(EMPTY_STATUS); // clear dialog text fields
-    dialogDateText.setText(EMPTY_STATUS);
-    dialogFileText.setText(EMPTY_STATUS);
-    dialogHasReply = false;       // there is no saved reply from dialog box
-    dialogPathText.setText(EMPTY_STATUS);
-    dialogSameText.setText(EMPTY_STATUS);
-    dialogSizeText.setText(EMPTY_STATUS);
-//  outputText.setText("");       // clear output text area
-    startButton.setEnabled(false); // suspend "Start" button until we are done
-    statusClear();                // cancel any pending status messages
-    statusTimer.start();          // start updating status on timer ticks
-    totalChkBytes = totalDelBytes = totalDupBytes = totalUnkBytes = 0;
-    totalChkFiles = totalDelErrors = totalDelFiles = totalDupFiles
-      = totalUnkFiles = totalUnkFolders = 0; // no files or folders yet
+/*
+  doFileRestore() method
+
+  Move files listed in a quarantine manifest back to where they were found.
+  Each line after the header has the quarantine path name and the original
+  path name, separated by a tab.  Files that were already restored or deleted
+  are skipped, and an original name that exists again is never replaced.
+  The number of files restored is counted with the deleted files, for the
+  exit status.
+*/
+  static void doFileRestore(File manifestFile)
+  {
+    BufferedReader input;         // input character stream from manifest
+    String line;                  // one line from manifest file
+    Path original, quarantine;    // where file was found, and where it is now
+    int tab;                      // index of tab between path names
 
-    startThread = new Thread(new DeleteDupFiles2User(), "doStartRunner");
-    startThread.setPriority(Thread.MIN_PRIORITY);
-                                  // use low priority for heavy-duty workers
+    try
+    {
+      input = new BufferedReader(new InputStreamReader(new FileInputStream(
+        manifestFile), "UTF-8"), BUFFER_SIZE); // open manifest for reading
+      try
+      {
+        if (MANIFEST_HEADER.equals(input.readLine()) == false)
+        {
+          putOutput("Not a quarantine manifest file: " + manifestFile.getPath());
+          return;
+        }
+        while ((line = input.readLine()) != null) // until end of file
+        {
+          if ((tab = line.indexOf('\t')) < 0) // ignore incomplete lines
+            continue;
+          quarantine = Paths.get(line.substring(0, tab));
+          original = Paths.get(line.substring(tab + 1));
+          if (Files.exists(quarantine) == false) // restored or deleted?
+            continue;
+          if (Files.exists(original)) // never replace a file
+          {
+            totalDelErrors ++;
+            putOutput(original + " - already exists, not restored");
+            continue;
+          }
+          try
+          {
+            if (original.getParent() != null) // folders may have been deleted
+              Files.createDirectories(original.getParent());
+            Files.move(quarantine, original, StandardCopyOption.ATOMIC_MOVE);
+            totalDelBytes += Files.size(original);
+            totalDelFiles ++;     // total number of restored files
+            if (debugFlag)        // does user want to see what we're doing?
+              putOutput(original + " - restored");
+          }
+          catch (IOException ioe) // permission denied, etc
+          {
+            totalDelErrors ++;
+            putOutput(original + " - failed to restore: " + ioe.getMessage());
+          }
+        }
+      }
+      finally { input.close(); }
+    }
+    catch (IOException ioe)       // file may be missing, locked, etc
+    {
+      putOutput("Can't read quarantine manifest file: " + ioe.getMessage());
+    }
+    putOutput(("Restored " + prettyPlural(totalDelFiles, "file") + " using "
+      + prettyPlural(totalDelBytes, "byte") + ", with "
+      + prettyPlural(totalDelErrors, "error") + "."), true);
+
+  } // end of doFileRestore() method
+
+
+/*
+  doFileSearch() method
+
+  The caller gives us a Java File object for a "known good" (trusted) file or
+  folder, and a second Java File object for an unknown file or folder.  Create
+  a list of files in the trusted folder, sorted by size.  For each file in the
+  unknown folder, compare MD5 checksums with trusted files of the same size.
+  Delete unknown files that have matching checksums.  Add unknown files with
+  unique checksums to the list, in case there are more unknown files with the
+  same checksum.
+*/
+  static void doFileSearch(File givenTrusted, File givenUnknown)
+  {
+    String avoidPath;             // unknown folder if inside trusted, or ""
+    DeleteDupFiles2SizeIndex sizeList; // mapping of file sizes to buckets
+    File thisFile;                // current file or folder when searching
+    File trusted, unknown;        // caller's File objects in canonical form
+    DeleteDupFiles2Data trustedEntry, unknownEntry; // with file attributes
+    DeleteDupFiles2Index trustedIndex; // trusted index file, or <null>
+
+    /* Convert the caller's abstract path names to more precise canonical form,
+    if the files/folders exist.  This removes differences between absolute and
+    relative path names. */
+
+    if (givenTrusted == null)     // algorithm works without pre-existing data
+      trusted = null;             // so we accept missing trusted file/folder
+    else if ((givenTrusted.isDirectory() == false) // if not an existing folder
+      && (givenTrusted.isFile() == false)) // and if not an existing file
+    {
+      putOutput(("Trusted file/folder does not exist: "
+        + givenTrusted.getPath()), true); // print message and scroll
+      return;
+    }
+    else try { trusted = givenTrusted.getCanonicalFile(); }
+    catch (IOException ioe)       // if the system couldn't handle file name
+    {
+      putOutput(("Can't convert trusted file/folder to canonical form: "
+        + givenTrusted.getPath()), true);
+      return;
+    }
+
+    if ((givenUnknown.isDirectory() == false) // if not an existing folder
+      && (givenUnknown.isFile() == false)) // and if not an existing file
+    {
+      putOutput(("Unknown file/folder does not exist: "
+        + givenUnknown.getPath()), true);
+      return;
+    }
+    else try { unknown = givenUnknown.getCanonicalFile(); }
+    catch (IOException ioe)       // if the system couldn't handle file name
+    {
+      putOutput(("Can't convert unknown file/folder to canonical form: "
+        + givenUnknown.getPath()), true);
+      return;
+    }
+
+    /* The trusted folder can not be the same as the unknown folder, or a file
+    or subfolder anywhere inside an unknown folder.  Otherwise, all files in a
+    trusted folder will be incorrectly detected as duplicates.  Be strict: our
+    <recurseFlag> can change by a GUI option while we are scanning folders. */
+
+    thisFile = trusted;           // search up directory tree starting here
+    while (thisFile != null)      // ends when we hit a directory root
+    {
+      if (thisFile.equals(unknown)) // if same folder, or any parent is same
+      {
+        putOutput(
+          "Trusted folder can not be same or subfolder of unknown folder.");
+        putOutput("Trusted file/folder resolves to: " + trusted.getPath());
+        putOutput(("Unknown file/folder resolves to: " + unknown.getPath()),
+          true);                  // print message and scroll
+        return;
+      }
+      thisFile = thisFile.getParentFile(); // go up in the directory tree
+    }
+
+    /* At this point, it looks like we will be able to proceed.  Clear the
+    output text area if running as a graphical application. */
+
+    if (consoleFlag == false)     // only if running as GUI
+      outputText.setText("");     // clear output text area
+
+    /* Get the attributes of the trusted and unknown files or folders, the same
+    way as each entry in a folder listing.  They may have disappeared since we
+    checked them above. */
+
+    trustedEntry = (trusted == null) ? null : getFileData(trusted.toPath(),
+      null);                      // top level has full path name, no parent
+    unknownEntry = getFileData(unknown.toPath(), null);
+    if (((trusted != null) && (trustedEntry == null)) || (unknownEntry == null))
+    {
+      putOutput("Can't read attributes for trusted or unknown file/folder.",
+        true);                    // print message and scroll
+      return;
+    }
+
+    /* Call a recursive helper method to collect file names and sizes for the
+    trusted folder. */
+
+    sizeList = new DeleteDupFiles2SizeIndex(); // start with empty size index
+    if (cacheName != null)        // load checksums saved by an earlier run?
+      loadCache(new File(cacheName));
+    avoidPath = "";               // no trusted index file yet
+    trustedIndex = null;
+    try
+    {
+      /* Output lines and deletions go to a separate thread through a bounded
+      queue, in the same order that they were decided.  A slow deletion, or a
+      GUI prompt asking the user to delete a file, doesn't stop the search from
+      hashing more files until the queue is full. */
+
+      actionQueue = new ArrayBlockingQueue(ACTION_QUEUE); // limited size
+      actionThread = new Thread(new DeleteDupFiles2Action(), "doActionRunner");
+      actionThread.setDaemon(true); // don't keep application alive for this
+      actionThread.setPriority(Thread.MIN_PRIORITY); // same as our thread
+      searchThread = Thread.currentThread(); // only this thread queues output
+      actionThread.start();       // start taking from the queue
+
+      /* Decisions can be saved in a plan file instead of being acted on, so
+      that the plan can be reviewed, and applied later without calculating the
+      checksums again.  The second line has the unknown and trusted folders,
+      for the quarantine folder to be checked when the plan is applied. */
+
+      if (planName != null)       // save decisions instead of acting on them?
+      {
+        try
+        {
+          planWriter = new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(planName), "UTF-8"), BUFFER_SIZE);
+          planWriter.write(PLAN_HEADER + digestName + "\n" + unknown.getPath()
+            + "\t" + ((trusted == null) ? "" : trusted.getPath()) + "\n");
+        }
+        catch (IOException ioe)   // can't create file, disk full, etc
+        {
+          putOutput("Can't write plan file: " + ioe.getMessage());
+          return;
+        }
+      }
+      else if (openQuarantine(unknown, trusted) == false) // quarantine folder?
+        return;                   // message has already been printed
+
+      /* Duplicates can only be replaced with hard links to files on the same
+      file system.  Warn now if the trusted folder is somewhere else, instead
+      of after the first duplicate has been found. */
+
+      storeMap = linkFlag ? new HashMap() : null; // file store for each folder
+      if (linkFlag && (trusted != null) && (getFileStore(trusted.toPath())
+        != null) && (getFileStore(trusted.toPath()).equals(getFileStore(
+        unknown.toPath())) == false))
+      {
+        putOutput("Trusted and unknown folders are on different file systems;"
+          + " duplicates of trusted files can't be hard links.");
+      }
+
+      /* A trusted index file from an earlier run replaces scanning the trusted
+      folder, if no trusted folder has changed since the index was saved.
+      Known files are loaded from the index, by size, only when an unknown file
+      has the same size.  Otherwise, the trusted folder is scanned as usual,
+      and a new index is saved after the search, with any checksums that were
+      calculated along the way. */
+
+      if ((indexName != null) && (trustedEntry != null)) // index file given?
+      {
+        if (unknown.toPath().startsWith(trusted.toPath())) // unknown inside?
+          avoidPath = unknown.getPath(); // then it was skipped by the index
+        if (reindexFlag == false) // does user allow an existing index?
+          trustedIndex = DeleteDupFiles2Index.open(new File(indexName),
+            trusted.getPath(), avoidPath); // <null> if missing or out of date
+        if (trustedIndex != null) // is the index current?
+        {
+          putOutput("Using trusted index file " + indexName);
+          sizeList.trusted = trustedIndex; // buckets are filled when needed
+        }
+        else
+        {
+          putOutput("Scanning trusted folder for new index file " + indexName);
+          indexFiles = new Vector(); // collect trusted files and folders
+          indexFolders = new Vector();
+          if (trustedEntry.folder == false) // a single file has its own date
+            indexFolders.add(trustedEntry);
+        }
+      }
+
+      /* Folders can be listed by a pool of worker threads, for both trusted
+      and unknown folders at the same time.  The search below still goes
+      through folders one at a time, in sorted order, waiting for each listing
+      if it isn't ready yet, so all decisions are made in the same order. */
+
+      if (walkCount > 0)          // are there any listing threads to start?
+      {
+        walkAhead = new AtomicInteger(0); // nothing listed ahead yet
+        walkPool = new ForkJoinPool(walkCount); // threads are daemons
+        if ((trustedEntry != null) && trustedEntry.folder
+          && (trustedIndex == null)) // no listing if using trusted index
+          (trustedEntry.listing = new DeleteDupFiles2Walk(trustedEntry,
+            unknown)).start();    // list trusted folders, except unknown
+        if (unknownEntry.folder)  // unknown may be a single file
+          (unknownEntry.listing = new DeleteDupFiles2Walk(unknownEntry,
+            null)).start();       // list all unknown folders
+      }
+
+      /* When the trusted folder is much bigger than the unknown folder, most
+      trusted files have sizes that never appear in the unknown folder, and
+      don't need to be kept.  Find the unknown sizes first.  The unknown
+      folder listings are kept for doFileUnknown(), so nothing is listed
+      twice.  A new trusted index file must have all trusted files. */
+
+      if (joinFlag && (trustedEntry != null) && (trustedIndex == null)
+        && (indexFiles == null))  // filter trusted files by size?
+      {
+        sizeFilter = new DeleteDupFiles2LongSet(); // empty set of sizes
+        doFileSizes(sizeFilter, unknownEntry); // recursive, may be cancelled
+        if (cancelFlag) return;   // stop if user hit the panic button
+      }
+
+      /* Very big trusted folders may be kept outside of the Java heap, as
+      fixed-size records, which are sorted after the scan and then searched
+      like a trusted index file.  A new trusted index file needs data objects
+      to collect checksums, so it always uses the heap. */
+
+      if ((storeMode != STORE_HEAP) && (trustedEntry != null)
+        && (trustedIndex == null) && (indexFiles == null)) // use a store?
+      {
+        try { trustedStore = DeleteDupFiles2Store.create(storeMode
+          == STORE_MAPPED); }     // direct buffers or mapped scratch file
+        catch (IOException ioe)
+        {
+          putOutput("Can't create trusted scratch file, using heap: "
+            + ioe.getMessage());
+        }
+      }
+
+      /* With a memory limit, trusted files are moved to sorted run files on
+      disk whenever they reach the limit.  The runs are merged by size into
+      one sorted record file, which is searched like a trusted index file. */
+
+      spillRuns = ((memoryLimit > 0) && (trustedStore == null)
+        && (indexFiles == null)) ? new Vector() : null; // no runs yet
+      trustedBytes = 0;           // no trusted files in memory yet
+
+      if ((trustedEntry != null) && (trustedIndex == null)) // scan trusted?
+        doFileTrusted(sizeList, trustedEntry, unknown); // recursive, may cancel
+      sizeFilter = null;          // release set of sizes
+      if ((spillRuns != null) && (spillRuns.size() > 0)
+        && (cancelFlag == false)) // were any trusted files moved to disk?
+      {
+        spillTrusted(sizeList);   // last run has the rest of trusted files
+        if (cancelFlag) return;   // stop if run file couldn't be written
+        try
+        {
+          trustedIndex = DeleteDupFiles2Run.merge(spillRuns); // all runs
+          sizeList.trusted = trustedIndex; // buckets are filled when needed
+          putOutput("Merged " + prettyPlural(trustedIndex.count,
+            "trusted file") + " from " + prettyPlural(spillRuns.size(),
+            "sorted run file") + ".");
+        }
+        catch (IOException ioe)   // disk full, etc
+        {
+          putOutput("Can't merge sorted run files: " + ioe.getMessage());
+          cancelFlag = true;      // better to stop than miss trusted files
+        }
+      }
+      if ((trustedStore != null) && (cancelFlag == false)) // was store used?
+      {
+        trustedStore.finish();    // sort records by size
+        sizeList.trusted = trustedStore; // buckets are filled when needed
+      }
+
+      /* Call a recursive helper method to compare file sizes and checksums
+      for the unknown folder.  Checksums are calculated by a pool of worker
+      threads, ahead of when they are needed, but all decisions are made here
+      in the same order as files are found.  One thread is the same as no
+      worker threads.
+
+      Each device (file store) gets its own pool of threads, started the first
+      time that a file on the device is checksummed.  Random reads from many
+      threads can make a rotating disk slower than one thread, while a solid
+      state drive needs many reads at once to be fast. */
+
+      if (cancelFlag) return;     // stop if user hit the panic button
+      if (treeSize > 0)           // are big files hashed in chunks?
+        treePool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+                                  // one thread per core, threads are daemons
+      if (confirmName != null)    // are matches checked again?
+        confirmMap = new HashMap(); // no stronger checksums yet
+      hashThreads = 0;            // no device pools have been started
+      if ((threadCount > 1) || (deviceNames.size() > 0) || (hddThreads > 0)
+        || (localityMode != LOCALITY_NONE)) // one thread can read in order
+      {
+        deviceLimits = new HashMap(); // thread limits for named devices
+        devicePools = new HashMap(); // pools are started when needed
+        folderPools = new HashMap();
+        hashBatch = new Vector(); // no checksums waiting to be sorted
+        Iterator names = deviceNames.keySet().iterator();
+        while (names.hasNext())   // for each folder given with -j#=folder
+        {
+          String name = (String) names.next();
+          try
+          {
+            deviceLimits.put(Files.getFileStore(Paths.get(name)),
+              deviceNames.get(name)); // same limit for whole device
+          }
+          catch (IOException ioe) // folder doesn't exist, etc
+          {
+            putOutput("Can't find device for folder: " + name);
+          }
+          catch (InvalidPathException ipe) // bad characters in name
+          {
+            putOutput("Can't find device for folder: " + name);
+          }
+        }
+      }
+      doFileUnknown(sizeList, unknownEntry); // recursive, may be cancelled
+
+      /* Save a new trusted index file, only if the search wasn't cancelled,
+      because a cancelled scan may have missed some trusted files. */
+
+      if ((indexFiles != null) && (cancelFlag == false)) // new index file?
+      {
+        try
+        {
+          DeleteDupFiles2Index.write(new File(indexName), trusted.getPath(),
+            avoidPath, indexFolders, indexFiles); // sorted by size, checksum
+          putOutput("Saved " + prettyPlural(indexFiles.size(), "trusted file")
+            + " in index file " + indexName);
+        }
+        catch (IOException ioe)
+        {
+          putOutput("Can't write trusted index file " + indexName + ": "
+            + ioe.getMessage());
+        }
+      }
+      else if ((trustedIndex != null) && (cancelFlag == false)
+        && trustedIndex.needsRewrite()) // changed files or new checksums?
+      {
+        try
+        {
+          trustedIndex.rewrite(new File(indexName), trusted.getPath(),
+            avoidPath);           // same folders, updated records
+          putOutput("Updated " + prettyPlural(trustedIndex.count,
+            "trusted file") + " in index file " + indexName);
+        }
+        catch (IOException ioe)
+        {
+          putOutput("Can't write trusted index file " + indexName + ": "
+            + ioe.getMessage());
+        }
+      }
+    }
+    finally                       // even if we run out of memory
+    {
+      indexFiles = indexFolders = null; // release trusted files and folders
+      if (spillRuns != null)      // were there any sorted run files?
+      {
+        for (int i = 0; i < spillRuns.size(); i ++) // if cancelled before merge
+          ((DeleteDupFiles2Run) spillRuns.get(i)).close(); // delete run file
+        spillRuns = null;
+      }
+      if (trustedIndex != null)   // was a trusted index file open?
+        trustedIndex.close();
+      if (trustedStore != null)   // were trusted records kept off the heap?
+      {
+        trustedStore.close();     // release memory, delete scratch file
+        trustedStore = null;
+      }
+      if (walkPool != null)       // were there any listing threads?
+      {
+        walkPool.shutdownNow();   // nothing more is needed if cancelled
+        walkPool = null;
+      }
+      if (devicePools != null)    // were there any checksum threads?
+      {
+        Iterator pools = devicePools.values().iterator();
+        while (pools.hasNext())   // let pending work finish, then end threads
+          ((ThreadPoolExecutor) pools.next()).shutdown();
+        pools = devicePools.values().iterator();
+        while (pools.hasNext())   // devices may still be working together
+        {
+          try { ((ThreadPoolExecutor) pools.next()).awaitTermination(1,
+            TimeUnit.MINUTES); }
+          catch (InterruptedException ie) { }
+        }
+        devicePools = null;       // and don't queue any more checksums
+        deviceLimits = folderPools = null;
+        hashBatch = null;         // checksums never queued aren't needed
+      }
+      if (treePool != null)       // were big files hashed in chunks?
+      {
+        treePool.shutdown();      // checksum threads have finished with it
+        treePool = null;
+      }
+      confirmMap = null;          // release stronger checksums
+      if (actionQueue != null)    // was the output thread started?
+      {
+        queueAction(new DeleteDupFiles2Action(null, false)); // end of queue
+        try { actionThread.join(); } // wait for all output and deletions
+        catch (InterruptedException ie) { }
+        actionQueue = null;       // later output goes directly to user
+        actionThread = searchThread = null;
+      }
+      closeQuarantine();          // finish moving files, close manifest
+      if (planWriter != null)     // was the plan file opened?
+      {
+        try { planWriter.close(); } // try to close output file
+        catch (IOException ioe)   // not much we can do about it now
+        {
+          putOutput("Can't write plan file: " + ioe.getMessage());
+        }
+        planWriter = null;
+      }
+      closeCache();               // finish writing checksum cache file
+      storeMap = null;            // release file stores for folders
+    }
+
+    /* Print a summary even if the user cancelled.  Scroll each summary line,
+    because the Java 1.4 run-time may be busy displaying text and "forget" to
+    scroll the last line. */
+
+    putOutput("");                // one blank line before summary
+    if (planName != null)         // were decisions saved, not acted on?
+      putOutput(("Saved " + prettyPlural(totalPlanFiles, "decision")
+        + " using " + prettyPlural(totalPlanBytes, "byte") + " in plan file "
+        + planName + ", with " + prettyPlural(totalPlanSkips, "error") + "."),
+        true);
+    else
+      putDeleted();               // deleted, replaced, or moved files
+    putOutput(("Found " + prettyPlural(totalDupFiles, "duplicate file")
+      + " using " + prettyPlural(totalDupBytes, "byte") + "."), true);
+    if (totalLinkFiles > 0)       // were any unknown files hard links?
+      putOutput(("Found " + prettyPlural(totalLinkFiles, "unknown file")
+        + " using " + prettyPlural(totalLinkBytes, "byte")
+        + " that are the same physical file as a trusted file."), true);
+    putOutput(("Calculated " + prettyPlural(totalChkFiles, "checksum")
+      + " with " + prettyPlural(totalChkBytes, "byte") + "."), true);
+    if (compareLimit > 0)         // were files compared byte by byte?
+      putOutput(("Compared " + prettyPlural(totalCmpFiles, "file")
+        + " directly with " + prettyPlural(totalCmpBytes, "byte") + "."),
+        true);
+    if (confirmName != null)      // were matches checked again?
+      putOutput(("Confirmed with " + prettyPlural(totalConfirmFiles,
+        (confirmName + " checksum")) + " using "
+        + prettyPlural(totalConfirmBytes, "byte") + ", and found "
+        + prettyPlural(totalConfirmMisses, "collision") + "."), true);
+    if (treeSize > 0)             // were big files hashed in chunks?
+      putOutput(("Calculated " + prettyPlural(totalTreeFiles, "tree checksum")
+        + " for files of " + prettyPlural(treeSize, "byte") + " or more."),
+        true);
+    if (partialSize > 0)          // were partial checksums allowed?
+      putOutput(("Calculated " + prettyPlural(totalPartFiles,
+        "partial checksum") + " with " + prettyPlural(totalPartBytes, "byte")
+        + "."), true);
+    if (cacheName != null)        // was there a checksum cache file?
+      putOutput(("Found " + prettyPlural(totalCacheFiles, "cached checksum")
+        + " for " + prettyPlural(totalCacheBytes, "byte") + "."), true);
+    putOutput(((cancelFlag ? "Found " : "Finished ")
+      + prettyPlural(totalUnkFolders, "unknown folder") + " and "
+      + prettyPlural(totalUnkFiles, "file") + " using "
+      + prettyPlural(totalUnkBytes, "byte") + "."), true);
+    if (joinFlag && (trusted != null)) // were trusted files filtered?
+      putOutput(("Skipped " + prettyPlural(totalSkipFiles, "trusted file")
+        + " with no size match in the unknown folder."), true);
+    if (debugFlag)                // show where the pipeline waited
+    {
+      putOutput(("Waited " + prettyPlural(totalWalkWaits, "time")
+        + " for folder listings, " + prettyPlural(totalHashWaits, "time")
+        + " for checksums, " + prettyPlural(totalQueueWaits, "time")
+        + " for output."), true);
+      putOutput(("Queued at most " + prettyPlural(totalHashPeak, "checksum")
+        + " and " + prettyPlural(totalQueuePeak, "output action") + "."),
+        true);
+    }
+
+  } // end of doFileSearch() method
+
+
+/*
+  doFileSizes() method
+
+  Recursively scan the unknown file or folder to collect the sizes of all files
+  that doFileUnknown() will check, using the same rules.  Folder listings are
+  saved in their data objects, to be used again by doFileUnknown().
+*/
+  static void doFileSizes(
+    DeleteDupFiles2LongSet sizeSet, // set of file sizes found so far
+    DeleteDupFiles2Data givenEntry) // caller gives us one file or folder
+  {
+    DeleteDupFiles2Data[] contents; // contents if <givenEntry> is a folder
+    int i;                        // index variable
+    DeleteDupFiles2Data next;     // next data object from <contents>
+
+    if (cancelFlag) return;       // stop if user hit the panic button
+
+    if (givenEntry.folder)        // is this a folder?
+    {
+      contents = givenEntry.getContents(); // with attributes, and sorted
+      givenEntry.contents = contents; // keep listing for doFileUnknown()
+      for (i = 0; i < contents.length; i ++) // for each file in order
+      {
+        if (cancelFlag) return;   // stop if user hit the panic button
+        next = contents[i];       // get next data object from <contents>
+        if ((hiddenFlag == false) && next.hidden) // hidden file or folder?
+          { /* ignored by doFileUnknown() */ }
+        else if (next.folder)     // is this entry for a folder?
+        {
+          if (recurseFlag)        // does user want us to do subfolders?
+            doFileSizes(sizeSet, next); // yes, do recursion
+        }
+        else                      // entry is for a regular file
+          doFileSizes(sizeSet, next); // always do files found
+      }
+    }
+    else if (zeroFlag || (givenEntry.size > 0)) // normally only non-empty
+      sizeSet.add(givenEntry.size); // remember size of this unknown file
+
+  } // end of doFileSizes() method
+
+
+/*
+  doFileTrusted() method
+
+  Recursively scan a file directory (folder) to create a mapping of file sizes
+  to buckets of DeleteDupFiles2Data objects.  This is used for the trusted file
+  or folder.  No duplicate detection occurs here.  The data objects come from
+  listFolder() with their file attributes, so there are no more system calls
+  for each file.
+*/
+  static void doFileTrusted(
+    DeleteDupFiles2SizeIndex sizeList, // mapping of file sizes to buckets
+    DeleteDupFiles2Data givenEntry, // caller gives us one file or folder
+    File avoidFile)               // don't search this subfolder if found
+  {
+    DeleteDupFiles2Data[] contents; // contents if <givenEntry> is a folder
+    int i;                        // index variable
+    DeleteDupFiles2Data next;     // next data object from <contents>
+
+    if (cancelFlag) return;       // stop if user hit the panic button
+
+    if (givenEntry.sameFile(avoidFile)) // unknown may be subfolder of trusted
+    {
+      if (debugFlag)              // does user want to see what we're doing?
+        putOutput(givenEntry.getPath()
+          + " - ignoring the \"unknown\" file/folder");
+    }
+    else if (givenEntry.folder)   // is this a folder?
+    {
+      if (true) // (consoleFlag || debugFlag) // trace our directory search?
+        putOutput("Scanning trusted folder " + givenEntry.getPath());
+      if (indexFolders != null)   // saving a new trusted index file?
+        indexFolders.add(givenEntry); // folder date shows later changes
+      contents = givenEntry.getContents(); // with attributes, and sorted
+      for (i = 0; i < contents.length; i ++) // for each file in order
+      {
+        if (cancelFlag) return;   // stop if user hit the panic button
+        next = contents[i];       // get next data object from <contents>
+        if ((hiddenFlag == false) && next.hidden) // hidden file or folder?
+        {
+          if (debugFlag)          // does user want to see what we're doing?
+            putOutput(next.getPath() + " - ignoring hidden file/folder");
+        }
+        else if (next.folder)     // is this entry for a folder?
+        {
+          if (recurseFlag)        // does user want us to do subfolders?
+            doFileTrusted(sizeList, next, avoidFile); // yes, do recursion
+          else if (debugFlag)     // does user want to see what we're doing?
+            putOutput(next.getPath() + " - ignoring subfolder");
+        }
+        else                      // entry is for a regular file
+          doFileTrusted(sizeList, next, avoidFile); // always do files found
+        contents[i] = null;       // release entry, may be kept in <sizeList>
+      }
+    }
+    else                          // must be a regular file
+    {
+      if ((sizeFilter != null) && (sizeFilter.contains(givenEntry.size)
+        == false))                // no unknown file has the same size?
+      {
+        totalSkipFiles ++;        // not kept, can never be a match
+      }
+      else if ((zeroFlag || (givenEntry.size > 0)) && (trustedStore != null))
+      {
+        if (trustedStore.add(givenEntry) == false) // out of room?
+        {
+          putOutput("Trusted store is full at " + givenEntry.getPath());
+          cancelFlag = true;      // better to stop than miss trusted files
+        }
+      }
+      else if (zeroFlag || (givenEntry.size > 0)) // only non-empty files
+      {
+        givenEntry.trusted = true; // never delete or replace this file
+        sizeList.bucket(givenEntry.size).add(givenEntry); // append new entry
+        if (indexFiles != null)   // saving a new trusted index file?
+          indexFiles.add(givenEntry); // checksum may be calculated later
+        else if (spillRuns != null) // is there a memory limit?
+        {
+          trustedBytes += ENTRY_BYTES + (2 * givenEntry.name.length());
+          if (trustedBytes > memoryLimit) // move trusted files to disk?
+            spillTrusted(sizeList);
+        }
+      }
+      else if (debugFlag)         // does user want to see what we're doing?
+        putOutput(givenEntry.getPath() + " - ignoring zero-byte empty file");
+    }
+  } // end of doFileTrusted() method
+
+
+/*
+  doFileUnknown() method
+
+  Recursively scan a file directory (folder) to find files that have the same
+  size and checksum as files in the <sizeList> mapping.  This is used for the
+  unknown file or folder.  The real duplicate detection occurs here.  The data
+  object for each file comes from listFolder(), with its file attributes, and
+  checksums may have been started early by prefetchUnknown().
+*/
+  static void doFileUnknown(
+    DeleteDupFiles2SizeIndex sizeList, // mapping of file sizes to buckets
+    DeleteDupFiles2Data givenEntry) // caller gives us one file or folder
+  {
+    DeleteDupFiles2Data[] ahead;  // entries with checksums started early
+    int aheadIndex;               // next index in <contents> to start early
+    int aheadLimit;               // maximum number of files to start early
+    DeleteDupFiles2Data[] contents; // contents if <givenEntry> is a folder
+    String filePath;              // name of caller's file, including path
+    long fileSize;                // size of caller's file in bytes
+    int i;                        // index variable
+    DeleteDupFiles2Data next;     // next data object from <contents>
+    DeleteDupFiles2Bucket sizeBucket; // files having the same size
+    DeleteDupFiles2Data sizeEntry; // known file with same size and checksum
+
+    if (cancelFlag) return;       // stop if user hit the panic button
+
+    filePath = givenEntry.getPath(); // get name of caller's file, with path
+    if (givenEntry.folder)        // is this a folder?
+    {
+      totalUnkFolders ++;         // total number of unknown folders
+      if (true) // (consoleFlag || debugFlag) // trace our directory search?
+        putOutput("Checking unknown folder " + filePath);
+      contents = givenEntry.getContents(); // with attributes, and sorted
+      ahead = new DeleteDupFiles2Data[contents.length]; // nothing started yet
+      aheadIndex = 0;             // next file to be started early
+      aheadLimit = Math.max(threadCount, hashThreads) * QUEUE_AHEAD;
+                                  // keep all worker threads busy
+      for (i = 0; i < contents.length; i ++) // for each file in order
+      {
+        if (cancelFlag) return;   // stop if user hit the panic button
+
+        /* Keep the checksum threads busy by starting work for files that come
+        after this file in the same folder.  Nothing is decided early. */
+
+        while ((devicePools != null) && (aheadIndex < contents.length)
+          && (aheadIndex <= (i + aheadLimit)))
+        {
+          ahead[aheadIndex] = prefetchUnknown(sizeList, contents[aheadIndex]);
+          aheadIndex ++;          // this file has been started, if possible
+        }
+        if (((i + threadCount) < aheadIndex) && (ahead[i + threadCount] != null))
+          promoteUnknown(sizeList, ahead[i + threadCount]); // full checksums
+
+        next = contents[i];       // get next data object from <contents>
+        if ((hiddenFlag == false) && next.hidden) // hidden file or folder?
+        {
+          if (debugFlag)          // does user want to see what we're doing?
+            putOutput(next.getPath() + " - ignoring hidden file/folder");
+        }
+        else if (next.folder)     // is this entry for a folder?
+        {
+          if (recurseFlag)        // does user want us to do subfolders?
+            doFileUnknown(sizeList, next); // yes, do recursion
+          else if (debugFlag)     // does user want to see what we're doing?
+            putOutput(next.getPath() + " - ignoring subfolder");
+        }
+        else                      // entry is for a regular file
+          doFileUnknown(sizeList, next); // always do files found
+        ahead[i] = contents[i] = null; // release entry, may be in <sizeList>
+      }
+    }
+    else                          // must be a regular file
+    {
+      fileSize = givenEntry.size; // size of caller's file in bytes
+      totalUnkBytes += fileSize;  // total number of bytes in unknown files
+      totalUnkFiles ++;           // total number of unknown files
+      if (zeroFlag || (fileSize > 0)) // normally only want non-empty files
+      {
+        sizeBucket = sizeList.bucket(fileSize); // new bucket if first file
+
+        /* Look for a previously known file with the same size and checksum.
+        The unknown file is added to the bucket if it is unique. */
+
+        sizeEntry = findDuplicate(sizeBucket, givenEntry, usePartial(fileSize));
+        if (cancelFlag) return;   // stop if user hit the panic button
+
+        /* A trusted file with the same device and inode is the same physical
+        file under another name (a hard link or a bind mount).  Deleting the
+        unknown name would free no space, so report it separately. */
+
+        if ((sizeEntry != null) && sizeEntry.trusted
+          && givenEntry.sameKey(sizeEntry)) // same device and inode?
+        {
+          totalLinkBytes += fileSize; // total bytes in same physical files
+          totalLinkFiles ++;      // total number of same physical files
+          putOutput(filePath + " - same physical file as "
+            + sizeEntry.getPath());
+          sizeEntry = null;       // not a duplicate to be deleted
+        }
+
+        /* A checksum from the trusted index file is only as good as the file's
+        size and date.  Changing a file doesn't change its folder's date. */
+
+        if ((sizeEntry != null) && sizeEntry.indexed
+          && ((sizeEntry.getFile().lastModified() != sizeEntry.date)
+          || (sizeEntry.getFile().length() != sizeEntry.size)))
+        {
+          putOutput(filePath + " - trusted index file is out of date for "
+            + sizeEntry.getPath());
+          sizeBucket.addFull(givenEntry); // unknown file may match later files
+          sizeEntry = null;       // don't delete based on old checksum
+        }
+
+        /* Does the unknown file have the same checksum as <sizeEntry>? */
+
+        if (sizeEntry != null)
+        {
+          totalDupBytes += fileSize; // total number of duplicate bytes
+          totalDupFiles ++;       // total number of duplicate files
+          putOutput(filePath + " - same as " + sizeEntry.getPath());
+          if (cancelFlag) return; // stop if user hit the panic button
+          queueAction(new DeleteDupFiles2Action(givenEntry, sizeEntry));
+                                  // delete in order, after earlier output
+        }
+      }
+      else if (debugFlag)         // does user want to see what we're doing?
+        putOutput(filePath + " - ignoring zero-byte empty file");
+    }
+  } // end of doFileUnknown() method
+
+
+/*
+  doMoveRunner() method
+
+  This method is called inside a separate thread by the runnable interface of
+  our "move" class.  It takes batches of duplicate files from the queue, in
+  the order that the action thread confirmed them, and moves them into the
+  quarantine folder, until it finds an empty batch marking the end of the
+  queue.
+*/
+  static void doMoveRunner()
+  {
+    DeleteDupFiles2Move batch;    // one batch taken from <moveQueue>
+
+    while (true)
+    {
+      try { batch = (DeleteDupFiles2Move) moveQueue.take(); }
+      catch (InterruptedException ie) { break; } // treat as end of queue
+      if (batch.count == 0)       // empty batch marks end of queue
+        break;
+      moveFiles(batch);
+    }
+  } // end of doMoveRunner() method
+
+
+/*
+  doSaveButton() method
+
+  Ask the user for an output file name, create or replace that file, and copy
+  the contents of our output text area to that file.  The output file will be
+  in the default character set for the system, so if there are special Unicode
+  characters in the displayed text (Arabic, Chinese, Eastern European, etc),
+  then you are better off copying and pasting the output text directly into a
+  Unicode-aware application like Microsoft Word.
+*/
+  static void doSaveButton()
+  {
+    FileWriter output;            // output file stream
+    File userFile;                // file chosen by the user
+
+    /* Ask the user for an output file name. */
+
+    fileChooser.resetChoosableFileFilters(); // remove any existing filters
+    fileChooser.setDialogTitle("Save Output as Text File...");
+    fileChooser.setFileHidingEnabled(true); // don't show hidden files
+    fileChooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
+    fileChooser.setMultiSelectionEnabled(false); // allow only one file
+    if (fileChooser.showSaveDialog(mainFrame) != JFileChooser.APPROVE_OPTION)
+      return;                     // user cancelled file selection dialog box
+    userFile = fileChooser.getSelectedFile();
+
+    /* See if we can write to the user's chosen file. */
+
+    if (userFile.exists() == false) // if file doesn't exist in any form
+    {
+      /* Maybe we can create a new file by this name.  Do nothing here.  The
+      method File.canWrite() is meaningless for objects that don't exist. */
+    }
+    else if (userFile.isDirectory()) // can't write to directories or folders
+    {
+      JOptionPane.showMessageDialog(mainFrame, (userFile.getName()
+        + " is a directory or folder.\nPlease select a normal file."));
+      return;
+    }
+    else if (userFile.isHidden()) // won't write to hidden (protected) files
+    {
+      JOptionPane.showMessageDialog(mainFrame, (userFile.getName()
+        + " is hidden or protected.\nPlease select a normal file."));
+      return;
+    }
+    else if (userFile.canWrite() == false) // file exists but is read-only?
+    {
+      JOptionPane.showMessageDialog(mainFrame, (userFile.getName()
+        + " is locked or read-only.\nCan't write to this file."));
+      return;
+    }
+    else if (userFile.isFile() == false) // can write but isn't a file?
+    {
+      /* This object exists, and we can write to it, but isn't a standard file
+      or folder.  Assume it is similar to the UNIX null device /dev/null and
+      don't ask more questions. */
+    }
+    else if (JOptionPane.showConfirmDialog(mainFrame, (userFile.getName()
+      + " already exists.\nDo you want to replace this with a new file?"))
+      != JOptionPane.YES_OPTION)
+    {
+      return;                     // user cancelled file replacement dialog
+    }
+
+    /* Write lines to output file. */
+
+    try                           // catch file I/O errors
+    {
+      output = new FileWriter(userFile); // try to open output file
+      outputText.write(output);   // couldn't be much easier for writing!
+      output.close();             // try to close output file
+    }
+    catch (IOException ioe)       // format multi-line error message
+    {
+      JTextArea text = new JTextArea(("Can't write to text file: "
+        + ioe.getMessage()), 4, 30); // create multi-line text area
+      text.setEditable(false);    // user can't change this text area
+      text.setFont((Font) UIManager.get("Button.font")); // use better font
+      text.setLineWrap(true);     // allow text lines to wrap
+      text.setOpaque(false);      // transparent background, not white
+      text.setWrapStyleWord(true); // wrap at word boundaries
+      JScrollPane scroll = new JScrollPane(text); // may need scroll bars
+      scroll.setBorder(BorderFactory.createEmptyBorder()); // but no borders
+      JOptionPane.showMessageDialog(mainFrame, scroll); // show error message
+    }
+  } // end of doSaveButton() method
+
+
+/*
+  doStartButton() method
+
+  The user clicked on the Start button.  First we must check that proper files
+  or folders are selected for both "trusted" and "unknown".  Then we create a
+  thread to run the doFileSearch() method as a background task.
+*/
+  static void doStartButton()
+  {
+    /* Do a rough check on the trusted and unknown files or folders.  We don't
+    actually need a trusted file/folder for this algorithm to work; it's just a
+    safer way of finding and deleting duplicate files.  We check that files or
+    folders exist, even though a similar check is done by the doFileSearch()
+    method, because a pop-up dialog is more normal for GUI users than an error
+    message written to the bottom of the output text. */
+
+    trustedFolder = getFileOrName(trustedFolder, trustedDialog);
+    if (trustedFolder == null)    // this <if> statement can be disabled
+    {
+//    JOptionPane.showMessageDialog(mainFrame,
+//      "Please select a trusted file or folder.");
+//    return;
+    }
+    else if (trustedFolder.exists() == false)
+    {
+      JOptionPane.showMessageDialog(mainFrame,
+        "Your trusted file or folder does not exist.");
+      return;
+    }
+
+    unknownFolder = getFileOrName(unknownFolder, unknownDialog);
+    if (unknownFolder == null)    // an "unknown" file/folder must be given
+    {
+      if (trustedFolder == null)  // are both files or folders missing?
+        JOptionPane.showMessageDialog(mainFrame,
+          "You must select trusted and unknown folders\nbefore clicking the Start button.");
+      else                        // trusted was given, unknown is missing
+        JOptionPane.showMessageDialog(mainFrame,
+          "Please select an unknown file or folder.");
+      return;
+    }
+    else if (unknownFolder.exists() == false)
+    {
+      JOptionPane.showMessageDialog(mainFrame,
+        "Your unknown file or folder does not exist.");
+      return;
+    }
+
+    /* We have our files or folders.  Disable the "Start" button until we are
+    done, and enable a "Cancel" button in case our secondary thread runs for a
+    long time and the user panics. */
+
+    cancelButton.setEnabled(true); // enable button to cancel this processing
+    cancelButton.requestFocusInWindow(); // shift focus to "Cancel" button
+    cancelFlag = false;           // but don't cancel unless user complains
+    countDialog.setText(EMPTY_STATUS); // clear dialog for file counters
+    dialogAllCheckbox.setEnabled(false); // force user to re-select this option
+    dialogAllCheckbox.setSelected(false); // ... on each click of Start button
+    dialogAllFlag = false;
+    dialogCheckText.setText(EMPTY_STATUS); // clear dialog text fields
+    dialogDateText.setText(EMPTY_STATUS);
+    dialogFileText.setText(EMPTY_STATUS);
+    dialogHasReply = false;       // there is no saved reply from dialog box
+    dialogPathText.setText(EMPTY_STATUS);
+    dialogSameText.setText(EMPTY_STATUS);
+    dialogSizeText.setText(EMPTY_STATUS);
+//  outputText.setText("");       // clear output text area
+    startButton.setEnabled(false); // suspend "Start" button until we are done
+    statusClear();                // cancel any pending status messages
+    statusTimer.start();          // start updating status on timer ticks
+    totalCacheBytes = totalChkBytes = totalDelBytes = totalDupBytes
+      = totalPartBytes = totalUnkBytes = 0;
+    totalCacheFiles = totalChkFiles = totalDelErrors = totalDelFiles
+      = totalDupFiles = totalPartFiles = totalUnkFiles = totalUnkFolders = 0;
+                                  // no files or folders yet
+    totalHashPeak = totalHashWaits = totalQueuePeak = totalQueueWaits
+      = totalWalkWaits = 0;       // nothing has waited yet
+    totalCmpBytes = totalCmpFiles = 0; // no files compared directly yet
+    totalConfirmBytes = totalConfirmFiles = totalConfirmMisses = 0;
+    totalLinkBytes = totalLinkFiles = 0; // no hard links found yet
+    totalPlanBytes = totalPlanFiles = totalPlanSkips = 0; // no plan yet
+    totalSkipFiles = totalTreeFiles = 0; // no trusted files skipped yet
+
+    startThread = new Thread(new DeleteDupFiles2User(), "doStartRunner");
+    startThread.setPriority(Thread.MIN_PRIORITY);
+                                  // use low priority for heavy-duty workers
     startThread.start();          // run separate thread to open files, report
 
-  } // end of doStartButton() method
+  } // end of doStartButton() method
+
+
+/*
+  doStartRunner() method
+
+  This method is called inside a separate thread by the runnable interface of
+  our "user" class to process the user's selected files in the context of the
+  "main" class.  By doing all the heavy-duty work in a separate thread, we
+  won't stall the main thread that runs the graphical interface, and we allow
+  the user to cancel the processing if it takes too long.
+*/
+  static void doStartRunner()
+  {
+    try                           // catch most "out of memory" errors
+    {
+      doFileSearch(trustedFolder, unknownFolder); // process files and folders
+    }
+    catch (OutOfMemoryError oome) // for this thread only, not the GUI thread
+    {
+      JOptionPane.showMessageDialog(mainFrame,
+        "Not enough memory to complete your request.\nPlease close this program, then try increasing\nthe Java heap size with the -Xmx option on the\nJava command line.");
+    }
+
+    /* We are done.  Turn off the "Cancel" button and allow the user to click
+    the "Start" button again. */
+
+    cancelButton.setEnabled(false); // disable "Cancel" button
+    dialogAllCheckbox.setEnabled(false); // force user to re-select this option
+    startButton.setEnabled(true); // enable "Start" button
+    startButton.requestFocusInWindow(); // shift focus to "Start" button
+    statusFlush();                // force display of pending status messages
+    statusTimer.stop();           // stop updating status on timer ticks
+
+  } // end of doStartRunner() method
+
+
+/*
+  doTrustedButton() method
+
+  Allow the user to select one file or folder as the "trusted" folder.  We
+  don't do anything with this selection until the doStartButton() method is
+  called.
+*/
+  static void doTrustedButton()
+  {
+    fileChooser.resetChoosableFileFilters(); // remove any existing filters
+    fileChooser.setDialogTitle("Select Trusted File or Folder...");
+    fileChooser.setFileHidingEnabled(! hiddenFlag); // may show hidden files
+    fileChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+    fileChooser.setMultiSelectionEnabled(false); // allow only one file
+    if (fileChooser.showOpenDialog(mainFrame) != JFileChooser.APPROVE_OPTION)
+      return;                     // user cancelled file selection dialog box
+    trustedFolder = fileChooser.getSelectedFile(); // get user's selection
+    trustedDialog.setText(trustedFolder.getPath()); // show name in text box
+  }
+
+
+/*
+  doUnknownButton() method
+
+  Allow the user to select one file or folder as the "unknown" folder.  We
+  don't do anything with this selection until the doStartButton() method is
+  called.
+*/
+  static void doUnknownButton()
+  {
+    fileChooser.resetChoosableFileFilters(); // remove any existing filters
+    fileChooser.setDialogTitle("Select Unknown File or Folder...");
+    fileChooser.setFileHidingEnabled(! hiddenFlag); // may show hidden files
+    fileChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+    fileChooser.setMultiSelectionEnabled(false); // allow only one file
+    if (fileChooser.showOpenDialog(mainFrame) != JFileChooser.APPROVE_OPTION)
+      return;                     // user cancelled file selection dialog box
+    unknownFolder = fileChooser.getSelectedFile(); // get user's selection
+    unknownDialog.setText(unknownFolder.getPath()); // show name in text box
+  }
+
+
+/*
+  findDuplicate() method
+
+  Given a bucket of known files with the same size as an unknown file, return
+  the earliest known file with the same checksum, or <null> if there is none.
+  Unique unknown files are added to the bucket.  Known files are hashed only
+  when there is something to compare them to, and then all of them at once,
+  so that they can be moved from the bucket's unhashed list to an index by
+  checksum.  After that, each lookup is one mapping, not a linear search.
+
+  A known file with the same file key (device and inode) as the unknown file is
+  the same physical file, so it is returned without reading anything, except
+  with -plan, because each line in a plan file needs the checksum.
+
+  Large files (<partFlag> is true) are first indexed by a partial checksum, and
+  only files with the same partial checksum as an unknown file get a full
+  checksum.  Records from a trusted index file with full checksums have no
+  partial checksum, so if there are any, the unknown file also gets a full
+  checksum, but known files without checksums still go by partial checksum.
+  Checksums are started in worker threads before we wait for them.
+
+  With the -confirm option, a match by checksum is checked again with a
+  stronger algorithm.  If that fails, the unknown file is kept, but not
+  indexed, since its checksum is already taken by the known file.
+
+  With the -compare option, when the bucket has only a few known files and no
+  checksums, the unknown file is compared byte by byte with all of them at
+  once.  Each known file drops out at its first difference, and reading stops
+  when none are left.  No file gets a checksum until the bucket has too many
+  files to compare this way.  Plan files need checksums, so -plan always
+  compares checksums.
+*/
+  static DeleteDupFiles2Data findDuplicate(
+    DeleteDupFiles2Bucket bucket, // known files having the same size
+    DeleteDupFiles2Data entry,    // data object for unknown file
+    boolean partFlag)             // true if we compare partial checksums first
+  {
+    int i;                        // index variable
+    Vector list;                  // known files with same partial checksum
+    DeleteDupFiles2Data result;   // our result (known file with same checksum)
+    DeleteDupFiles2Data[] unhashed; // known files without any checksums
+    int unhashedCount;            // number of files in <unhashed>
+
+    if (bucket.isEmpty())         // don't calculate if nothing to compare to
+    {
+      bucket.add(entry);          // unknown file is unique, add to bucket
+      return(null);
+    }
+    if ((planName == null)        // plan files need checksums
+      && ((result = bucket.getKey(entry)) != null)) // same device and inode?
+    {
+      return(result);             // same contents, no checksum needed
+    }
+
+    if ((compareLimit > 0) && (planName == null) && (entry.pending == null)
+      && (entry.sumLength == DeleteDupFiles2Data.MISSING)
+      && bucket.canCompare(compareLimit)) // only a few known files?
+    {
+      result = sameContents(entry, bucket.unhashed, bucket.unhashedCount);
+      if (result == null)         // different from all known files?
+        bucket.add(entry);        // unknown file is unique
+      else if (entry.inode >= 0)  // other names for this unknown file ...
+        bucket.keyMap.put(entry.getKey(), result); // ... have the same match
+      return(result);             // identical bytes, no checksum needed
+    }
+
+    unhashed = bucket.unhashed;   // known files without any checksums
+    unhashedCount = bucket.unhashedCount;
+    if (partFlag)                 // compare partial checksums?
+    {
+      /* Index all known files by partial checksum. */
+
+      startPartial(entry);        // calculate all partial checksums
+      for (i = 0; i < unhashedCount; i ++) // ... at the same time
+        startPartial(unhashed[i]);
+      waitPartial(entry);         // may have been started by worker thread
+      for (i = 0; i < unhashedCount; i ++)
+      {
+        bucket.addPart(unhashed[i]);
+        if (cancelFlag) return(null); // stop if user hit the panic button
+      }
+      bucket.clearUnhashed();     // all known files now have partial checksum
+
+      /* If no known file has the same partial checksum, then the unknown file
+      is unique, and it doesn't need a full checksum, unless there are full
+      checksums in the trusted index file. */
+
+      list = bucket.getPart(entry); // known files with same partial checksum
+      if (list == null)           // any known files with same partial checksum?
+      {
+        if (bucket.index == null) // any full checksums from index file?
+        {
+          bucket.addPart(entry);  // no, unknown file is unique
+          return(null);
+        }
+        list = new Vector();      // compare full checksum with index only
+      }
+
+      /* Move known files with the same partial checksum to the index by full
+      checksum.  The partial checksum stays in its own index, with an empty
+      list, so that later unknown files know there are full checksums. */
+
+      startChecksum(entry);       // calculate all full checksums
+      for (i = 0; i < list.size(); i ++) // ... at the same time
+        startChecksum((DeleteDupFiles2Data) list.get(i));
+      waitChecksum(entry);        // may have been started by worker thread
+      for (i = 0; i < list.size(); i ++)
+      {
+        bucket.addFull((DeleteDupFiles2Data) list.get(i));
+        if (cancelFlag) return(null); // stop if user hit the panic button
+      }
+      list.clear();               // all known files now have full checksum
+    }
+    else                          // small files get full checksums
+    {
+      /* Index all known files by full checksum. */
+
+      startChecksum(entry);       // calculate all full checksums
+      for (i = 0; i < unhashedCount; i ++) // ... at the same time
+        startChecksum(unhashed[i]);
+      waitChecksum(entry);        // may have been started by worker thread
+      for (i = 0; i < unhashedCount; i ++)
+      {
+        bucket.addFull(unhashed[i]);
+        if (cancelFlag) return(null); // stop if user hit the panic button
+      }
+      bucket.clearUnhashed();     // all known files now have full checksum
+    }
+
+    /* Now there is only one place to look for the same checksum. */
+
+    result = bucket.getFull(entry); // earliest known file or <null>
+    if ((result != null) && (confirmName != null)
+      && (confirmChecksum(entry, result) == false)) // checksums collided?
+    {
+      return(null);               // different contents, keep unknown file
+    }
+    if (result == null)           // did we find the same checksum?
+      bucket.addFull(entry);      // no, unknown file is unique
+    else if ((entry.inode >= 0) && (bucket.keyMap != null)) // other names
+      bucket.keyMap.put(entry.getKey(), result); // ... have the same match
+    return(result);               // give caller whatever we could find
+
+  } // end of findDuplicate() method
+
+
+/*
+  flushHashes() method
+
+  Sort the checksums waiting in <hashBatch> by where their files are stored,
+  and give them to the checksum threads for each device in that order.  When
+  the caller is about to wait for one checksum, the batch is only sent if the
+  checksum is still in it.  Otherwise, the batch keeps growing, because a
+  bigger batch is read in a better order.  The whole batch is sorted together,
+  since each device has its own queue, and files on different devices never
+  seek against each other.
+*/
+  static void flushHashes(FutureTask wanted)
+  {
+    DeleteDupFiles2Hash hash;     // one checksum from <hashBatch>
+    int i;                        // index variable
+    boolean found;                // true if caller's checksum is in batch
+    int size;                     // number of checksums now in queue
+
+    if ((hashBatch == null) || (hashBatch.size() == 0)) // anything waiting?
+      return;
+    if (wanted != null)           // does caller need only one checksum?
+    {
+      found = false;              // look through this batch for it
+      for (i = 0; (found == false) && (i < hashBatch.size()); i ++)
+        found = (((DeleteDupFiles2Hash) hashBatch.get(i)).task == wanted);
+      if (found == false)         // already given to checksum threads?
+        return;
+    }
+
+    Collections.sort(hashBatch, new DeleteDupFiles2Hash(null)); // by location
+    for (i = 0; i < hashBatch.size(); i ++)
+    {
+      hash = (DeleteDupFiles2Hash) hashBatch.get(i);
+      hash.pool.execute(hash.task); // calculate when a thread is free
+      size = hash.pool.getQueue().size(); // for the debug summary
+      if (size > totalHashPeak) totalHashPeak = size;
+      hash.pool = null;           // release references for garbage collector
+      hash.task = null;
+    }
+    hashBatch.clear();            // start a new batch
+
+  } // end of flushHashes() method
+
+
+/*
+  formatHexBytes() method
+
+  Format a raw array of binary bytes as a hexadecimal string.
+*/
+  static String formatHexBytes(byte[] raw)
+  {
+    StringBuffer buffer;          // faster than String for multiple appends
+    final char[] hexDigits = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9',
+      'a', 'b', 'c', 'd', 'e', 'f'}; // for converting binary to hexadecimal
+    int i;                        // index variable
+    int value;                    // one byte value from raw array
+
+    buffer = new StringBuffer(raw.length * 2);
+                                  // allocate empty string buffer for result
+    for (i = 0; i < raw.length; i ++)
+    {
+      value = raw[i];             // get one byte value from raw array
+      buffer.append(hexDigits[(value >> 4) & 0x0F]); // hex high-order nibble
+      buffer.append(hexDigits[value & 0x0F]); // hex low-order nibble
+    }
+    return(buffer.toString());    // give caller our converted string
+
+  } // end of formatHexBytes() method
+
+
+/*
+  getDigest() method
+
+  Return a new message digest (checksum) object for an algorithm name in
+  uppercase.  Our own fast checksums are tried first, then any algorithm known
+  to Java, such as MD5, SHA-1, SHA-256, or SHA-512.  All are used the same way
+  by the rest of this program.
+*/
+  static MessageDigest getDigest(String name) throws NoSuchAlgorithmException
+  {
+    if (name.equals(DeleteDupFiles2Digest.CRC32C)
+      || name.equals(DeleteDupFiles2Digest.MURMUR3_64)
+      || name.equals(DeleteDupFiles2Digest.MURMUR3_128))
+    {
+      return(new DeleteDupFiles2Digest(name)); // our own fast checksums
+    }
+    return(MessageDigest.getInstance(name)); // standard Java message digests
+
+  } // end of getDigest() method
+
+
+/*
+  getFileData() method
+
+  Read all attributes that we need for one file or folder with a single request
+  to the system, and return them in a new data object, or return <null> if the
+  attributes can't be read.  On Windows, the DOS attributes include the hidden
+  and read-only flags.  Elsewhere, hidden files are named with a leading dot,
+  which is what File.isHidden() does, and checking for read-only files is left
+  until a file needs to be deleted.  Symbolic links are followed, as they are
+  by File.isDirectory() and File.isFile().
+
+  Entries in a folder keep only their own name and their parent folder's data
+  object, not a full path name.  The top-level file or folder has no parent,
+  and keeps its full path name instead.
+*/
+  static DeleteDupFiles2Data getFileData(
+    Path path,                    // path name from caller or directory stream
+    DeleteDupFiles2Data parent)   // folder with this entry, or <null>
+  {
+    BasicFileAttributes attrs;    // attributes for any file system
+    DosFileAttributes dosAttrs;   // attributes for Windows file systems
+    Path name;                    // last part of path name, or <null>
+    DeleteDupFiles2Data result;   // our result (data for file or folder)
+
+    try
+    {
+      if (mswinFlag)              // DOS attributes have hidden and read-only
+      {
+        dosAttrs = Files.readAttributes(path, DosFileAttributes.class);
+        attrs = dosAttrs;         // DOS attributes are also basic attributes
+      }
+      else
+      {
+        dosAttrs = null;          // no DOS attributes on other systems
+        attrs = Files.readAttributes(path, BasicFileAttributes.class);
+      }
+    }
+    catch (IOException ioe) { return(null); } // may be broken link, etc
+    catch (UnsupportedOperationException uoe) { return(null); }
+
+    if ((attrs.isDirectory() == false) && (attrs.isRegularFile() == false))
+      return(null);               // ignore anything not a file or folder
+
+    result = new DeleteDupFiles2Data(parent, ((parent == null) ? path.toString()
+      : path.getFileName().toString())); // name only, if there is a parent
+    result.date = attrs.lastModifiedTime().toMillis(); // same as lastModified()
+    result.folder = attrs.isDirectory(); // true if folder, false if file
+    result.size = result.folder ? 0 : attrs.size(); // same as File.length()
+    if (dosAttrs != null)         // are the DOS attributes known?
+    {
+      result.hidden = dosAttrs.isHidden();
+      result.readOnly = dosAttrs.isReadOnly() ? Boolean.TRUE : Boolean.FALSE;
+    }
+    else
+    {
+      name = path.getFileName();  // same rule as File.isHidden() on UNIX
+      result.hidden = (name != null) && name.toString().startsWith(".");
+      if (result.folder == false) // hard links and bind mounts share inodes
+      {
+        try
+        {
+          Map unix = Files.readAttributes(path, "unix:dev,ino");
+          result.device = ((Long) unix.get("dev")).longValue();
+          result.inode = ((Long) unix.get("ino")).longValue();
+        }
+        catch (IOException ioe) { result.inode = -1; } // file is gone, etc
+        catch (RuntimeException re) { result.inode = -1; } // not supported
+      }
+    }
+    return(result);               // give caller whatever we could find
+
+  } // end of getFileData() method
+
+
+/*
+  getFileOrName() method
+
+  The user can select a trusted or unknown folder either with a GUI button and
+  its dialog box, or by typing the path name in a text field.  This is a helper
+  method for doStartButton() to choose between the two, or to return <null> if
+  neither is acceptable.
+*/
+  static File getFileOrName(File file, JTextField text)
+  {
+    String path;                  // text from dialog box, no trimming
+    String trim;                  // text from dialog box, with trimming
+
+    path = text.getText();        // get current text from dialog box
+    if ((file != null) && file.getPath().equals(path))
+      return(file);               // existing selection, no change to text
+
+    trim = path.trim();           // remove leading and trailing spaces
+    if (path.equals(trim) == false) // if trimming makes a difference
+      text.setText(trim);         // then force dialog to trimmed text
+
+    if (trim.length() > 0)        // no selection, or text has changed
+      return(new File(trim));     // create a new File object from text area
+    else                          // no selection, or selected path deleted
+      return(null);               // no File object that we can safely use
+
+  } // end of getFileOrName() method
+
+
+/*
+  getFileStore() method
+
+  Return the file store (file system) for a folder, or <null> if it can't be
+  found.  Results are remembered by path name, so that each folder is asked
+  only once, no matter how many duplicates it has.
+*/
+  static FileStore getFileStore(Path folder)
+  {
+    String key;                   // path name as mapping key
+    FileStore result;             // our result (file store for folder)
+
+    if (folder == null)           // root has no parent folder
+      return(null);
+    key = folder.toString();
+    if ((storeMap != null) && storeMap.containsKey(key)) // asked before?
+      return((FileStore) storeMap.get(key));
+    try { result = Files.getFileStore(folder); }
+    catch (IOException ioe) { result = null; } // folder is gone, etc
+    if (storeMap != null)         // remember answer, even if <null>
+      storeMap.put(key, result);
+    return(result);
+
+  } // end of getFileStore() method
+
+
+/*
+  getHashPool() method
+
+  Return the pool of checksum threads for the device (file store) with a file,
+  starting a new pool the first time that a device is found.  The device is
+  found once for each folder, and saved.  A device named by -j#=folder has
+  its own number of threads, a rotating disk has -jhdd=# threads, and any
+  other device has the usual -j# threads.  This is called only by the search
+  thread, so the mappings aren't synchronized, and the file store mapping for
+  -link isn't used because the action thread has that one.
+*/
+  static ThreadPoolExecutor getHashPool(DeleteDupFiles2Data entry)
+  {
+    int count;                    // number of threads for a new device pool
+    Path folder;                  // folder with caller's file
+    Object key;                   // folder data object, or folder path name
+    ThreadPoolExecutor result;    // our result (pool for caller's device)
+    FileStore store;              // device with caller's file, or <null>
+
+    folder = null;                // folder path isn't known yet
+    if (entry.parent != null)     // usual case, file found in folder listing
+      key = entry.parent;         // same data object for all files in folder
+    else                          // top level, trusted index, or trusted store
+    {
+      folder = Paths.get(entry.name).getParent(); // full path name, no parent
+      key = (folder == null) ? "" : folder.toString();
+    }
+    result = (ThreadPoolExecutor) folderPools.get(key);
+    if (result != null)           // was this folder found before?
+      return(result);
+
+    if (entry.parent != null)     // need path name for parent folder
+      folder = Paths.get(entry.parent.getPath());
+    try { store = (folder == null) ? null : Files.getFileStore(folder); }
+    catch (IOException ioe) { store = null; } // folder is gone, etc
+    result = (ThreadPoolExecutor) devicePools.get(store);
+    if (result == null)           // first file found on this device?
+    {
+      if (deviceLimits.containsKey(store)) // device named by -j#=folder?
+        count = ((Integer) deviceLimits.get(store)).intValue();
+      else if ((hddThreads > 0) && (folder != null) && isRotatingDisk(folder))
+        count = hddThreads;       // rotating disk, known only on Linux
+      else
+        count = threadCount;      // same number as without devices
+      result = new ThreadPoolExecutor(count, count, 0, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue(), new DeleteDupFiles2Hash(null));
+                                  // create fixed-size pool of threads
+      devicePools.put(store, result);
+      hashThreads += count;       // total threads for all devices
+      if (debugFlag)              // does user want to see what we're doing?
+        putOutput("Using " + prettyPlural(count, "checksum thread") + " for "
+          + ((store == null) ? "unknown device" : ("device " + store)));
+    }
+    folderPools.put(key, result); // same device for all files in folder
+    return(result);
+
+  } // end of getHashPool() method
+
+
+/*
+  isRotatingDisk() method
+
+  Return <true> if the system says that a folder is on a rotating disk (hard
+  drive), and <false> if it's on a solid state drive, a network drive, or if
+  the system doesn't say.  Only Linux has this information, in the /sys file
+  system, found by the major and minor device numbers.  A disk partition
+  doesn't have its own queue information, so then we look at its whole disk.
+*/
+  static boolean isRotatingDisk(Path folder)
+  {
+    long device;                  // device number from file attributes
+    File info;                    // file with "1" if disk is rotating
+    BufferedReader input;         // input character stream from <info>
+    String line;                  // first line from <info>
+    String name;                  // folder in /sys for this device
+
+    try { device = ((Long) Files.getAttribute(folder, "unix:dev")).longValue(); }
+    catch (IOException ioe) { return(false); } // folder is gone, etc
+    catch (RuntimeException re) { return(false); } // not UNIX, not supported
+    name = "/sys/dev/block/" + (((device >> 8) & 0xFFF) | ((device >> 32)
+      & ~0xFFFL)) + ":" + ((device & 0xFF) | ((device >> 12) & ~0xFFL));
+                                  // major and minor numbers, same as glibc
+    info = new File(name + "/queue/rotational");
+    if (info.isFile() == false)   // partition of a whole disk?
+      info = new File(name + "/../queue/rotational");
+    try
+    {
+      input = new BufferedReader(new FileReader(info));
+      try { line = input.readLine(); }
+      finally { input.close(); }
+    }
+    catch (IOException ioe) { return(false); } // not a block device, etc
+    return((line != null) && line.trim().equals("1"));
+
+  } // end of isRotatingDisk() method
+
+
+/*
+  listFolder() method
+
+  Return the contents of a folder as sorted data objects, with their file
+  attributes.  The folder is read with a directory stream, and each entry is
+  given to getFileData() for its attributes.  Entries whose attributes can't be
+  read are silently ignored, like anything that isn't a file or folder.  If the
+  folder itself can't be read (such as a protected system directory), then the
+  result is an empty array.
+*/
+  static DeleteDupFiles2Data[] listFolder(DeleteDupFiles2Data folder)
+  {
+    DeleteDupFiles2Data entry;    // data object for one entry in folder
+    Iterator iterator;            // for walking through directory stream
+    Vector list;                  // entries found in folder, unsorted
+    DirectoryStream stream;       // directory entries as path names
+
+    list = new Vector();          // start with an empty list
+    stream = null;                // nothing opened yet
+    try
+    {
+      stream = Files.newDirectoryStream(folder.getFile().toPath());
+      iterator = stream.iterator(); // entries in the order the system gives
+      while (iterator.hasNext())
+      {
+        if (cancelFlag) break;    // stop if user hit the panic button
+        entry = getFileData((Path) iterator.next(), folder); // system call
+        if (entry != null)        // ignore entries without good attributes
+          list.add(entry);
+      }
+    }
+    catch (DirectoryIteratorException die) { /* treat as end of folder */ }
+    catch (IOException ioe) { /* same as File.listFiles() giving <null> */ }
+    finally
+    {
+      if (stream != null)         // was the directory stream opened?
+        try { stream.close(); } catch (IOException ioe) { }
+    }
+    return(sortFileList((DeleteDupFiles2Data[]) list.toArray(
+      new DeleteDupFiles2Data[0]))); // sorted, like File.listFiles() was
+
+  } // end of listFolder() method
+
+
+/*
+  loadCache() method
+
+  Load checksums saved by an earlier run from a cache file, and open the file
+  to append new checksums.  Each line has a checksum, a file size, a modified
+  date, and a full path name, separated by spaces, in UTF-8.  Later lines
+  replace earlier lines for the same path name, so that nothing needs to be
+  rewritten when a file changes.  The whole file is only rewritten when it is
+  new, when the digest algorithm is different, or when there are too many
+  obsolete lines.  A partial last line (no newline) is ignored.
+*/
+  static void loadCache(File cacheFile)
+  {
+    byte[] checksum;              // checksum converted from hexadecimal
+    int end1, end2, end3;         // end of fields in one line
+    DeleteDupFiles2Cache entry;   // one checksum from cache file
+    String header;                // first line in cache file
+    BufferedReader input;         // input character stream from cache file
+    String line, next;            // current and next lines from cache file
+    int lineCount;                // number of checksum lines in cache file
+    boolean lastFlag;             // true if last line ends with a newline
+    boolean rewrite;              // true if we rewrite the whole cache file
+
+    cacheMap = new HashMap();     // start with an empty mapping
+    cacheWriter = null;           // cache file isn't open for writing yet
+    header = CACHE_HEADER + digestName; // first line identifies the format
+    lineCount = 0;                // no checksum lines found yet
+    rewrite = true;               // assume a new cache file
+
+    if (cacheFile.isFile())       // does the cache file exist?
+    {
+      try
+      {
+        RandomAccessFile check = new RandomAccessFile(cacheFile, "r");
+        lastFlag = (check.length() == 0); // empty file has no partial line
+        if (lastFlag == false)    // check last byte for a newline
+        {
+          check.seek(check.length() - 1);
+          lastFlag = (check.read() == '\n');
+        }
+        check.close();            // try to close input file
+
+        input = new BufferedReader(new InputStreamReader(new FileInputStream(
+          cacheFile), "UTF-8"), BUFFER_SIZE); // open cache file for reading
+        if (header.equals(input.readLine())) // same digest algorithm?
+        {
+          rewrite = false;        // yes, we can append to this file
+          line = input.readLine(); // get first checksum line
+          while (line != null)    // until end of file
+          {
+            next = input.readLine(); // look ahead so we know last line
+            lineCount ++;         // one more line, maybe good, maybe bad
+            end1 = line.indexOf(' '); // end of checksum
+            end2 = (end1 < 0) ? -1 : line.indexOf(' ', (end1 + 1)); // size
+            end3 = (end2 < 0) ? -1 : line.indexOf(' ', (end2 + 1)); // date
+            checksum = (end1 > 0) ? parseHexBytes(line.substring(0, end1))
+              : null;             // convert checksum to raw bytes
+            if ((end3 > 0) && (checksum != null) && ((next != null)
+              || lastFlag))       // complete line with good checksum?
+            {
+              try
+              {
+                entry = new DeleteDupFiles2Cache(checksum,
+                  Long.parseLong(line.substring((end1 + 1), end2)),
+                  Long.parseLong(line.substring((end2 + 1), end3)));
+                cacheMap.put(line.substring(end3 + 1), entry);
+              }
+              catch (NumberFormatException nfe) { /* ignore bad lines */ }
+            }
+            else if (next == null) // ignored an incomplete last line
+              rewrite = true;     // so appending would make a mess
+            line = next;          // move on to the next line
+          }
+        }
+        input.close();            // try to close input file
+      }
+      catch (IOException ioe)     // file may be locked, invalid, etc
+      {
+        putOutput("Can't read checksum cache file: " + ioe.getMessage());
+        cacheMap.clear();         // don't trust anything that we found
+        rewrite = true;           // replace with a new cache file
+      }
+    }
+
+    /* Too many obsolete lines mean that the same files keep changing.  Write
+    a new cache file with only the current checksums. */
+
+    if (lineCount > ((2 * cacheMap.size()) + CACHE_SLACK))
+      rewrite = true;             // more than half of lines are obsolete
+
+    try
+    {
+      cacheWriter = new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(cacheFile, (rewrite == false)), "UTF-8"),
+        BUFFER_SIZE);             // append to file, or replace existing file
+      if (rewrite)                // do we need to rewrite the whole file?
+      {
+        cacheWriter.write(header + "\n"); // first line identifies the format
+        Iterator list = cacheMap.entrySet().iterator(); // current checksums
+        while (list.hasNext())
+        {
+          Map.Entry pair = (Map.Entry) list.next();
+          entry = (DeleteDupFiles2Cache) pair.getValue();
+          cacheWriter.write(formatHexBytes(entry.md5) + " " + entry.size
+            + " " + entry.date + " " + pair.getKey() + "\n");
+        }
+      }
+    }
+    catch (IOException ioe)       // file may be locked, read-only, etc
+    {
+      putOutput("Can't write to checksum cache file: " + ioe.getMessage());
+      cacheWriter = null;         // use checksums found, but don't add more
+    }
+
+    if (debugFlag)                // does user want to see what we're doing?
+      putOutput("Loaded " + prettyPlural(cacheMap.size(), "cached checksum")
+        + " from " + prettyPlural(lineCount, "line") + " in "
+        + cacheFile.getPath() + (rewrite ? " (rewritten)" : ""));
+
+  } // end of loadCache() method
+
+
+/*
+  lookupCache() method
+
+  Return the cached checksum for a file, or <null> if there is no checksum for
+  this path name, or if the file size or date has changed.  The mapping is not
+  changed while worker threads are running, so we don't synchronize.
+*/
+  static byte[] lookupCache(String filePath, long fileSize, long fileDate)
+  {
+    DeleteDupFiles2Cache entry;   // cached checksum, if any
+
+    entry = (DeleteDupFiles2Cache) cacheMap.get(filePath);
+    if ((entry != null) && (entry.size == fileSize) && (entry.date == fileDate))
+      return(entry.md5);          // file hasn't changed since last time
+    return(null);                 // nothing cached, or file has changed
+
+  } // end of lookupCache() method
+
+
+/*
+  moveFiles() method
+
+  Move one batch of duplicate files into the quarantine folder, each with the
+  same path name relative to the quarantine folder as it had relative to the
+  unknown folder.  A name that is already in the quarantine folder, from an
+  earlier run, gets a number added to the end.  Each line is written to the
+  manifest file only after its file has been moved, so a name that failed to
+  move is free to be chosen again, and -restore never finds an old line for
+  it.  If the line can't be written, the file is moved back, since it could
+  never be restored.  The manifest is flushed once for the whole batch.
+
+  This is called by the move thread, so the report lines for moved files may
+  come a little after the lines from the search that found them.
+*/
+  static void moveFiles(DeleteDupFiles2Move batch)
+  {
+    DeleteDupFiles2Data entry;    // one duplicate file from batch
+    String filePath;              // name of duplicate file, including path
+    int i;                        // index variable
+    Path source, target;          // where a file is, and where it goes
+    HashSet used;                 // quarantine names given out in this batch
+
+    /* Choose a quarantine name for each file.  A move inside one file system
+    is only a rename, so this is fast, and an atomic move never leaves a
+    partial copy behind. */
+
+    used = new HashSet();         // quarantine names given out in this batch
+    try
+    {
+      for (i = 0; i < batch.count; i ++)
+      {
+        if (cancelFlag) return;   // stop if user hit the panic button
+        entry = batch.entries[i];
+        filePath = entry.getPath();
+        if ((filePath.indexOf('\t') >= 0) || (filePath.indexOf('\n') >= 0)
+          || (filePath.indexOf('\r') >= 0)) // can't be saved in manifest
+        {
+          synchronized (countLock) { totalDelErrors ++; }
+          putOutput(filePath + " - can't quarantine names with tabs or line"
+            + " breaks");
+          continue;
+        }
+        source = Paths.get(filePath);
+        target = quarantineRoot.resolve(source.equals(quarantineBase)
+          ? source.getFileName() : quarantineBase.relativize(source));
+        String name = target.getFileName().toString();
+        for (int k = 1; Files.exists(target, LinkOption.NOFOLLOW_LINKS)
+          || used.contains(target); k ++) // name already taken?
+        {
+          target = target.resolveSibling(name + "." + k);
+        }
+        used.add(target);
+        try
+        {
+          Files.createDirectories(target.getParent()); // mirror subfolders
+          Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException ioe)   // permission denied, file changed, etc
+        {
+          synchronized (countLock) { totalDelErrors ++; }
+          putOutput(source + " - failed to move to quarantine: "
+            + ioe.getMessage());
+          continue;               // nothing moved, nothing in manifest
+        }
+        try { manifestWriter.write(target + "\t" + source + "\n"); }
+        catch (IOException ioe)   // disk full, etc
+        {
+          try { Files.move(target, source, StandardCopyOption.ATOMIC_MOVE); }
+          catch (IOException ioe2) { } // stays in quarantine, but reported
+          synchronized (countLock) { totalDelErrors ++; }
+          putOutput(source + " - can't write quarantine manifest file: "
+            + ioe.getMessage());
+          continue;
+        }
+        synchronized (countLock)  // totals are shared with action thread
+        {
+          totalDelBytes += entry.size; // total number of bytes moved
+          totalDelFiles ++;       // total number of moved files
+        }
+        putOutput(source + " - moved to quarantine");
+      }
+    }
+    finally
+    {
+      try { manifestWriter.flush(); } // one write for the whole batch
+      catch (IOException ioe)     // reported again when manifest is closed
+      {
+        putOutput("Can't write quarantine manifest file: " + ioe.getMessage());
+      }
+    }
+  } // end of moveFiles() method
+
+
+/*
+  openQuarantine() method
+
+  Check the quarantine folder, if there is one, open its manifest file, and
+  start the thread that moves duplicates there.  Return <false> if duplicates
+  can't be moved safely, after printing a message.  The quarantine folder can't
+  be inside the trusted or unknown folders, or moved files would be found again
+  by this search or by the next one.  It must be on the same file system as
+  the unknown folder, because each move is an atomic rename.
+
+  Duplicates are moved by one more thread, in batches, so that the action
+  thread only has to decide.  Each move is added to the manifest, which
+  -restore uses to put them back.
+*/
+  static boolean openQuarantine(
+    File unknown,                 // unknown file or folder in canonical form
+    File trusted)                 // trusted file or folder, or <null>
+  {
+    quarantineBase = quarantineRoot = null; // no quarantine folder yet
+    if (quarantineName == null)   // are duplicates moved to quarantine?
+      return(true);               // no, nothing more to check
+    try
+    {
+      Files.createDirectories(Paths.get(quarantineName)); // may be new
+      quarantineRoot = new File(quarantineName).getCanonicalFile().toPath();
+    }
+    catch (IOException ioe)       // can't create folder, bad name, etc
+    {
+      putOutput(("Can't create quarantine folder: " + quarantineName), true);
+      return(false);
+    }
+    if (quarantineRoot.startsWith(unknown.toPath()) || ((trusted != null)
+      && quarantineRoot.startsWith(trusted.toPath())))
+    {
+      putOutput("Quarantine folder can not be inside trusted or unknown folder.");
+      putOutput(("Quarantine folder resolves to: " + quarantineRoot), true);
+      return(false);
+    }
+    quarantineBase = unknown.toPath(); // path names are relative to this
+
+    FileStore store = getFileStore(quarantineRoot);
+    if ((store == null) || (store.equals(getFileStore(unknown.toPath()))
+      == false))                  // can't rename across file systems
+    {
+      putOutput("Quarantine folder must be on the same file system as the"
+        + " unknown folder.");
+      putOutput(("Quarantine folder resolves to: " + quarantineRoot), true);
+      quarantineBase = quarantineRoot = null; // nothing will be moved
+      return(false);
+    }
+    File manifestFile = quarantineRoot.resolve(MANIFEST_NAME).toFile();
+    try
+    {
+      boolean newFlag = (manifestFile.isFile() == false); // need header?
+      manifestWriter = new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(manifestFile, true), "UTF-8"), BUFFER_SIZE);
+      if (newFlag)                // first line identifies the format
+        manifestWriter.write(MANIFEST_HEADER + "\n");
+    }
+    catch (IOException ioe)       // moves can't be undone without manifest
+    {
+      putOutput("Can't write quarantine manifest file: " + ioe.getMessage());
+      return(false);
+    }
+    moveBatch = new DeleteDupFiles2Move(MOVE_BATCH); // empty first batch
+    moveQueue = new ArrayBlockingQueue(MOVE_QUEUE); // limited size
+    moveThread = new Thread(new DeleteDupFiles2Move(0), "doMoveRunner");
+    moveThread.setDaemon(true);   // don't keep application alive for this
+    moveThread.setPriority(Thread.MIN_PRIORITY); // same as our thread
+    moveThread.start();           // start taking batches from the queue
+    return(true);
+
+  } // end of openQuarantine() method
+
+
+/*
+  parseHexBytes() method
+
+  Convert a hexadecimal string to raw binary bytes, the opposite of what the
+  formatHexBytes() method does.  Return <null> if the string is not an even
+  number of hexadecimal digits.
+*/
+  static byte[] parseHexBytes(String text)
+  {
+    int high, low;                // values of two hexadecimal digits
+    int i;                        // index variable
+    int length;                   // number of characters in <text>
+    byte[] result;                // our result (the raw bytes)
+
+    length = text.length();       // number of hexadecimal digits
+    if ((length == 0) || ((length % 2) != 0)) // must be pairs of digits
+      return(null);
+    result = new byte[length / 2]; // one byte for each pair of digits
+    for (i = 0; i < length; i += 2)
+    {
+      high = Character.digit(text.charAt(i), 16); // high-order nibble
+      low = Character.digit(text.charAt(i + 1), 16); // low-order nibble
+      if ((high < 0) || (low < 0)) // is either character not a hex digit?
+        return(null);
+      result[i / 2] = (byte) ((high << 4) | low);
+    }
+    return(result);               // give caller our converted bytes
+
+  } // end of parseHexBytes() method
+
+
+/*
+  peekPartial() method
+
+  Return the partial checksum for a data object if it is known, or if a worker
+  thread has finished calculating it, otherwise return <null>.  We never wait,
+  and we don't change the data object, so that debug output from waitPartial()
+  is in the same order for any number of threads.
+*/
+  static Long peekPartial(DeleteDupFiles2Data entry)
+  {
+    byte[] raw;                   // finished result from worker thread
+
+    if (entry.partLength == DeleteDupFiles2Data.FAILED) // known to be bad?
+      return(null);
+    if (entry.partLength != DeleteDupFiles2Data.MISSING) // already collected?
+      return(Long.valueOf(entry.part));
+    if ((entry.partPending == null) || (entry.partPending.isDone() == false))
+      return(null);               // not started or not finished
+    try { raw = (byte[]) entry.partPending.get(); } // finished, no waiting
+    catch (ExecutionException ee) { return(null); } // let waitPartial() decide
+    catch (InterruptedException ie) { return(null); }
+    if (raw == null)              // worker thread couldn't read the file
+      return(null);
+    return(Long.valueOf(DeleteDupFiles2Data.packLong(raw, 0))); // as setPartial()
+  }
+
+
+/*
+  prefetchUnknown() method
+
+  Start calculating checksums for an unknown file, and for all files of the
+  same size that are already known, before doFileUnknown() needs them.  Return
+  the caller's data object if any work was started, otherwise return <null>.
+  Nothing is decided here; we only guess what will be needed soon.
+*/
+  static DeleteDupFiles2Data prefetchUnknown(
+    DeleteDupFiles2SizeIndex sizeList, // mapping of file sizes to buckets
+    DeleteDupFiles2Data givenEntry) // caller gives us one file or folder
+  {
+    long fileSize;                // size of caller's file in bytes
+    int i;                        // index variable
+    DeleteDupFiles2Data result;   // our result (data for unknown file)
+    DeleteDupFiles2Bucket sizeBucket; // files having the same size
+    DeleteDupFiles2Data[] unhashed; // known files without any checksums
+
+    if ((hiddenFlag == false) && givenEntry.hidden) // hidden file?
+      return(null);               // will be ignored by doFileUnknown()
+    if (givenEntry.folder)        // folders are never started
+      return(null);
+    fileSize = givenEntry.size;   // size of caller's file in bytes
+    if ((zeroFlag == false) && (fileSize == 0)) // normally ignore empty files
+      return(null);
+    sizeBucket = sizeList.get(fileSize); // files having the same size
+    if ((sizeBucket == null) || sizeBucket.isEmpty())
+      return(null);               // no known files with this size, yet
+    if ((planName == null)        // plan files need checksums
+      && (sizeBucket.getKey(givenEntry) != null)) // same device and inode?
+    {
+      return(null);               // no checksums will be needed
+    }
+    if ((compareLimit > 0) && (planName == null)
+      && sizeBucket.canCompare(compareLimit))
+      return(null);               // probably compared byte by byte instead
+
+    /* Known files that already have checksums are in the bucket's indexes and
+    don't need anything more.  Start work for the other known files. */
+
+    result = givenEntry;          // same data object for unknown file
+    unhashed = sizeBucket.unhashed; // known files without any checksums
+    if (usePartial(fileSize))     // partial checksums first?
+    {
+      startPartial(result);       // queue partial checksum for unknown file
+      if (sizeBucket.index != null) // full checksums from index file?
+        startChecksum(result);    // ... then unknown file needs one too
+      for (i = 0; i < sizeBucket.unhashedCount; i ++) // and all known files
+        startPartial(unhashed[i]);
+    }
+    else                          // small files get full checksums
+    {
+      startChecksum(result);      // queue checksum for unknown file
+      for (i = 0; i < sizeBucket.unhashedCount; i ++) // and all known files
+        startChecksum(unhashed[i]);
+    }
+    return(result);               // give caller whatever we could find
+
+  } // end of prefetchUnknown() method
+
+
+/*
+  prettyPlural() method
+
+  Return a string that formats a number and appends a lowercase "s" to a word
+  if the number is plural (not one).  Also provide a more general method that
+  accepts both a singular word and a plural word.
+*/
+  static String prettyPlural(
+    long number,                  // number to be formatted
+    String singular)              // singular word
+  {
+    return(prettyPlural(number, singular, (singular + "s")));
+  }
+
+  static String prettyPlural(
+    long number,                  // number to be formatted
+    String singular,              // singular word
+    String plural)                // plural word
+  {
+    final String[] names = {"zero", "one", "two"};
+                                  // names for small counting numbers
+    String result;                // our converted result
+
+    if ((number >= 0) && (number < names.length))
+      result = names[(int) number]; // use names for small counting numbers
+    else
+      result = formatComma.format(number); // format number with digit grouping
+
+    if (number == 1)              // is the number singular or plural?
+      result += " " + singular;   // append singular word
+    else
+      result += " " + plural;     // append plural word
+
+    return(result);               // give caller our converted string
+
+  } // end of prettyPlural() method
+
+
+/*
+  promoteUnknown() method
+
+  An unknown file was started by prefetchUnknown() with a partial checksum.  If
+  worker threads have finished the partial checksums, and they agree with any
+  known file of the same size, then start full checksums for those files too.
+  This keeps worker threads busy when there are many duplicates.  We look only
+  at finished work, and never wait for anything.
+*/
+  static void promoteUnknown(
+    DeleteDupFiles2SizeIndex sizeList, // mapping of file sizes to buckets
+    DeleteDupFiles2Data entry)    // data object from prefetchUnknown()
+  {
+    int i;                        // index variable
+    Vector list;                  // known files with same partial checksum
+    Long part;                    // partial checksum for unknown file
+    DeleteDupFiles2Bucket sizeBucket; // files having the same size
+    DeleteDupFiles2Data sizeEntry; // current item from <unhashed>
+    DeleteDupFiles2Data[] unhashed; // known files without any checksums
+
+    if ((part = peekPartial(entry)) == null) // unknown file not finished yet
+      return;
+    sizeBucket = sizeList.get(entry.size); // files having the same size
+    if (sizeBucket == null)       // should always exist, but be careful
+      return;
+
+    /* Known files already indexed by the same partial checksum will need full
+    checksums, and so will the unknown file. */
+
+    if ((sizeBucket.partMap != null)
+      && ((list = (Vector) sizeBucket.partMap.get(part)) != null))
+    {
+      startChecksum(entry);       // full checksum for unknown file
+      for (i = 0; i < list.size(); i ++) // and for all known files
+        startChecksum((DeleteDupFiles2Data) list.get(i));
+    }
+
+    /* Known files without an index may have finished partial checksums. */
+
+    unhashed = sizeBucket.unhashed; // known files without any checksums
+    for (i = 0; i < sizeBucket.unhashedCount; i ++) // for each known file
+    {
+      sizeEntry = unhashed[i];
+      if (part.equals(peekPartial(sizeEntry))) // same partial checksum?
+      {
+        startChecksum(entry);     // full checksum for unknown file
+        startChecksum(sizeEntry); // and for known file of the same size
+      }
+    }
+  } // end of promoteUnknown() method
+
+
+/*
+  putDeleted() method
+
+  Print the summary line for files that were deleted, replaced with hard
+  links, or moved to the quarantine folder, depending on the options.
+*/
+  static void putDeleted()
+  {
+    putOutput(((linkFlag ? "Replaced " : (quarantineRoot != null) ? "Moved "
+      : "Deleted ") + prettyPlural(totalDelFiles, "file") + (linkFlag
+      ? " with hard links" : (quarantineRoot != null) ? " to quarantine" : "")
+      + " using " + prettyPlural(totalDelBytes, "byte") + ", with "
+      + prettyPlural(totalDelErrors, "error") + "."), true);
+  }
+
+
+/*
+  putOutput() method
+
+  Append a complete line of text to the end of the output text area.  We add a
+  newline character at the end of the line, not the caller.  By forcing all
+  output to go through this same method, one complete line at a time, the
+  generated output is cleaner and can be redirected.
+
+  The output text area is forced to scroll to the end, after the text line is
+  written, by selecting character positions that are much too large (and which
+  are allowed by the definition of the JTextComponent.select() method).  This
+  is easier and faster than manipulating the scroll bars directly.  However, it
+  does cancel any selection that the user might have made, for example, to copy
+  text from the output area.
+*/
+  static void putOutput(String text)
+  {
+    putOutput(text, scrollFlag);  // allow user to set default scroll behavior
+  }
+
+  static void putOutput(String text, boolean scroll)
+  {
+    if ((actionQueue != null) && (Thread.currentThread() == searchThread))
+    {
+      /* While the search is running, its output goes through the same queue
+      as deletions, so that everything appears in the order decided. */
+
+      queueAction(new DeleteDupFiles2Action(text, scroll));
+    }
+    else if (consoleFlag)         // are we running as a console application?
+      System.out.println(text);   // console output goes onto standard output
+    else
+    {
+      outputText.append(text + "\n"); // graphical output goes into text area
+      if (scroll)                 // does caller want us to scroll?
+        outputText.select(999999999, 999999999); // force scroll to end of text
+    }
+  }
+
+
+/*
+  queueAction() method
+
+  Add an output line or a deletion to the end of the action queue, waiting if
+  the queue is full.  If the action thread has somehow died, then do the action
+  here, so that the search can't wait forever.
+*/
+  static void queueAction(DeleteDupFiles2Action action)
+  {
+    int size;                     // number of actions now in queue
+
+    try
+    {
+      if (actionQueue.offer(action) == false) // is the queue full?
+      {
+        totalQueueWaits ++;       // count backpressure from action thread
+        while (actionQueue.offer(action, 1, TimeUnit.SECONDS) == false)
+        {
+          if (actionThread.isAlive() == false) // no thread to empty queue?
+          {
+            if (action.entry != null) // do action in this thread instead
+              doFileDelete(action.entry, action.same);
+            else if (action.text != null)
+              System.out.println(action.text); // GUI may be gone as well
+            return;
+          }
+        }
+      }
+    }
+    catch (InterruptedException ie) { return; } // give up on this action
+    size = actionQueue.size();    // for the debug summary
+    if (size > totalQueuePeak) totalQueuePeak = size;
+
+  } // end of queueAction() method
+
+
+/*
+  queueHash() method
+
+  Create a task for a full or partial checksum, and give it to the checksum
+  threads for the file's device.  When checksums are sorted for locality, the
+  task is added to <hashBatch> instead, and the batch is sorted and sent when
+  it's full, or when the search needs one of its checksums.
+*/
+  static FutureTask queueHash(
+    DeleteDupFiles2Data entry,    // file to be checksummed
+    boolean partial)              // true for partial checksum, false for full
+  {
+    DeleteDupFiles2Hash hash;     // calculates checksum in worker thread
+    ThreadPoolExecutor pool;      // checksum threads for file's device
+    FutureTask result;            // our result (task for checksum)
+    int size;                     // number of checksums now in queue
+
+    hash = new DeleteDupFiles2Hash(entry, partial);
+    pool = getHashPool(entry);    // threads for this device
+    result = new FutureTask(hash);
+    if (localityMode == LOCALITY_NONE) // queue checksums in order found?
+    {
+      pool.execute(result);       // calculate when a thread is free
+      size = pool.getQueue().size(); // for the debug summary
+      if (size > totalHashPeak) totalHashPeak = size;
+    }
+    else                          // sort with other checksums before queued
+    {
+      hash.pool = pool;           // remember where this will be queued
+      hash.task = result;
+      if (localityMode == LOCALITY_INODE) // inode number, if system has one
+        hash.inode = entry.inode; // from file attributes, or -1
+      if (hash.inode < 0)         // path name if no inode, or sort by path
+        hash.path = entry.getPath();
+      hashBatch.add(hash);        // wait in batch until sorted
+      if (hashBatch.size() >= LOCALITY_BATCH) // is this batch full?
+        flushHashes(null);
+    }
+    return(result);
+
+  } // end of queueHash() method
+
+
+/*
+  queueMove() method
+
+  Add a duplicate file to the batch being filled by the action thread, and
+  when the batch is full, give it to the move thread, waiting if the queue is
+  full.  A <null> file sends the current batch, even if it isn't full.  If the
+  move thread has somehow died, then move the batch here.
+*/
+  static void queueMove(DeleteDupFiles2Data entry)
+  {
+    if (entry != null)            // add a file to the current batch?
+    {
+      moveBatch.entries[moveBatch.count ++] = entry;
+      if (moveBatch.count < moveBatch.entries.length) // batch isn't full?
+        return;
+    }
+    try
+    {
+      while (moveQueue.offer(moveBatch, 1, TimeUnit.SECONDS) == false)
+      {
+        if (moveThread.isAlive() == false) // no thread to empty queue?
+        {
+          if (moveBatch.count > 0) // move files in this thread instead
+            moveFiles(moveBatch);
+          break;
+        }
+      }
+    }
+    catch (InterruptedException ie) { /* give up on this batch */ }
+    moveBatch = new DeleteDupFiles2Move(MOVE_BATCH); // start a new batch
+
+  } // end of queueMove() method
+
+
+/*
+  sameContents() method
+
+  Compare an unknown file byte by byte with known files of the same size, and
+  return the earliest known file with the same bytes, or <null> if there is
+  none.  All files are read in lock step, one block at a time, and a known file
+  drops out (and is closed) at its first block that is different.  Reading
+  stops when no known files are left, so a group of files that are all
+  different costs little more than their first blocks.  Only the group that
+  agrees with the unknown file matters for this decision, so known files that
+  disagree are never compared with each other.
+
+  At most <maxOpen> files are open at once, including the unknown file.  More
+  known files are compared in groups, in the order found, and the first group
+  with a match has the earliest known file.  Blocks start small, because most
+  files with the same size are different near the beginning, and grow up to
+  <MAX_BUFFER>.  Only two buffers are needed, since each known file's block is
+  compared as soon as it is read.  A file that can't be read, or that has
+  changed size, is never the same.  This is called only by the search thread,
+  so the same two direct buffers are kept from one call to the next.
+*/
+  static DeleteDupFiles2Data sameContents(
+    DeleteDupFiles2Data entry,    // unknown file
+    DeleteDupFiles2Data[] known,  // known files with the same size, in order
+    int count)                    // number of files in <known>
+  {
+    int alive;                    // known files in group not yet different
+    ByteBuffer buffer1, buffer2;  // blocks from unknown file and known file
+    int bufferSize;               // biggest block for this file size
+    FileChannel[] channels;       // known files in group, <null> if dropped
+    long fileSize;                // size of all files in bytes
+    int first;                    // index in <known> of first file in group
+    int group;                    // number of known files in this group
+    int groupMax;                 // most known files in one group
+    int i;                        // index variable
+    FileInputStream inStream;     // unknown file as input stream
+    long readBytes;               // bytes read from all files
+    DeleteDupFiles2Data result;   // our result (earliest known file with same
+                                  // ... bytes), or <null>
+    int size;                     // bytes in current block
+    long sizeDone;                // how much of <fileSize> has been finished
+    FileChannel unknownChannel;   // unknown file as channel
+
+    fileSize = entry.size;        // all files have the same size
+    if (consoleFlag == false)     // format text fields if running as GUI
+    {
+      statusPending(dialogFileText, entry.name); // caller's file, no path
+      statusPending(dialogPathText, entry.getPath()); // with path
+      statusPending(dialogSameText, known[0].getPath()); // similar file path
+    }
+    bufferSize = (int) Math.max(1, Math.min(MAX_BUFFER, fileSize));
+    if (compareBuffer1 == null)   // first time, allocate biggest buffers
+    {
+      compareBuffer1 = ByteBuffer.allocateDirect(MAX_BUFFER);
+      compareBuffer2 = ByteBuffer.allocateDirect(MAX_BUFFER);
+    }
+    buffer1 = compareBuffer1;     // limit is set for each block
+    buffer2 = compareBuffer2;
+    groupMax = maxOpen - 1;       // one file is always the unknown file
+    channels = new FileChannel[Math.min(count, groupMax)];
+    inStream = null;              // no files open yet
+    readBytes = sizeDone = 0;     // we haven't read anything yet
+    result = null;                // assume unknown file is unique
+    try
+    {
+      inStream = new FileInputStream(entry.getFile());
+      unknownChannel = inStream.getChannel(); // same file, but as a channel
+      if (unknownChannel.size() != fileSize) // changed since it was listed?
+        return(null);
+      for (first = 0; (result == null) && (first < count); first += groupMax)
+      {
+        /* Open the next group of known files.  Files that can't be opened,
+        or that have changed size, are dropped before reading anything. */
+
+        group = Math.min((count - first), groupMax);
+        alive = 0;                // no known files open yet
+        for (i = 0; i < group; i ++)
+        {
+          try
+          {
+            channels[i] = new FileInputStream(known[first + i].getFile())
+              .getChannel();      // closing channel also closes stream
+            if (channels[i].size() == fileSize) // same size as when listed?
+              alive ++;           // one more known file still the same
+            else
+            {
+              channels[i].close();
+              channels[i] = null;
+            }
+          }
+          catch (IOException ioe) { channels[i] = null; } // locked, etc
+        }
+
+        /* Read one block from the unknown file, then the same block from
+        each known file still in the group, comparing as we go. */
+
+        unknownChannel.position(0); // each group starts at the beginning
+        size = Math.min(BUFFER_SIZE, bufferSize); // first block is usual size
+        sizeDone = 0;
+        while ((alive > 0) && (sizeDone < fileSize))
+        {
+          if (cancelFlag) return(null); // stop if user hit the panic button
+          buffer1.clear();        // next block from unknown file
+          buffer1.limit((int) Math.min(size, (fileSize - sizeDone)));
+          while (buffer1.hasRemaining() && (unknownChannel.read(buffer1) > 0))
+            { }
+          if (buffer1.hasRemaining()) // file is shorter than expected
+            return(null);
+          buffer1.flip();         // prepare to compare what was read
+          readBytes += buffer1.limit();
+          for (i = 0; i < group; i ++)
+          {
+            if (channels[i] == null) // already different, or never opened?
+              continue;
+            buffer2.clear();      // same block from this known file
+            buffer2.limit(buffer1.limit());
+            try
+            {
+              while (buffer2.hasRemaining() && (channels[i].read(buffer2) > 0))
+                { }
+            }
+            catch (IOException ioe) { buffer2.limit(0); } // can't compare
+            readBytes += buffer2.position();
+            buffer2.flip();       // prepare to compare what was read
+            if (buffer1.equals(buffer2) == false) // any byte different?
+            {
+              try { channels[i].close(); } catch (IOException ioe) { }
+              channels[i] = null; // this known file drops out now
+              alive --;
+            }
+          }
+          sizeDone += buffer1.limit(); // add to number of bytes finished
+          size = Math.min((size * 2), bufferSize); // bigger blocks from now on
+        }
+
+        /* Known files still open are the same as the unknown file.  The
+        earliest one is first in the group. */
+
+        for (i = 0; i < group; i ++)
+        {
+          if (channels[i] == null) continue;
+          if (result == null)     // earliest known file with same bytes
+            result = known[first + i];
+          try { channels[i].close(); } catch (IOException ioe) { }
+          channels[i] = null;
+        }
+      }
+    }
+    catch (IOException ioe)       // file may be locked, invalid, etc
+    {
+      result = null;              // can't prove that files are the same
+    }
+    finally
+    {
+      totalCmpBytes += readBytes; // total bytes read from all files
+      totalCmpFiles ++;           // total number of files compared directly
+      for (i = 0; i < channels.length; i ++) // if cancelled or failed
+      {
+        try { if (channels[i] != null) channels[i].close(); }
+        catch (IOException ioe) { }
+      }
+      try { if (inStream != null) inStream.close(); }
+      catch (IOException ioe) { }
+      if (debugFlag)              // does user want to see what we're doing?
+        putOutput(entry.getPath() + " - compared with "
+          + prettyPlural(count, "known file") + ", " + ((result != null)
+          ? ("same as " + result.getPath()) : "all different") + ", read "
+          + prettyPlural(readBytes, "byte"));
+    }
+    return(result);               // give caller whatever we could find
+
+  } // end of sameContents() method
+
+
+/*
+  saveCache() method
+
+  Append a new checksum to the cache file.  Path names with line breaks can't
+  be saved.  This method is called by worker threads.
+*/
+  static void saveCache(String filePath, long fileSize, long fileDate,
+    byte[] checksum)
+  {
+    Writer output = cacheWriter;  // may be set to <null> at any time
+
+    if ((output == null) || (filePath.indexOf('\n') >= 0)
+      || (filePath.indexOf('\r') >= 0))
+    {
+      return;                     // no cache file, or can't save this name
+    }
+    synchronized (output)         // one complete line at a time
+    {
+      try
+      {
+        output.write(formatHexBytes(checksum) + " " + fileSize + " "
+          + fileDate + " " + filePath + "\n"); // same format as loadCache()
+      }
+      catch (IOException ioe)     // disk full, file locked, etc
+      {
+        cacheWriter = null;       // stop writing after the first error
+      }
+    }
+  } // end of saveCache() method
+
+
+/*
+  savePlan() method
+
+  Save one decision in the plan file, instead of deleting the duplicate file.
+  Both path names go on the same line, separated by a tab, so names with tabs
+  or line breaks can't be saved.  This is called by the action thread.
+*/
+  static void savePlan(
+    DeleteDupFiles2Data givenEntry, // duplicate file from "unknown" folder
+    DeleteDupFiles2Data sizeEntry) // known file with same size and checksum
+  {
+    String givenPath, samePath;   // path names for both files
+    String names;                 // both path names, for checking characters
+
+    givenPath = givenEntry.getPath();
+    samePath = sizeEntry.getPath();
+    names = givenPath + samePath; // check both names at once
+    if ((names.indexOf('\t') >= 0) || (names.indexOf('\n') >= 0)
+      || (names.indexOf('\r') >= 0)) // can't be saved in plan file
+    {
+      totalPlanSkips ++;          // count as an error in the plan
+      putOutput(givenPath + " - can't save names with tabs or line breaks in"
+        + " plan");
+      return;
+    }
+    try
+    {
+      planWriter.write(sizeEntry.formatChecksum() + " " + givenEntry.size + " "
+        + givenEntry.date + " " + sizeEntry.date + " " + givenPath + "\t"
+        + samePath + "\n");      // same format as doFileApply()
+      totalPlanBytes += givenEntry.size; // total number of bytes in plan
+      totalPlanFiles ++;          // total number of decisions in plan
+      putOutput(givenPath + " - saved in plan");
+    }
+    catch (IOException ioe)       // disk full, file locked, etc
+    {
+      totalPlanSkips ++;
+      putOutput(givenPath + " - can't write plan file: " + ioe.getMessage());
+    }
+  } // end of savePlan() method
+
+
+/*
+  showHelp() method
+
+  Show the help summary.  This is a UNIX standard and is expected for all
+  console applications, even very simple ones.
+*/
+  static void showHelp()
+  {
+    System.err.println();
+    System.err.println(PROGRAM_TITLE);
+    System.err.println();
+    System.err.println("  java  DeleteDupFiles2  [options]  [trusted_folder  unknown_folder]");
+    System.err.println("  java  DeleteDupFiles2  [options]  [unknown_folder]");
+    System.err.println();
+    System.err.println("Options:");
+    System.err.println("  -? = -help = show summary of command-line syntax");
+    System.err.println("  -apply=file = delete duplicates saved in a -plan file, after checking that");
+    System.err.println("      their sizes and dates haven't changed; no checksums are calculated");
+    System.err.println("  -cache=file = save checksums in this file from one run to the next, by");
+    System.err.println("      path name, size, and date; example: -cache=trusted.md5");
+    System.err.println("  -compare = compare bytes instead of checksums when at most 32 known files");
+    System.err.println("      have the same size; each stops at its first difference; -compare=# for");
+    System.err.println("      another number of known files; default is -compare=0 for checksums");
+    System.err.println("  -confirm=name = check matches again with a stronger checksum algorithm, only");
+    System.err.println("      when the first checksums are the same; example: -confirm=sha-256");
+    System.err.println("  -d = show debug information (may be verbose)");
+    System.err.println("  -digest=name = checksum algorithm: md5 (default), sha-1, sha-256, sha-512,");
+    System.err.println("      or fast checksums crc32c, murmur3-64, murmur3-128; example: -digest=crc32c");
+    System.err.println("  -index=file = save a sorted index of the trusted folder in this file, and use");
+    System.err.println("      it instead of scanning the trusted folder when no folder has changed");
+    System.err.println("  -io=stream = read files for checksums with input streams (default);");
+    System.err.println("      -io=channel = file channels and direct buffers; -io=map = also map");
+    System.err.println("      big files into memory");
+    System.err.println("  -j# = number of threads calculating checksums for each device; default is");
+    System.err.println("      one per processor core; example: -j8");
+    System.err.println("  -j#=folder = number of threads only for the device with this folder;");
+    System.err.println("      example: -j1=/mnt/usbdisk");
+    System.err.println("  -jhdd=# = number of threads for each rotating disk, on Linux; example: -jhdd=1");
+    System.err.println("  -join = find sizes in unknown folder first, then keep only trusted files with");
+    System.err.println("      those sizes; saves memory if trusted folder is much bigger than unknown");
+    System.err.println("  -l# = number of threads listing folders ahead of the search, for slow");
+    System.err.println("      network drives; default is -l0 for none; example: -l16");
+    System.err.println("  -link = replace each duplicate file with a hard link to the file that it");
+    System.err.println("      duplicates, instead of deleting; both must be on the same file system");
+    System.err.println("  -locality=inode = sort checksums in batches by inode number before reading,");
+    System.err.println("      for rotating disks; -locality=path = by path name; default is none");
+    System.err.println("  -maxmemory=# = megabytes for trusted files in memory; more are sorted into");
+    System.err.println("      temporary files and merged; default is zero for no limit");
+    System.err.println("  -maxopen=# = most files open at once for -compare; default is -maxopen=64");
+    System.err.println("  -p# = kilobytes from each end of large files for partial checksum;");
+    System.err.println("      default is -p64; zero compares full checksums only");
+    System.err.println("  -plan=file = save each duplicate file in this plan file instead of deleting,");
+    System.err.println("      to be reviewed and later deleted with -apply=file");
+    System.err.println("  -quarantine=folder = move duplicate files into this folder, with the same");
+    System.err.println("      subfolders, instead of deleting; must be on the same file system");
+//  System.err.println("  -h0 = ignore hidden files or folders (default)");
+//  System.err.println("  -h1 = -h = process hidden files and folders");
+//  System.err.println("  -r0 = don't try to delete read-only files (default)");
+//  System.err.println("  -r1 = -r = delete read-only files if permitted by system");
+    System.err.println("  -reindex = always scan the trusted folder and save a new -index file");
+    System.err.println("  -restore=file = move all files listed in a quarantine manifest file back to");
+    System.err.println("      where they were found; example: -restore=dups/" + MANIFEST_NAME);
+    System.err.println("  -s0 = do only given files or folders, no subfolders");
+    System.err.println("  -s1 = -s = process files, folders, and subfolders (default)");
+    System.err.println("  -store=heap = keep trusted files as Java objects (default); -store=direct =");
+    System.err.println("      fixed-size records outside the Java heap; -store=mapped = records in a");
+    System.err.println("      temporary memory-mapped file; for very big trusted folders");
+    System.err.println("  -tree=# = megabytes in smallest file hashed in 64 MB chunks by all processor");
+    System.err.println("      cores; default is zero to hash each file in one piece; example: -tree=1024");
+    System.err.println("  -u# = font size for buttons, dialogs, etc; default is local system;");
+    System.err.println("      example: -u16");
+    System.err.println("  -w(#,#,#,#) = normal window position: left, top, width, height;");
+    System.err.println("      example: -w(50,50,700,500)");
+    System.err.println("  -x = maximize application window; default is normal window");
+    System.err.println("  -z0 = ignore zero-byte empty files (default)");
+    System.err.println("  -z1 = -z = process zero-byte empty files");
+    System.err.println();
+    System.err.println("Output may be redirected with the \">\" operator.  If no file or folder names");
+    System.err.println("are given on the command line, then a graphical interface will open.  PLEASE");
+    System.err.println("READ THE DOCUMENTATION.  Files are deleted permanently, and do not appear in");
+    System.err.println("the recycle bin or trash folder.  THERE IS NO PROMPTING WHEN RUN IN COMMAND");
+    System.err.println("MODE.  If in doubt, use the -d (debug) option to disable real file deletion,");
+    System.err.println("or mark files as read-only.");
+    System.err.println();
+    System.err.println(COPYRIGHT_NOTICE);
+//  System.err.println();
+
+  } // end of showHelp() method
+
+
+/*
+  sortFileList() method
+
+  When we ask for a list of files or subfolders in a directory, the list is not
+  likely to be in our preferred order.  Java does not guarantee any particular
+  order, and the observed order is whatever is supplied by the underlying file
+  system (which can be very jumbled for FAT16/FAT32).  We would like the file
+  names to be sorted, and since we recurse on subfolders, we also want the
+  subfolders to appear in order.
+
+  The caller's parameter may be <null>, which we replace with an empty array as
+  our result.  Folders are known from the file attributes in each data object,
+  so sorting doesn't ask the system about each file again.
+*/
+  static DeleteDupFiles2Data[] sortFileList(DeleteDupFiles2Data[] input)
+  {
+    String fileName;              // file name without the path
+    int i;                        // index variable
+    TreeMap list;                 // our list of files
+    DeleteDupFiles2Data[] result; // our result
+    StringBuffer sortKey;         // created sorting key for each file
+
+    if (input == null)            // were we given a null pointer?
+      result = new DeleteDupFiles2Data[0]; // yes, replace with an empty array
+    else if (input.length < 2)    // don't sort lists with zero or one element
+      result = input;             // just copy input array as result array
+    else
+    {
+      /* First, create a sorted list with our choice of index keys and the File
+      objects as data.  Names are sorted as files or folders, then in lowercase
+      to ignore differences in uppercase versus lowercase, then in the original
+      form for systems where case is distinct. */
+
+      list = new TreeMap();       // create empty sorted list with keys
+      sortKey = new StringBuffer(); // allocate empty string buffer for keys
+      for (i = 0; i < input.length; i ++)
+      {
+        sortKey.setLength(0);     // empty any previous contents of buffer
+        if (input[i].folder)      // is this "file" actually a folder?
+          sortKey.append("2 ");   // yes, put subfolders after files
+        else                      // must be a file or an unknown object
+          sortKey.append("1 ");   // put files before subfolders
+
+        fileName = input[i].name; // get file name without the path
+        sortKey.append(fileName.toLowerCase()); // start by ignoring case
+        sortKey.append(" ");      // separate lowercase from original case
+        sortKey.append(fileName); // then sort file name on original case
+        list.put(sortKey.toString(), input[i]); // put file into sorted list
+      }
+
+      /* Second, now that the TreeMap object has done all the hard work of
+      sorting, pull the data objects from the list in order as determined by
+      the sort keys that we created. */
+
+      result = (DeleteDupFiles2Data[]) list.values().toArray(
+        new DeleteDupFiles2Data[0]);
+    }
+    return(result);               // give caller whatever we could find
+
+  } // end of sortFileList() method
+
+
+/*
+  spillTrusted() method
+
+  The trusted files in memory have reached the memory limit.  Write them to a
+  new sorted run file, and empty the size buckets for more trusted files.  If
+  the run file can't be written, then stop, because a search without all of
+  the trusted files would find fewer duplicates than the user expects.
+*/
+  static void spillTrusted(DeleteDupFiles2SizeIndex sizeList)
+  {
+    try
+    {
+      spillRuns.add(DeleteDupFiles2Run.spill(sizeList, spillRuns.size()));
+      if (debugFlag)              // does user want to see what we're doing?
+        putOutput("Moved trusted files to sorted run file number "
+          + spillRuns.size());
+    }
+    catch (IOException ioe)       // disk full, no temporary folder, etc
+    {
+      putOutput("Can't write sorted run file: " + ioe.getMessage());
+      cancelFlag = true;          // better to stop than miss trusted files
+    }
+    sizeList.clear();             // start again with empty size buckets
+    trustedBytes = 0;
+
+  } // end of spillTrusted() method
+
+
+/*
+  startChecksum() method
+
+  Queue a checksum calculation for a worker thread, unless the checksum is
+  already known or has already been started.  The result is collected later
+  by waitChecksum() in the same thread that called us.
+*/
+  static void startChecksum(DeleteDupFiles2Data entry)
+  {
+    if ((devicePools != null)
+      && (entry.sumLength == DeleteDupFiles2Data.MISSING)
+      && (entry.pending == null))
+    {
+      entry.pending = queueHash(entry, false); // full checksum
+    }
+  }
+
+
+/*
+  startPartial() method
+
+  Queue a partial checksum calculation for a worker thread, unless the partial
+  checksum is already known or has already been started.  The result is
+  collected later by waitPartial() in the same thread that called us.
+*/
+  static void startPartial(DeleteDupFiles2Data entry)
+  {
+    if ((devicePools != null)
+      && (entry.partLength == DeleteDupFiles2Data.MISSING)
+      && (entry.partPending == null))
+    {
+      entry.partPending = queueHash(entry, true); // partial, not full
+    }
+  }
+
+
+/*
+  statusClear() method
+
+  Clear any pending status messages by setting their mapped values to <null>.
+  It is more efficient to use null and non-null values than to delete then
+  insert mappings into this list.
+*/
+  static void statusClear()
+  {
+    if (consoleFlag == false)     // only if running as GUI
+    {
+      synchronized (statusMap)    // checksum threads may also change mapping
+      {
+        Object[] list = statusMap.keySet().toArray(); // objects as keys
+        for (int i = 0; i < list.length; i ++)
+        {
+          statusMap.put(list[i], null); // null value means nothing pending
+        }
+      }
+    }
+  }
+
+
+/*
+  statusFlush() method
+
+  Force pending status messages to be displayed in their GUI dialogs.  It is
+  neither necessary nor desirable for this method to know the purpose of the
+  text areas.
+*/
+  static void statusFlush()
+  {
+    String text;                  // constructed or mapped text string
+
+    if (consoleFlag == false)     // only if running as GUI
+    {
+      /* For each object that maps to a non-null string, compare the string
+      with the current text, and if the new string is different, then change
+      the text for the object. */
+
+      synchronized (statusMap)    // checksum threads may also change mapping
+      {
+        Object[] list = statusMap.keySet().toArray(); // objects as keys
+        for (int i = 0; i < list.length; i ++)
+        {
+          javax.swing.text.JTextComponent field // text area as mapping index
+            = (javax.swing.text.JTextComponent) list[i];
+          text = (String) statusMap.get(field); // mapped string value or null
+          if (text != null)       // is there a real string as a value?
+          {
+            String old = field.getText(); // get current value in GUI display
+            if (old.equals(text) == false) // has the dialog text changed?
+            {
+              field.setText(text); // yes, show the new text in GUI display
+            }
+            statusMap.put(field, null); // null value means nothing pending
+          }
+        }
+      }
+
+      /* This program keeps counters for files and sizes.  Most are not of
+      immediate interest to the user.  We show a summary in a special status
+      field that only gets updated on timer intervals.  Otherwise, we would
+      waste too much time formatting numbers that change very quickly. */
+
+      if (totalUnkFiles > 0)      // have we found any files yet?
+        text = "deleted: " + formatComma.format(totalDelFiles)
+          + "    duplicates: " + formatComma.format(totalDupFiles)
+          + "    files: " + formatComma.format(totalUnkFiles)
+          + "    folders: " + formatComma.format(totalUnkFolders);
+      else                        // no files, so nothing to display
+        text = EMPTY_STATUS;
+      if (countDialog.getText().equals(text) == false) // has text changed?
+        countDialog.setText(text); // yes, replace text with new string
+    }
+  } // end of statusFlush() method
+
+
+/*
+  statusPending() method
+
+  The caller gives a string that will be displayed in a JTextArea or JTextField
+  after the next update of the status timer.  A string value of <null> means to
+  do nothing, which is different than displaying the string <EMPTY_STATUS>.
+*/
+  static void statusPending(javax.swing.text.JTextComponent field, String text)
+  {
+    if (consoleFlag == false)     // only if running as GUI
+    {
+      synchronized (statusMap)    // called by checksum threads and others
+      {
+        statusMap.put(field, text); // any object, any value acceptable here
+      }
+    }
+  }
+
+
+/*
+  usePartial() method
+
+  Return <true> if files of a given size are big enough that partial checksums
+  should be compared before full checksums.  When the file is not at least
+  four times the amount read for a partial checksum, we might as well read the
+  whole file.
+*/
+  static boolean usePartial(long fileSize)
+  {
+    return((partialSize > 0) && (fileSize > (4L * partialSize)));
+  }
+
+
+/*
+  userButton() method
+
+  This method is called by our action listener actionPerformed() to process
+  buttons, in the context of the main DeleteDupFiles2 class.
+*/
+  static void userButton(ActionEvent event)
+  {
+    Object source = event.getSource(); // where the event came from
+    if (source == cancelButton)   // "Cancel" button
+    {
+      doCancelButton();           // stop opening files or folders
+    }
+    else if (source == debugCheckbox) // show debug information
+    {
+      debugFlag = debugCheckbox.isSelected();
+    }
+    else if (source == dialogAllCheckbox) // apply same reply to all files
+    {
+      dialogAllFlag = dialogAllCheckbox.isSelected();
+    }
+    else if (source == dialogDeleteButton) // "Yes, Delete File" button
+    {
+      dialogHasReply = true;      // user has answered the inner dialog box
+      dialogYesDelete = true;     // and the answer is: delete the file
+      dialogRelease();            // release wait on inner dialog box
+    }
+    else if (source == dialogIgnoreButton) // "Do Not Delete" button
+    {
+      dialogHasReply = true;      // user has answered the inner dialog box
+      dialogYesDelete = false;    // and the answer is: don't delete file
+      dialogRelease();            // release wait on inner dialog box
+    }
+    else if (source == exitButton) // "Exit" button
+    {
+      System.exit(0);             // always exit with zero status from GUI
+    }
+    else if (source == fontNameDialog) // font name for output text area
+    {
+      /* We can safely assume that the font name is valid, because we obtained
+      the names from getAvailableFontFamilyNames(), and the user can't edit
+      this dialog field. */
+
+      fontName = (String) fontNameDialog.getSelectedItem();
+      outputText.setFont(new Font(fontName, Font.PLAIN, fontSize));
+    }
+    else if (source == fontSizeDialog) // point size for output text area
+    {
+      /* We can safely parse the point size as an integer, because we supply
+      the only choices allowed, and the user can't edit this dialog field. */
+
+      fontSize = Integer.parseInt((String) fontSizeDialog.getSelectedItem());
+      outputText.setFont(new Font(fontName, Font.PLAIN, fontSize));
+    }
+    else if (source == licenseButton) // "Show License" button
+    {
+      JTextArea text = new JTextArea(16, 48); // where to put license text
+      text.setEditable(false);    // user can't change this text area
+      text.setFont(new Font(SYSTEM_FONT, Font.PLAIN, 18)); // preformatted
+      text.setLineWrap(false);    // don't wrap text lines
+      text.setOpaque(false);      // transparent background, not white
+      try { text.read(new FileReader(LICENSE_FILE), null); } // load text
+      catch (IOException ioe)     // includes FileNotFoundException
+      {
+        JOptionPane.showMessageDialog(mainFrame,
+          ("Sorry, can't read from text file:\n" + LICENSE_FILE));
+        return;                   // do nothing and ignore License button
+      }
+      JScrollPane scroll = new JScrollPane(text); // will need scroll bars
+      scroll.setBorder(BorderFactory.createEmptyBorder()); // but no borders
+      JOptionPane.showMessageDialog(mainFrame, scroll,
+        "GNU General Public License (GPL)", JOptionPane.PLAIN_MESSAGE);
+    }
+    else if (source == recurseCheckbox) // recursion for folders, subfolders
+    {
+      recurseFlag = recurseCheckbox.isSelected();
+    }
+    else if (source == saveButton) // "Save Output" button
+    {
+      doSaveButton();             // write output text area to a file
+    }
+    else if (source == scrollCheckbox) // scroll calls to <putOutput>
+    {
+      scrollFlag = scrollCheckbox.isSelected();
+    }
+    else if (source == startButton) // "Start" button
+    {
+      doStartButton();            // start opening files or folders
+    }
+    else if (source == statusTimer) // update timer for status message text
+    {
+      statusFlush();              // force display of pending status messages
+    }
+    else if (source == trustedButton) // "Trusted Folder" button
+    {
+      doTrustedButton();          // select "trusted" file or folder
+    }
+    else if (source == trustedDialog) // Enter key pressed in text area
+    {
+      unknownDialog.requestFocusInWindow(); // makes manual data entry easier
+    }
+    else if (source == unknownButton) // "Unknown Folder" button
+    {
+      doUnknownButton();          // select "unknown" file or folder
+    }
+    else if (source == unknownDialog) // Enter key pressed in text area
+    {
+      startButton.requestFocusInWindow(); // shift focus to Start button
+    }
+    else if (source == zeroCheckbox) // process zero-byte empty files
+    {
+      zeroFlag = zeroCheckbox.isSelected();
+    }
+    else                          // fault in program logic, not by user
+    {
+      System.err.println("Error in userButton(): unknown ActionEvent: "
+        + event);                 // should never happen, so write on console
+    }
+  } // end of userButton() method
+
+
+/*
+  waitChecksum() method
+
+  Collect the checksum for a data object, waiting for a worker thread if the
+  calculation was started by startChecksum(), or calculating the checksum now
+  if nothing was started.  Debug output is written here, and not by the worker
+  threads, so that the report is in the same order for any number of threads.
+  A checksum that can't be calculated is marked as failed in the data object,
+  and never matches any other checksum.
+*/
+  static void waitChecksum(DeleteDupFiles2Data entry)
+  {
+    byte[] raw;                   // checksum as raw bytes, or <null>
+
+    if (entry.sumLength != DeleteDupFiles2Data.MISSING) // already done?
+      return;
+
+    if (entry.pending == null)    // was this checksum started early?
+      raw = calculateChecksum(entry); // no, calculate it now
+    else
+    {
+      flushHashes(entry.pending); // may still be waiting to be sorted
+      if (entry.pending.isDone() == false) // will we wait for worker thread?
+        totalHashWaits ++;        // count time lost waiting for checksums
+      try { raw = (byte[]) entry.pending.get(); } // wait for thread
+      catch (ExecutionException ee) { raw = null; } // worker thread failed
+      catch (InterruptedException ie) { raw = null; } // interrupted waiting
+      entry.pending = null;       // release finished task
+    }
+    entry.setChecksum(raw);       // keep binary checksum, not hex string
+
+    if (debugFlag)                // does user want to see what we're doing?
+      putOutput(entry.getPath() + " size "
+        + formatComma.format(entry.size) + " checksum "
+        + entry.formatChecksum());
+
+  } // end of waitChecksum() method
+
+
+/*
+  waitPartial() method
+
+  Collect the partial checksum for a data object, waiting for a worker thread
+  if the calculation was started by startPartial(), or calculating the partial
+  checksum now if nothing was started.  Same rules as waitChecksum().
+*/
+  static void waitPartial(DeleteDupFiles2Data entry)
+  {
+    byte[] raw;                   // partial checksum as raw bytes, or <null>
+
+    if (entry.partLength != DeleteDupFiles2Data.MISSING) // already done?
+      return;
+
+    if (entry.partPending == null) // was this partial checksum started early?
+      raw = calculatePartial(entry); // no, calculate it now
+    else
+    {
+      flushHashes(entry.partPending); // may still be waiting to be sorted
+      if (entry.partPending.isDone() == false) // will we wait for thread?
+        totalHashWaits ++;        // count time lost waiting for checksums
+      try { raw = (byte[]) entry.partPending.get(); } // wait for thread
+      catch (ExecutionException ee) { raw = null; } // worker thread failed
+      catch (InterruptedException ie) { raw = null; } // interrupted waiting
+      entry.partPending = null;   // release finished task
+    }
+    entry.setPartial(raw);        // keep only the first 64 bits
+
+    if (debugFlag)                // does user want to see what we're doing?
+      putOutput(entry.getPath() + " size "
+        + formatComma.format(entry.size) + " partial "
+        + entry.formatPartial());
+
+  } // end of waitPartial() method
+
+} // end of DeleteDupFiles2 class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  DeleteDupFiles2Action class
+
+  One output line or one deletion, queued by the search for the action thread,
+  which is also created by this class.  An action with nothing in it marks the
+  end of the queue.
+*/
+
+class DeleteDupFiles2Action implements Runnable
+{
+  /* class variables */
+
+  DeleteDupFiles2Data entry;      // duplicate file to delete, or <null>
+  DeleteDupFiles2Data same;       // known file with same size and checksum
+  boolean scroll;                 // true if output text area should scroll
+  String text;                    // line of output text, or <null>
+
+  /* empty constructor (for the action thread) */
+
+  public DeleteDupFiles2Action() { }
+
+  /* constructor (two arguments, for deletions) */
+
+  public DeleteDupFiles2Action(DeleteDupFiles2Data givenEntry,
+    DeleteDupFiles2Data sameEntry)
+  {
+    this.entry = givenEntry;      // unknown file that is a duplicate
+    this.same = sameEntry;        // known file that it duplicates
+  }
+
+  /* constructor (two arguments, for output lines) */
+
+  public DeleteDupFiles2Action(String givenText, boolean givenScroll)
+  {
+    this.scroll = givenScroll;
+    this.text = givenText;        // <null> marks end of queue
+  }
+
+  /* separate thread for output and deletions */
+
+  public void run()
+  {
+    DeleteDupFiles2.doActionRunner();
+  }
+
+} // end of DeleteDupFiles2Action class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  DeleteDupFiles2Bucket class
+
+  All files with the same size go into one bucket.  Files start in a list with
+  no checksums, in the order found.  Once there is something to compare them
+  to, findDuplicate() calculates checksums and moves them to an index by full
+  checksum, or for large files, first to an index by partial checksum.  The
+  index by full checksum keeps the earliest file for each checksum, which is
+  the same file that a linear search in the original order would find.
+
+  The index by full checksum is a simple hash table with open addressing, on
+  the binary checksums in the data objects, so that no key objects or strings
+  are created for each file.  Files whose checksums failed are never indexed.
+
+  Files with the same file key (device and inode) are the same physical file
+  under different names.  The first time that an unknown file with a file key
+  is compared, all files in the bucket are also indexed by file key, and only
+  the earliest name for each physical file is kept for checksums.
+*/
+
+class DeleteDupFiles2Bucket
+{
+  /* class variables */
+
+  int fullCount;                  // number of data objects in <fullTable>
+  DeleteDupFiles2Data[] fullTable; // full checksums to earliest data object
+  DeleteDupFiles2Index index;     // trusted index with checksums, or <null>
+  int indexCount;                 // number of records with checksums in index
+  int indexFirst;                 // first record with checksum for this size
+  HashMap keyMap;                 // file keys to earliest data object, or <null>
+  int nextOrder;                  // order number for next data object
+  HashMap partMap;                // partial checksums to vectors of objects
+                                  // ... without full checksums (may be empty)
+  HashSet staleRecords;           // index records for changed files, or <null>
+  DeleteDupFiles2Data[] unhashed; // data objects without any checksums
+  int unhashedCount;              // number of data objects in <unhashed>
+
+  /* empty constructor */
+
+  public DeleteDupFiles2Bucket()
+  {
+    this.fullCount = 0;           // indexes are created only when needed
+    this.fullTable = null;
+    this.index = null;            // set by trusted index file, if any
+    this.indexCount = this.indexFirst = 0;
+    this.keyMap = null;           // file keys are indexed only when needed
+    this.nextOrder = 0;           // no data objects added yet
+    this.partMap = null;
+    this.staleRecords = null;     // all index records are current
+    this.unhashed = null;         // most sizes have only one file
+    this.unhashedCount = 0;
+  }
+
+  /* add a new data object without any checksums */
+
+  void add(DeleteDupFiles2Data entry)
+  {
+    if (entry.order < 0)          // new file, not from trusted index file
+      entry.order = this.nextOrder ++; // remember order in which files found
+    else if (entry.order >= this.nextOrder) // keep order from index file
+      this.nextOrder = entry.order + 1;
+    if (this.keyMap != null)      // are file keys already indexed?
+      putKey(entry);
+    if (this.unhashed == null)    // first file in this bucket?
+      this.unhashed = new DeleteDupFiles2Data[1];
+    else if (this.unhashedCount == this.unhashed.length) // array is full?
+    {
+      DeleteDupFiles2Data[] old = this.unhashed; // double the array size
+      this.unhashed = new DeleteDupFiles2Data[old.length * 2];
+      System.arraycopy(old, 0, this.unhashed, 0, this.unhashedCount);
+    }
+    this.unhashed[this.unhashedCount ++] = entry; // append to end of list
+  }
+
+  /* add a data object to the index by full checksum */
+
+  void addFull(DeleteDupFiles2Data entry)
+  {
+    DeleteDupFiles2.waitChecksum(entry); // may wait for worker thread
+    if (entry.order < 0)          // new unknown file, not from <unhashed>
+      entry.order = this.nextOrder ++;
+    if (this.keyMap != null)      // are file keys already indexed?
+      putKey(entry);
+    if (entry.sumLength == DeleteDupFiles2Data.FAILED) // nothing to index?
+      return;
+    if (this.fullTable == null)   // create index if this is the first
+      this.fullTable = new DeleteDupFiles2Data[8];
+    else if ((this.fullCount + 1) * 4 > this.fullTable.length * 3)
+      growFull();                 // keep table no more than 3/4 full
+    int slot = findFull(entry);
+    DeleteDupFiles2Data old = this.fullTable[slot];
+    if (old == null)              // first file with this checksum?
+    {
+      this.fullTable[slot] = entry;
+      this.fullCount ++;
+    }
+    else if (old.order > entry.order) // keep earliest file
+      this.fullTable[slot] = entry;
+  }
+
+  /* add a data object to the index by partial checksum */
+
+  void addPart(DeleteDupFiles2Data entry)
+  {
+    DeleteDupFiles2.waitPartial(entry); // may wait for worker thread
+    if (entry.partLength == DeleteDupFiles2Data.FAILED) // can't index?
+    {
+      addFull(entry);             // then compare full checksum only
+      return;
+    }
+    if (this.partMap == null)     // create index if this is the first
+      this.partMap = new HashMap();
+    if (entry.order < 0)          // new unknown file, not from <unhashed>
+      entry.order = this.nextOrder ++;
+    if (this.keyMap != null)      // are file keys already indexed?
+      putKey(entry);
+    Long checksum = Long.valueOf(entry.part);
+    Vector list = (Vector) this.partMap.get(checksum);
+    if (list == null)             // first file with this partial checksum?
+    {
+      list = new Vector();        // yes, create an empty list
+      this.partMap.put(checksum, list);
+    }
+    list.add(entry);              // in order found, for each partial checksum
+  }
+
+  /* release data objects without checksums, after they have been indexed */
+
+  void clearUnhashed()
+  {
+    this.unhashed = null;         // let garbage collector have the array
+    this.unhashedCount = 0;
+  }
+
+  /* return table slot with the same checksum, or the empty slot for it */
+
+  int findFull(DeleteDupFiles2Data entry)
+  {
+    int mask = this.fullTable.length - 1; // table size is a power of two
+    int slot = entry.hashChecksum() & mask;
+    while ((this.fullTable[slot] != null)
+      && (this.fullTable[slot].sameChecksum(entry) == false))
+    {
+      slot = (slot + 1) & mask;   // linear probing to next slot
+    }
+    return(slot);
+  }
+
+  /* return earliest data object with the same full checksum, or <null>; the
+  trusted index file is searched by checksum, and only a match is loaded */
+
+  DeleteDupFiles2Data getFull(DeleteDupFiles2Data entry)
+  {
+    if (entry.sumLength == DeleteDupFiles2Data.FAILED) // nothing to compare?
+      return(null);
+    DeleteDupFiles2Data result = (this.fullTable == null) ? null
+      : this.fullTable[findFull(entry)]; // no index means nothing found
+    if (this.index != null)       // also look in trusted index file?
+    {
+      int record = this.index.findChecksum(this.indexFirst, this.indexCount,
+        entry, this.staleRecords); // skip files changed since index saved
+      if ((record >= 0) && ((result == null)
+        || (this.index.getOrder(record) < result.order))) // keep earliest
+      {
+        result = this.index.getEntry(record);
+      }
+    }
+    return(result);
+  }
+
+  /* return <true> if this bucket has at least one and at most <limit> data
+  objects, none with any checksum, and nothing has been indexed */
+
+  boolean canCompare(int limit)
+  {
+    if ((this.unhashedCount == 0) || (this.unhashedCount > limit)
+      || (this.fullCount > 0) || (this.index != null) || (this.partMap != null))
+    {
+      return(false);              // nothing, too many, or already indexed
+    }
+    for (int i = 0; i < this.unhashedCount; i ++)
+    {
+      if ((this.unhashed[i].pending != null) // full checksum started?
+        || (this.unhashed[i].sumLength != DeleteDupFiles2Data.MISSING))
+      {
+        return(false);            // then compare checksums as usual
+      }
+    }
+    return(true);
+  }
+
+  /* return earliest data object with the same file key (device and inode), or
+  <null>; file keys are indexed the first time that they are needed, and then
+  later files with the same key as an earlier file are dropped from the
+  unhashed list, because they can never be the earliest match */
+
+  DeleteDupFiles2Data getKey(DeleteDupFiles2Data entry)
+  {
+    if (entry.inode < 0)          // file system has no inode numbers?
+      return(null);
+    if (this.keyMap == null)      // first time, index all data objects
+    {
+      this.keyMap = new HashMap();
+      if (this.fullTable != null)
+        for (int i = 0; i < this.fullTable.length; i ++)
+          if (this.fullTable[i] != null)
+            putKey(this.fullTable[i]);
+      if (this.partMap != null)
+      {
+        Iterator lists = this.partMap.values().iterator();
+        while (lists.hasNext())
+        {
+          Vector list = (Vector) lists.next();
+          for (int i = 0; i < list.size(); i ++)
+            putKey((DeleteDupFiles2Data) list.get(i));
+        }
+      }
+      for (int i = 0; i < this.unhashedCount; i ++)
+        putKey(this.unhashed[i]);
+      int kept = 0;               // keep only earliest file for each key
+      for (int i = 0; i < this.unhashedCount; i ++)
+        if ((this.unhashed[i].inode < 0)
+          || (this.keyMap.get(this.unhashed[i].getKey()) == this.unhashed[i]))
+        {
+          this.unhashed[kept ++] = this.unhashed[i];
+        }
+      for (int i = kept; i < this.unhashedCount; i ++)
+        this.unhashed[i] = null;  // release dropped data objects
+      this.unhashedCount = kept;
+    }
+    return((DeleteDupFiles2Data) this.keyMap.get(entry.getKey()));
+  }
+
+  /* return vector of data objects with the same partial checksum, or <null> */
+
+  Vector getPart(DeleteDupFiles2Data entry)
+  {
+    if ((this.partMap == null)    // no index means nothing found
+      || (entry.partLength == DeleteDupFiles2Data.FAILED))
+    {
+      return(null);
+    }
+    return((Vector) this.partMap.get(Long.valueOf(entry.part)));
+  }
+
+  /* double the size of the index by full checksum */
+
+  void growFull()
+  {
+    DeleteDupFiles2Data[] old = this.fullTable;
+    this.fullTable = new DeleteDupFiles2Data[old.length * 2];
+    for (int i = 0; i < old.length; i ++)
+      if (old[i] != null)
+        this.fullTable[findFull(old[i])] = old[i];
+  }
+
+  /* return <true> if no data objects have been added */
+
+  boolean isEmpty()
+  {
+    return(this.nextOrder == 0);
+  }
+
+  /* remember data object by file key, if it is the earliest with that key */
+
+  void putKey(DeleteDupFiles2Data entry)
+  {
+    if (entry.inode < 0)          // file system has no inode numbers?
+      return;
+    Object key = entry.getKey();  // created only while indexing keys
+    DeleteDupFiles2Data old = (DeleteDupFiles2Data) this.keyMap.get(key);
+    if ((old == null) || (old.order > entry.order)) // keep earliest file
+      this.keyMap.put(key, entry);
+  }
+
+} // end of DeleteDupFiles2Bucket class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  DeleteDupFiles2Cache class
+
+  One checksum loaded from a cache file, with the file size and date that were
+  current when the checksum was calculated.  The path name is the mapping key.
+*/
+
+class DeleteDupFiles2Cache
+{
+  /* class variables */
+
+  long date;                      // last modified date of file
+  byte[] md5;                     // MD5 checksum as raw bytes
+  long size;                      // size of file in bytes
+
+  /* constructor (three arguments) */
+
+  public DeleteDupFiles2Cache(byte[] givenMd5, long givenSize, long givenDate)
+  {
+    this.date = givenDate;
+    this.md5 = givenMd5;
+    this.size = givenSize;
+  }
+
+} // end of DeleteDupFiles2Cache class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  DeleteDupFiles2Data class
+
+  To avoid recalculating checksums, we pair file names with their MD5
+  checksums and use these data objects in our lists sorted by file size.  The
+  file attributes are read once, when the folder is listed, and are used for
+  everything after that, instead of asking the system again for each file.
+
+  Checksums are kept as primitive long integers, not as hexadecimal strings, so
+  that comparing them is cheap and there is no extra object for each file.  Up
+  to 256 bits (32 bytes) of the full checksum are kept, which is all of MD5,
+  SHA-1, or SHA-256, and most of SHA-512.  The partial checksum keeps only the
+  first 64 bits, because it is only a filter, and equal partial checksums must
+  still be confirmed with full checksums.
+
+  Path names are not kept for each file.  Each data object has only its own
+  name and a reference to its parent folder's data object, which is shared by
+  everything in the folder.  The full path name and a Java File object are put
+  together only when a file is hashed, reported, or deleted.
+*/
+
+class DeleteDupFiles2Data
+{
+  /* constants */
+
+  static final byte FAILED = -1;  // checksum could not be calculated
+  static final int MAX_BYTES = 32; // most checksum bytes kept (four longs)
+  static final byte MISSING = 0;  // checksum has not been calculated yet
+
+  /* class variables */
+
+  DeleteDupFiles2Data[] contents; // folder contents already listed, or <null>
+  long date;                      // last modified date, from file attributes
+  long device;                    // device number from UNIX file attributes
+  boolean folder;                 // true if folder, false if regular file
+  boolean hidden;                 // true if hidden file or folder
+  boolean indexed;                // true if checksum is from trusted index
+  long inode;                     // inode number from UNIX attributes, or -1
+  DeleteDupFiles2Walk listing;    // folder contents listed by worker thread
+  String name;                    // file name, or full path name if no parent
+  int order;                      // order in which files of same size found
+  DeleteDupFiles2Data parent;     // folder with this file or folder, or <null>
+  long part;                      // partial checksum (both ends), first 64 bits
+  byte partLength;                // bytes in <part>, or MISSING or FAILED
+  FutureTask partPending;         // partial checksum started by worker thread
+  FutureTask pending;             // checksum started by worker thread or <null>
+  Boolean readOnly;               // true if read-only, or <null> if not known
+  long size;                      // size of file in bytes, from attributes
+  long sum0, sum1, sum2, sum3;    // full checksum as big-endian long integers
+  byte sumLength;                 // bytes in <sum0> to <sum3>, MISSING, FAILED
+  boolean trusted;                // true if file is from trusted folder
+
+  /* constructor (two arguments) */
+
+  public DeleteDupFiles2Data(DeleteDupFiles2Data givenParent, String givenName)
+  {
+    this.contents = null;         // folders are listed when needed
+    this.date = 0;                // attributes are set by getFileData()
+    this.device = 0;
+    this.folder = false;
+    this.hidden = false;
+    this.indexed = false;         // set only by trusted index file
+    this.inode = -1;              // not all file systems have inode numbers
+    this.listing = null;          // no worker thread has been started
+    this.name = givenName;        // caller must provide name at creation
+    this.order = -1;              // order will be set when added to a bucket
+    this.parent = givenParent;
+    this.part = 0;                // partial checksum will be added later
+    this.partLength = MISSING;
+    this.partPending = null;      // no partial checksum has been started
+    this.pending = null;          // no checksum has been started
+    this.readOnly = null;         // checked later, if not in file attributes
+    this.size = 0;
+    this.sum0 = this.sum1 = this.sum2 = this.sum3 = 0; // same for checksum
+    this.sumLength = MISSING;
+    this.trusted = false;         // set when added from trusted folder
+  }
+
+  /* format full checksum as hexadecimal, or "unknown" if it failed */
+
+  String formatChecksum()
+  {
+    if (this.sumLength <= 0)      // missing or failed checksum
+      return("unknown");
+    byte[] raw = new byte[this.sumLength];
+    unpackLong(this.sum0, raw, 0);
+    unpackLong(this.sum1, raw, 8);
+    unpackLong(this.sum2, raw, 16);
+    unpackLong(this.sum3, raw, 24);
+    return(DeleteDupFiles2.formatHexBytes(raw));
+  }
+
+  /* format partial checksum as hexadecimal, or "unknown" if it failed */
+
+  String formatPartial()
+  {
+    if (this.partLength <= 0)     // missing or failed partial checksum
+      return("unknown");
+    byte[] raw = new byte[this.partLength];
+    unpackLong(this.part, raw, 0);
+    return(DeleteDupFiles2.formatHexBytes(raw));
+  }
+
+  /* return sorted folder contents, waiting for a worker thread if the listing
+  was started early, or listing the folder now if not */
+
+  DeleteDupFiles2Data[] getContents()
+  {
+    DeleteDupFiles2Data[] result = this.contents;
+    if (result != null)           // was this folder already listed?
+    {
+      this.contents = null;       // release listing once it has been used
+      return(result);
+    }
+    DeleteDupFiles2Walk task = this.listing;
+    this.listing = null;          // release listing once it has been used
+    if (task == null)             // was this folder listed early?
+      return(DeleteDupFiles2.listFolder(this)); // no, list it now
+    if (task.started == false)    // too far ahead to be given to a thread?
+      return((DeleteDupFiles2Data[]) task.compute()); // list it now, and
+                                  // ... start subfolders in worker threads
+    if (task.isDone() == false)   // will we wait for worker thread?
+      DeleteDupFiles2.totalWalkWaits ++; // count time lost waiting
+    result = (DeleteDupFiles2Data[]) task.join(); // wait for worker thread
+    DeleteDupFiles2.walkAhead.decrementAndGet(); // search has caught up
+    for (int i = 0; i < result.length; i ++) // search goes here next, so
+      if (result[i].listing != null) // ... start subfolders held back
+        result[i].listing.start();
+    return(result);
+  }
+
+  /* return a new Java File object, only when one is needed */
+
+  File getFile()
+  {
+    return(new File(getPath()));
+  }
+
+  /* return device and inode as a key for a hash table, or <null>; keys are
+  created only when needed, not kept for every file */
+
+  Object getKey()
+  {
+    if (this.inode < 0)           // file system has no inode numbers?
+      return(null);
+    return(Arrays.asList(Long.valueOf(this.device),
+      Long.valueOf(this.inode)));
+  }
+
+  /* put together the full path name from the names of parent folders */
+
+  String getPath()
+  {
+    if (this.parent == null)      // top level has full path name
+      return(this.name);
+    String folderPath = this.parent.getPath();
+    if (folderPath.endsWith(File.separator)) // root folder ends with separator
+      return(folderPath + this.name);
+    return(folderPath + File.separator + this.name);
+  }
+
+  /* hash code for full checksum; checksums are already well mixed */
+
+  int hashChecksum()
+  {
+    return((int) (this.sum0 ^ (this.sum0 >>> 32)));
+  }
+
+  /* return <true> if file is read-only, asking the system only once, and only
+  if the file attributes didn't say */
+
+  boolean isReadOnly()
+  {
+    if (this.readOnly == null)    // not known from file attributes?
+      this.readOnly = getFile().canWrite() ? Boolean.FALSE : Boolean.TRUE;
+    return(this.readOnly.booleanValue());
+  }
+
+  /* convert eight bytes, starting at an index, to a long integer; bytes past
+  the end of the array are zero */
+
+  static long packLong(byte[] raw, int start)
+  {
+    long result = 0;
+    for (int i = start; i < (start + 8); i ++)
+      result = (result << 8) | ((i < raw.length) ? (raw[i] & 0xFF) : 0);
+    return(result);
+  }
+
+  /* return <true> if both data objects have the same good full checksum */
+
+  boolean sameChecksum(DeleteDupFiles2Data other)
+  {
+    return((this.sumLength > 0) && (this.sumLength == other.sumLength)
+      && (this.sum0 == other.sum0) && (this.sum1 == other.sum1)
+      && (this.sum2 == other.sum2) && (this.sum3 == other.sum3));
+  }
+
+  /* return <true> if this is the same file or folder as a Java File object,
+  without creating a File object unless the names agree */
+
+  boolean sameFile(File other)
+  {
+    return((other != null) && ((this.parent == null)
+      || other.getName().equals(this.name)) && other.equals(getFile()));
+  }
+
+  /* return <true> if both data objects have the same device and inode, which
+  means the same physical file under two names */
+
+  boolean sameKey(DeleteDupFiles2Data other)
+  {
+    return((this.inode >= 0) && (this.inode == other.inode)
+      && (this.device == other.device));
+  }
+
+  /* set full checksum from raw bytes, where <null> means that it failed */
+
+  void setChecksum(byte[] raw)
+  {
+    if (raw == null)              // checksum could not be calculated
+    {
+      this.sumLength = FAILED;
+      return;
+    }
+    this.sum0 = packLong(raw, 0);
+    this.sum1 = packLong(raw, 8);
+    this.sum2 = packLong(raw, 16);
+    this.sum3 = packLong(raw, 24); // bigger checksums are truncated
+    this.sumLength = (byte) Math.min(raw.length, MAX_BYTES);
+  }
+
+  /* set partial checksum from raw bytes, where <null> means that it failed */
+
+  void setPartial(byte[] raw)
+  {
+    if (raw == null)              // partial checksum could not be calculated
+    {
+      this.partLength = FAILED;
+      return;
+    }
+    this.part = packLong(raw, 0); // first 64 bits are plenty for a filter
+    this.partLength = (byte) Math.min(raw.length, 8);
+  }
+
+  /* convert a long integer back to eight bytes, as far as the array goes */
+
+  static void unpackLong(long value, byte[] raw, int start)
+  {
+    for (int i = start; (i < (start + 8)) && (i < raw.length); i ++)
+      raw[i] = (byte) (value >>> (8 * (7 - (i - start))));
+  }
+
+} // end of DeleteDupFiles2Data class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  DeleteDupFiles2Digest class
+
+  Fast checksums that Java doesn't have as message digests, wrapped as one, so
+  that they are used the same way as MD5 or SHA.  "CRC32C" is the 32-bit
+  checksum in java.util.zip starting with Java 9, which the run-time calculates
+  with special processor instructions where they exist.  "MURMUR3-128" is
+  MurmurHash3 by Austin Appleby (x64 version, 128 bits, seed zero), written in
+  plain Java, and "MURMUR3-64" keeps only its first 64 bits.  Neither checksum
+  is cryptographic: two different files with the same checksum are unlikely,
+  but not impossible, which is what the -confirm option is for.
+
+  Most data arrives as byte buffers, and MurmurHash3 takes 16 bytes at a time
+  from the buffer as two long integers, without copying.  Bytes left over from
+  one buffer wait in <tail> for the next buffer.
+*/
+
+class DeleteDupFiles2Digest extends MessageDigest
+{
+  /* constants */
+
+  static final long C1 = 0x87c37b91114253d5L; // MurmurHash3 mixing constants
+  static final long C2 = 0x4cf5ad432745937fL;
+  static final String CRC32C = "CRC32C"; // algorithm names, in uppercase
+  static final String MURMUR3_128 = "MURMUR3-128";
+  static final String MURMUR3_64 = "MURMUR3-64";
+
+  /* class variables */
+
+  Checksum crc;                   // CRC32C checksum, or <null> for MurmurHash3
+  Method crcBuffer;               // CRC32C update with a byte buffer, or <null>
+  long h1, h2;                    // MurmurHash3 state, first and second half
+  int length;                     // number of bytes in result
+  byte[] tail;                    // bytes not yet in a 16-byte block
+  int tailCount;                  // number of bytes in <tail>
+  long total;                     // total number of bytes so far
+
+  /* constructor (one argument) */
+
+  public DeleteDupFiles2Digest(String name) throws NoSuchAlgorithmException
+  {
+    super(name);                  // message digest keeps algorithm name
+    this.crc = null;              // assume MurmurHash3
+    this.crcBuffer = null;
+    this.tail = new byte[16];
+    if (name.equals(CRC32C))
+    {
+      /* Look for CRC32C when the program runs, so that older Java run-times
+      can still use the other algorithms. */
+
+      try
+      {
+        this.crc = (Checksum) Class.forName("java.util.zip.CRC32C")
+          .getDeclaredConstructor().newInstance();
+        this.crcBuffer = this.crc.getClass().getMethod("update",
+          new Class[] {ByteBuffer.class});
+      }
+      catch (ReflectiveOperationException roe) // older Java run-time
+      {
+        this.crc = null;          // no class, constructor, or method
+        this.crcBuffer = null;
+      }
+      if (this.crc == null)       // not in this Java run-time
+        throw new NoSuchAlgorithmException(name + " needs Java 9 or later");
+      this.length = 4;
+    }
+    else if (name.equals(MURMUR3_128))
+      this.length = 16;
+    else if (name.equals(MURMUR3_64))
+      this.length = 8;
+    else
+      throw new NoSuchAlgorithmException(name + " is not a fast checksum");
+    engineReset();
+  }
+
+  /* finish checksum and return raw bytes, then reset for next use */
+
+  protected byte[] engineDigest()
+  {
+    byte[] result = new byte[this.length];
+    if (this.crc != null)         // CRC32C as big-endian integer
+    {
+      long value = this.crc.getValue();
+      for (int i = 0; i < 4; i ++)
+        result[i] = (byte) (value >>> (24 - (8 * i)));
+    }
+    else                          // MurmurHash3 as little-endian longs
+    {
+      long k1 = littleLong(this.tail, 0, Math.min(8, this.tailCount));
+      long k2 = littleLong(this.tail, 8, (this.tailCount - 8));
+      if (this.tailCount > 8)     // second half of last block
+      {
+        k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; this.h2 ^= k2;
+      }
+      if (this.tailCount > 0)     // first half of last block
+      {
+        k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; this.h1 ^= k1;
+      }
+      this.h1 ^= this.total; this.h2 ^= this.total;
+      this.h1 += this.h2; this.h2 += this.h1;
+      this.h1 = finalMix(this.h1); this.h2 = finalMix(this.h2);
+      this.h1 += this.h2; this.h2 += this.h1;
+      for (int i = 0; i < 8; i ++)
+      {
+        result[i] = (byte) (this.h1 >>> (8 * i));
+        if (this.length > 8)      // second 64 bits only for MURMUR3-128
+          result[i + 8] = (byte) (this.h2 >>> (8 * i));
+      }
+    }
+    engineReset();                // ready for next file
+    return(result);
+  }
+
+  /* number of bytes in result */
+
+  protected int engineGetDigestLength()
+  {
+    return(this.length);
+  }
+
+  /* start a new checksum */
+
+  protected void engineReset()
+  {
+    if (this.crc != null)
+      this.crc.reset();
+    this.h1 = this.h2 = 0;        // seed is zero
+    this.tailCount = 0;
+    this.total = 0;
+  }
+
+  /* add one byte to checksum */
+
+  protected void engineUpdate(byte input)
+  {
+    engineUpdate(new byte[] {input}, 0, 1);
+  }
+
+  /* add bytes from an array to checksum */
+
+  protected void engineUpdate(byte[] input, int offset, int length)
+  {
+    if (this.crc != null)
+      this.crc.update(input, offset, length);
+    else
+      engineUpdate(ByteBuffer.wrap(input, offset, length));
+  }
+
+  /* add remaining bytes from a byte buffer to checksum */
+
+  protected void engineUpdate(ByteBuffer input)
+  {
+    if (this.crc != null)         // CRC32C reads buffer directly if it can
+    {
+      if (this.crcBuffer == null) // no update for byte buffers?
+      {
+        super.engineUpdate(input); // copy into a byte array
+        return;
+      }
+      try { this.crcBuffer.invoke(this.crc, new Object[] {input}); }
+      catch (IllegalAccessException iae) { super.engineUpdate(input); }
+      catch (InvocationTargetException ite) { super.engineUpdate(input); }
+      return;
+    }
+
+    ByteOrder order = input.order(); // caller's byte order, restored later
+    input.order(ByteOrder.LITTLE_ENDIAN);
+    this.total += input.remaining();
+    while ((this.tailCount > 0) && input.hasRemaining()) // finish last block
+    {
+      this.tail[this.tailCount ++] = input.get();
+      if (this.tailCount == 16)   // block is now complete?
+      {
+        mixBlock(littleLong(this.tail, 0, 8), littleLong(this.tail, 8, 8));
+        this.tailCount = 0;
+      }
+    }
+    while (input.remaining() >= 16) // most bytes go here, 16 at a time
+      mixBlock(input.getLong(), input.getLong());
+    while (input.hasRemaining())  // save partial block for later
+      this.tail[this.tailCount ++] = input.get();
+    input.order(order);
+  }
+
+  /* final mixing of one half of MurmurHash3 */
+
+  static long finalMix(long k)
+  {
+    k ^= k >>> 33; k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33; k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return(k);
+  }
+
+  /* convert up to eight bytes, starting at an index, to a long integer with
+  the first byte lowest; missing bytes are zero */
+
+  static long littleLong(byte[] raw, int start, int count)
+  {
+    long result = 0;
+    for (int i = (start + count - 1); i >= start; i --)
+      result = (result << 8) | (raw[i] & 0xFF);
+    return(result);
+  }
+
+  /* mix one 16-byte block into MurmurHash3 state */
+
+  void mixBlock(long k1, long k2)
+  {
+    k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; this.h1 ^= k1;
+    this.h1 = Long.rotateLeft(this.h1, 27); this.h1 += this.h2;
+    this.h1 = (this.h1 * 5) + 0x52dce729;
+    k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; this.h2 ^= k2;
+    this.h2 = Long.rotateLeft(this.h2, 31); this.h2 += this.h1;
+    this.h2 = (this.h2 * 5) + 0x38495ab5;
+  }
+
+} // end of DeleteDupFiles2Digest class
 
+// ------------------------------------------------------------------------- //
 
 /*
-  doStartRunner() method
+  DeleteDupFiles2Hash class
 
-  This method is called inside a separate thread by the runnable interface of
-  our "user" class to process the user's selected files in the context of the
-  "main" class.  By doing all the heavy-duty work in a separate thread, we
-  won't stall the main thread that runs the graphical interface, and we allow
-  the user to cancel the processing if it takes too long.
+  This class calculates one checksum in a worker thread, and creates the worker
+  threads for the pool of checksum threads.  The real work is done by a static
+  method in the main class.
 */
-  static void doStartRunner()
+
+class DeleteDupFiles2Hash implements Callable, Comparator, ThreadFactory
+{
+  /* class variables */
+
+  DeleteDupFiles2Data entry;      // data object, or <null> for factory
+  long inode;                     // inode number for sorting, or -1
+  boolean partial;                // true for partial checksum, false for full
+  String path;                    // path name for sorting, or <null>
+  ThreadPoolExecutor pool;        // checksum threads, while waiting in batch
+  FutureTask task;                // task for this checksum, while in batch
+
+  /* constructor (one argument) */
+
+  public DeleteDupFiles2Hash(DeleteDupFiles2Data givenEntry)
   {
-    try                           // catch most "out of memory" errors
+    this(givenEntry, false);      // full checksum
+  }
+
+  /* constructor (two arguments) */
+
+  public DeleteDupFiles2Hash(DeleteDupFiles2Data givenEntry,
+    boolean partialFlag)
+  {
+    this.entry = givenEntry;      // file to be checksummed, if any
+    this.inode = -1;              // locality is set only when sorting
+    this.partial = partialFlag;   // partial or full checksum
+    this.path = null;
+    this.pool = null;
+    this.task = null;
+  }
+
+  /* calculate checksum in worker thread */
+
+  public Object call()
+  {
+    if (this.partial)             // partial checksum of both ends of file?
+      return(DeleteDupFiles2.calculatePartial(this.entry));
+    return(DeleteDupFiles2.calculateChecksum(this.entry));
+  }
+
+  /* compare locality: files with inode numbers first, then by path name */
+
+  public int compare(Object first, Object second)
+  {
+    DeleteDupFiles2Hash one = (DeleteDupFiles2Hash) first;
+    DeleteDupFiles2Hash two = (DeleteDupFiles2Hash) second;
+    if ((one.inode >= 0) && (two.inode >= 0)) // both have inode numbers?
+      return(Long.compare(one.inode, two.inode));
+    if ((one.inode >= 0) || (two.inode >= 0)) // only one has inode number?
+      return((one.inode >= 0) ? -1 : 1);
+    return(one.path.compareTo(two.path));
+  }
+
+  /* create a new worker thread for the pool */
+
+  public Thread newThread(Runnable task)
+  {
+    Thread result = new Thread(task, "doChecksumRunner");
+    result.setDaemon(true);       // don't keep application alive for this
+    result.setPriority(Thread.MIN_PRIORITY); // same as our heavy-duty thread
+    return(result);
+  }
+
+} // end of DeleteDupFiles2Hash class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  DeleteDupFiles2Index class
+
+  A trusted index file has the size, date, path name, and full checksum (if
+  known) for each file in a trusted folder, so that a later run doesn't need to
+  scan the trusted folder again.  The file has three parts:
+
+  1. A header with the checksum algorithm, the trusted and avoided folders, the
+     options that decide which files are included, and the last modified date
+     of every trusted folder.  Adding, deleting, or renaming a file changes the
+     date of its folder, so any difference means the index is out of date.
+
+  2. Fixed-size records, sorted by file size, then by full checksum (records
+     without a checksum first), then by the order in which files were found.
+     Records are memory-mapped and found by binary search, first by size, and
+     then by checksum within the same size.
+
+  3. Path names, each as a length and UTF-8 bytes.  A record has the offset of
+     its path name, which is read only when a data object is needed.
+
+  Changing a file in place doesn't change its folder's date, so when a bucket
+  is filled from an index file, each record's file is checked for the same
+  size and date.  A changed file is loaded without its old checksum, and is
+  hashed again if needed.  If anything changed, or if files without checksums
+  were hashed, the index file is written again at the end of the run.
+
+  All numbers are big-endian, the same for DataOutputStream and ByteBuffer.  An
+  empty object is used to compare data objects when sorting a new index.
+*/
+
+class DeleteDupFiles2Index implements Comparator
+{
+  /* constants */
+
+  static final long MAGIC = 0x4444463249445831L; // "DDF2IDX1" in ASCII
+  static final int RECORD_BYTES = 64; // bytes in each record
+  static final int RECORD_DATE = 8; // byte offset of last modified date
+  static final int RECORD_ORDER = 24; // byte offset of order within size
+  static final int RECORD_PATH = 16; // byte offset of path name offset
+  static final int RECORD_SIZE = 0; // byte offset of file size
+  static final int RECORD_SUM = 32; // byte offset of four checksum longs
+  static final int RECORD_SUM_LENGTH = 28; // byte offset of checksum length
+  static final int SEGMENT_SHIFT = 24; // records per mapping (16 million)
+
+  /* class variables */
+
+  FileChannel channel;            // open index file for reading path names
+  boolean changed;                // true if any file changed since saved
+  int count;                      // number of records in the index
+  Vector folders;                 // trusted folders from header, or <null>
+                                  // ... if not an index file from a past run
+  HashMap loaded;                 // records loaded without checksums, by
+                                  // ... record number; <null> if file is gone
+  long pathStart;                 // byte offset of first path name
+  MappedByteBuffer[] segments;    // records, mapped in pieces under 2 GB
+
+  /* empty constructor */
+
+  public DeleteDupFiles2Index()
+  {
+    this.channel = null;          // set by open(), not used for sorting
+    this.changed = false;         // nothing checked yet
+    this.count = 0;
+    this.folders = null;          // set by open() for index files only
+    this.loaded = new HashMap();  // no data objects loaded yet
+    this.pathStart = 0;
+    this.segments = null;
+  }
+
+  /* close the index file; mapped records are released by garbage collector */
+
+  void close()
+  {
+    try { if (this.channel != null) this.channel.close(); }
+    catch (IOException ioe) { }   // nothing useful to do about it
+    this.channel = null;
+  }
+
+  /* compare two data objects by size, checksum, and order found (sorting) */
+
+  public int compare(Object first, Object second)
+  {
+    DeleteDupFiles2Data one = (DeleteDupFiles2Data) first;
+    DeleteDupFiles2Data two = (DeleteDupFiles2Data) second;
+    int result = Long.compare(one.size, two.size);
+    if (result == 0)              // same size, so compare checksums
+      result = compareChecksum(savedLength(one), one.sum0, one.sum1, one.sum2,
+        one.sum3, two);
+    if (result == 0)              // same checksum, or both without
+      result = Integer.compare(one.order, two.order);
+    return(result);
+  }
+
+  /* compare a checksum with the checksum in a data object */
+
+  static int compareChecksum(int length, long sum0, long sum1, long sum2,
+    long sum3, DeleteDupFiles2Data entry)
+  {
+    int result = Integer.compare(length, savedLength(entry));
+    if ((result == 0) && (length > 0)) // compare only checksums that exist
     {
-      doFileSearch(trustedFolder, unknownFolder); // process files and folders
+      if ((result = Long.compare(sum0, entry.sum0)) == 0)
+        if ((result = Long.compare(sum1, entry.sum1)) == 0)
+          if ((result = Long.compare(sum2, entry.sum2)) == 0)
+            result = Long.compare(sum3, entry.sum3);
     }
-    catch (OutOfMemoryError oome) // for this thread only, not the GUI thread
+    return(result);
+  }
+
+  /* compare the checksum in a record with the checksum in a data object */
+
+  int compareRecord(int record, DeleteDupFiles2Data entry)
+  {
+    return(compareChecksum(getInt(record, RECORD_SUM_LENGTH),
+      getLong(record, RECORD_SUM), getLong(record, (RECORD_SUM + 8)),
+      getLong(record, (RECORD_SUM + 16)), getLong(record, (RECORD_SUM + 24)),
+      entry));
+  }
+
+  /* load a record from an index file, and check that the file still has the
+  same size and date; a changed file loses its checksum, and a missing file
+  returns <null> */
+
+  DeleteDupFiles2Data check(int record)
+  {
+    DeleteDupFiles2Data entry = getEntry(record);
+    File file = entry.getFile();  // ask the system, not the index
+    if (file.isFile() == false)   // deleted, or now a folder?
     {
-      JOptionPane.showMessageDialog(mainFrame,
-        "Not enough memory to complete your request.\nPlease close this program, then try increasing\nthe Java heap size with the -Xmx option on the\nJava command line.");
+      this.changed = true;        // leave it out of the next index
+      return(null);
     }
+    long date = file.lastModified();
+    long size = file.length();
+    if ((date != entry.date) || (size != entry.size)) // changed in place?
+    {
+      if (DeleteDupFiles2.debugFlag && (entry.sumLength > 0))
+        DeleteDupFiles2.putOutput(entry.getPath()
+          + " - changed since trusted index file was saved");
+      this.changed = true;        // save new size and date at end of run
+      entry.date = date;
+      entry.indexed = false;      // old checksum is no good
+      entry.size = size;
+      entry.sum0 = entry.sum1 = entry.sum2 = entry.sum3 = 0;
+      entry.sumLength = DeleteDupFiles2Data.MISSING;
+    }
+    return(entry);
+  }
 
-    /* We are done.  Turn off the "Cancel" button and allow the user to click
-    the "Start" button again. */
+  /* put trusted files of one size into a new bucket: files without checksums
+  are loaded now, and files with checksums are left in the index; records
+  from an index file are checked first, and changed files are loaded without
+  checksums, but their records stay in the index to be skipped */
 
-    cancelButton.setEnabled(false); // disable "Cancel" button
-    dialogAllCheckbox.setEnabled(false); // force user to re-select this option
-    startButton.setEnabled(true); // enable "Start" button
-    startButton.requestFocusInWindow(); // shift focus to "Start" button
-    statusFlush();                // force display of pending status messages
-    statusTimer.stop();           // stop updating status on timer ticks
+  void fill(DeleteDupFiles2Bucket bucket, long size)
+  {
+    int record = findSize(size);
+    while ((record < this.count) && (getLong(record, RECORD_SIZE) == size))
+    {
+      DeleteDupFiles2Data entry = null; // data object, only if loaded
+      if (this.folders != null)   // index file saved by an earlier run?
+      {
+        entry = check(record);    // <null> if gone
+        if ((entry == null) || (entry.sumLength <= 0)) // need to keep it?
+          this.loaded.put(Integer.valueOf(record), entry); // for next index
+      }
+      else if (getInt(record, RECORD_SUM_LENGTH) == 0) // no checksum saved?
+        entry = getEntry(record); // keeps order from index file
+      if ((entry != null) && (entry.sumLength <= 0) && (entry.size == size))
+        bucket.add(entry);        // without checksum, keeps order from index
+      if (getInt(record, RECORD_SUM_LENGTH) != 0) // checksum saved in record?
+      {
+        if ((entry == null) || (entry.sumLength <= 0)) // file has changed?
+        {
+          if (bucket.staleRecords == null)
+            bucket.staleRecords = new HashSet();
+          bucket.staleRecords.add(Integer.valueOf(record)); // skip checksum
+        }
+        if (bucket.index == null) // first record with a checksum?
+        {
+          bucket.index = this;
+          bucket.indexFirst = record;
+        }
+        bucket.indexCount ++;
+        bucket.nextOrder = Math.max(bucket.nextOrder,
+          (getInt(record, RECORD_ORDER) + 1)); // unknown files come later
+      }
+      record ++;
+    }
+  }
 
-  } // end of doStartRunner() method
+  /* return earliest record with the same full checksum, or -1; records in the
+  caller's set of changed files are skipped */
+
+  int findChecksum(int first, int number, DeleteDupFiles2Data entry,
+    HashSet skip)
+  {
+    int low = first;              // binary search for first equal or greater
+    int high = first + number;
+    while (low < high)
+    {
+      int middle = (low + high) >>> 1;
+      if (compareRecord(middle, entry) < 0)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    while ((low < (first + number)) && (compareRecord(low, entry) == 0))
+    {
+      if ((skip == null) || (skip.contains(Integer.valueOf(low)) == false))
+        return(low);              // earliest file that hasn't changed
+      low ++;                     // same checksum, in order found
+    }
+    return(-1);
+  }
+
+  /* return first record with the same or a bigger file size */
+
+  int findSize(long size)
+  {
+    int low = 0;                  // binary search for first equal or greater
+    int high = this.count;
+    while (low < high)
+    {
+      int middle = (low + high) >>> 1;
+      if (getLong(middle, RECORD_SIZE) < size)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    return(low);
+  }
+
+  /* create a new data object from a record */
+
+  DeleteDupFiles2Data getEntry(int record)
+  {
+    DeleteDupFiles2Data result = new DeleteDupFiles2Data(null,
+      getPath(getLong(record, RECORD_PATH))); // full path name, no parent
+    result.date = getLong(record, RECORD_DATE);
+    result.order = getInt(record, RECORD_ORDER);
+    result.trusted = true;        // only trusted files are in an index
+    result.size = getLong(record, RECORD_SIZE);
+    int length = getInt(record, RECORD_SUM_LENGTH);
+    if (length > 0)               // was a checksum saved for this file?
+    {
+      result.indexed = true;      // checksum must be checked against date
+      result.sum0 = getLong(record, RECORD_SUM);
+      result.sum1 = getLong(record, (RECORD_SUM + 8));
+      result.sum2 = getLong(record, (RECORD_SUM + 16));
+      result.sum3 = getLong(record, (RECORD_SUM + 24));
+      result.sumLength = (byte) length;
+    }
+    return(result);
+  }
+
+  /* get an integer or long integer from a record */
+
+  int getInt(int record, int offset)
+  {
+    return(this.segments[record >>> SEGMENT_SHIFT].getInt(((record
+      & ((1 << SEGMENT_SHIFT) - 1)) * RECORD_BYTES) + offset));
+  }
+
+  long getLong(int record, int offset)
+  {
+    return(this.segments[record >>> SEGMENT_SHIFT].getLong(((record
+      & ((1 << SEGMENT_SHIFT) - 1)) * RECORD_BYTES) + offset));
+  }
+
+  /* return order in which a file was found, among files of the same size */
+
+  int getOrder(int record)
+  {
+    return(getInt(record, RECORD_ORDER));
+  }
+
+  /* read a path name, or return an empty string if it can't be read, which
+  won't match the date of any file */
+
+  String getPath(long offset)
+  {
+    try
+    {
+      ByteBuffer length = ByteBuffer.allocate(4);
+      readFully(length, (this.pathStart + offset));
+      ByteBuffer bytes = ByteBuffer.allocate(length.getInt(0));
+      readFully(bytes, (this.pathStart + offset + 4));
+      return(new String(bytes.array(), "UTF-8"));
+    }
+    catch (IOException ioe) { return(""); }
+  }
+
+  /* return <true> if any record has this file size */
+
+  boolean hasSize(long size)
+  {
+    int record = findSize(size);
+    return((record < this.count) && (getLong(record, RECORD_SIZE) == size));
+  }
+
+  /* map the records in a sorted record file, and keep the file open for
+  reading path names */
+
+  static DeleteDupFiles2Index map(File indexFile, long recordStart, int count)
+    throws IOException
+  {
+    DeleteDupFiles2Index result = new DeleteDupFiles2Index();
+    result.count = count;
+    result.channel = FileChannel.open(indexFile.toPath(),
+      StandardOpenOption.READ);
+    try
+    {
+      result.pathStart = recordStart + ((long) count * RECORD_BYTES);
+      result.segments = new MappedByteBuffer[(count >>> SEGMENT_SHIFT) + 1];
+      for (int i = 0; i < result.segments.length; i ++)
+      {
+        long first = (long) i << SEGMENT_SHIFT; // first record in segment
+        long number = Math.min((count - first), (1 << SEGMENT_SHIFT));
+        result.segments[i] = result.channel.map(
+          FileChannel.MapMode.READ_ONLY, (recordStart + (first
+          * RECORD_BYTES)), (number * RECORD_BYTES));
+      }
+    }
+    catch (IOException ioe)       // close file before giving up
+    {
+      result.close();
+      throw ioe;
+    }
+    return(result);
+  }
+
+  /* open an existing index file, and return <null> if it is missing, damaged,
+  or out of date, meaning that the trusted folder must be scanned again */
+
+  static DeleteDupFiles2Index open(File indexFile, String trustedPath,
+    String avoidPath)
+  {
+    if (indexFile.isFile() == false) // nothing to open?
+      return(null);
+    try
+    {
+      int count;                  // number of records
+      Vector folders;             // trusted folders and their dates
+      DataInputStream input = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(indexFile), DeleteDupFiles2.BUFFER_SIZE));
+      long recordStart;           // byte offset of first record
+      try
+      {
+        if (input.readLong() != MAGIC) // not an index file, or old format
+          return(null);
+        recordStart = input.readLong();
+        count = input.readInt();
+        if ((readString(input).equals(DeleteDupFiles2.digestName) == false)
+          || (readString(input).equals(trustedPath) == false)
+          || (readString(input).equals(avoidPath) == false)
+          || (input.readInt() != optionFlags()))
+        {
+          return(null);           // index was made a different way
+        }
+        int number = input.readInt(); // each folder has path and date
+        folders = new Vector(number);
+        for (int i = 0; i < number; i ++)
+        {
+          DeleteDupFiles2Data folder = new DeleteDupFiles2Data(null,
+            readString(input));   // full path name, no parent
+          folder.date = input.readLong();
+          if (new File(folder.name).lastModified() != folder.date)
+            return(null);         // folder has changed, or is gone
+          folders.add(folder);    // same folders in next index file
+        }
+      }
+      finally { input.close(); }
+      DeleteDupFiles2Index result = map(indexFile, recordStart, count);
+      result.folders = folders;   // check files when loaded
+      return(result);             // keep file open
+    }
+    catch (IOException ioe)       // damaged or unreadable index file
+    {
+      return(null);
+    }
+  }
+
+  /* option flags that decide which files are in the index */
+
+  static int optionFlags()
+  {
+    return((DeleteDupFiles2.hiddenFlag ? 1 : 0)
+      | (DeleteDupFiles2.recurseFlag ? 2 : 0)
+      | (DeleteDupFiles2.zeroFlag ? 4 : 0));
+  }
+
+  /* fill a buffer from the index file, starting at a byte offset */
+
+  void readFully(ByteBuffer buffer, long offset) throws IOException
+  {
+    while (buffer.hasRemaining())
+      if (this.channel.read(buffer, (offset + buffer.position())) < 0)
+        throw new EOFException("trusted index file is too short");
+  }
+
+  /* read a string saved by writeString() */
+
+  static String readString(DataInputStream input) throws IOException
+  {
+    byte[] bytes = new byte[input.readInt()];
+    input.readFully(bytes);
+    return(new String(bytes, "UTF-8"));
+  }
+
+  /* write the index file again with new checksums, sizes, and dates for the
+  records that were loaded; other records are copied as they were */
+
+  void rewrite(File indexFile, String trustedPath, String avoidPath)
+    throws IOException
+  {
+    Vector files = new Vector(this.count); // all files for new index
+    for (int i = 0; i < this.count; i ++)
+    {
+      Integer record = Integer.valueOf(i);
+      DeleteDupFiles2Data entry = this.loaded.containsKey(record)
+        ? (DeleteDupFiles2Data) this.loaded.get(record) : getEntry(i);
+      if (entry != null)          // leave out files that are gone
+        files.add(entry);
+    }
+    write(indexFile, trustedPath, avoidPath, this.folders, files);
+  }
+
+  /* return <true> if an index file from an earlier run should be written
+  again, because files have changed or have new checksums */
+
+  boolean needsRewrite()
+  {
+    if (this.folders == null)     // not an index file from an earlier run?
+      return(false);
+    if (this.changed)             // any file changed or gone?
+      return(true);
+    Iterator entries = this.loaded.values().iterator();
+    while (entries.hasNext())     // any new checksums for unhashed files?
+    {
+      DeleteDupFiles2Data entry = (DeleteDupFiles2Data) entries.next();
+      if ((entry != null) && (entry.sumLength > 0))
+        return(true);
+    }
+    return(false);
+  }
+
+  /* checksum length to be saved, where missing and failed are both zero */
+
+  static int savedLength(DeleteDupFiles2Data entry)
+  {
+    return(Math.max(0, entry.sumLength));
+  }
+
+  /* write a new index file, first to a temporary file in the same folder, so
+  that an old index isn't lost if something goes wrong */
+
+  static void write(File indexFile, String trustedPath, String avoidPath,
+    Vector folders, Vector files) throws IOException
+  {
+    Object[] sorted = files.toArray(); // sort by size, checksum, order
+    Arrays.sort(sorted, new DeleteDupFiles2Index());
+
+    ByteArrayOutputStream header = new ByteArrayOutputStream();
+    DataOutputStream headerData = new DataOutputStream(header);
+    writeString(headerData, DeleteDupFiles2.digestName);
+    writeString(headerData, trustedPath);
+    writeString(headerData, avoidPath);
+    headerData.writeInt(optionFlags());
+    headerData.writeInt(folders.size());
+    for (int i = 0; i < folders.size(); i ++)
+    {
+      DeleteDupFiles2Data folder = (DeleteDupFiles2Data) folders.get(i);
+      writeString(headerData, folder.getPath());
+      headerData.writeLong(folder.date);
+    }
+    headerData.flush();
+    int padding = (8 - ((20 + header.size()) % 8)) % 8; // align records
+
+    File tempFile = new File(indexFile.getPath() + ".tmp");
+    DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+      new FileOutputStream(tempFile), DeleteDupFiles2.BUFFER_SIZE));
+    try
+    {
+      output.writeLong(MAGIC);
+      output.writeLong(20 + header.size() + padding); // first record
+      output.writeInt(sorted.length);
+      header.writeTo(output);
+      for (int i = 0; i < padding; i ++)
+        output.writeByte(0);
+
+      long pathOffset = 0;        // path names come after all records
+      for (int i = 0; i < sorted.length; i ++)
+      {
+        DeleteDupFiles2Data entry = (DeleteDupFiles2Data) sorted[i];
+        int length = savedLength(entry);
+        output.writeLong(entry.size);
+        output.writeLong(entry.date);
+        output.writeLong(pathOffset);
+        output.writeInt(entry.order);
+        output.writeInt(length);
+        output.writeLong((length > 0) ? entry.sum0 : 0);
+        output.writeLong((length > 0) ? entry.sum1 : 0);
+        output.writeLong((length > 0) ? entry.sum2 : 0);
+        output.writeLong((length > 0) ? entry.sum3 : 0);
+        pathOffset += 4 + entry.getPath().getBytes("UTF-8").length;
+      }
+      for (int i = 0; i < sorted.length; i ++)
+        writeString(output, ((DeleteDupFiles2Data) sorted[i]).getPath());
+    }
+    finally { output.close(); }
+    Files.move(tempFile.toPath(), indexFile.toPath(),
+      StandardCopyOption.REPLACE_EXISTING); // replace old index, if any
+  }
+
+  /* write a string as a length and UTF-8 bytes */
+
+  static void writeString(DataOutputStream output, String text)
+    throws IOException
+  {
+    byte[] bytes = text.getBytes("UTF-8");
+    output.writeInt(bytes.length);
+    output.write(bytes);
+  }
+
+} // end of DeleteDupFiles2Index class
 
+// ------------------------------------------------------------------------- //
 
 /*
-  doTrustedButton() method
+  DeleteDupFiles2LongSet class
 
-  Allow the user to select one file or folder as the "trusted" folder.  We
-  don't do anything with this selection until the doStartButton() method is
-  called.
+  A set of primitive long integers, such as file sizes, in a hash table with
+  open addressing.  There are no objects for each number, so a set with many
+  sizes is much smaller than a HashSet of Long objects.  Zero marks an empty
+  slot in the table, so zero itself is remembered with a separate flag.
 */
-  static void doTrustedButton()
+
+class DeleteDupFiles2LongSet
+{
+  /* class variables */
+
+  int count;                      // number of non-zero values in <table>
+  boolean hasZero;                // true if zero has been added
+  long[] table;                   // hash table, size is a power of two
+
+  /* empty constructor */
+
+  public DeleteDupFiles2LongSet()
   {
-    fileChooser.resetChoosableFileFilters(); // remove any existing filters
-    fileChooser.setDialogTitle("Select Trusted File or Folder...");
-    fileChooser.setFileHidingEnabled(! hiddenFlag); // may show hidden files
-    fileChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
-    fileChooser.setMultiSelectionEnabled(false); // allow only one file
-    if (fileChooser.showOpenDialog(mainFrame) != JFileChooser.APPROVE_OPTION)
-      return;                     // user cancelled file selection dialog box
-    trustedFolder = fileChooser.getSelectedFile(); // get user's selection
-    trustedDialog.setText(trustedFolder.getPath()); // show name in text box
+    this.count = 0;               // start with an empty set
+    this.hasZero = false;
+    this.table = new long[64];    // small, grows as needed
+  }
+
+  /* add a value to the set, if not already there */
+
+  void add(long value)
+  {
+    if (value == 0)               // zero isn't stored in the table
+    {
+      this.hasZero = true;
+      return;
+    }
+    int slot = find(value);
+    if (this.table[slot] == value) // already in the set?
+      return;
+    this.table[slot] = value;     // empty slot gets new value
+    this.count ++;
+    if ((this.count * 4) > (this.table.length * 3)) // more than 3/4 full?
+    {
+      long[] old = this.table;    // double the size of the table
+      this.table = new long[old.length * 2];
+      for (int i = 0; i < old.length; i ++)
+        if (old[i] != 0)
+          this.table[find(old[i])] = old[i];
+    }
+  }
+
+  /* return <true> if the value is in the set */
+
+  boolean contains(long value)
+  {
+    if (value == 0)               // zero isn't stored in the table
+      return(this.hasZero);
+    return(this.table[find(value)] == value);
   }
 
+  /* return table slot with the same value, or the empty slot for it */
 
-/*
-  doUnknownButton() method
+  int find(long value)
+  {
+    int mask = this.table.length - 1; // table size is a power of two
+    long mix = value * 0x9E3779B97F4A7C15L; // sizes are not well mixed
+    int slot = (int) (mix ^ (mix >>> 32)) & mask;
+    while ((this.table[slot] != 0) && (this.table[slot] != value))
+      slot = (slot + 1) & mask;   // linear probing to next slot
+    return(slot);
+  }
 
-  Allow the user to select one file or folder as the "unknown" folder.  We
-  don't do anything with this selection until the doStartButton() method is
-  called.
-*/
-  static void doUnknownButton()
+  /* return number of values in the set */
+
+  int size()
   {
-    fileChooser.resetChoosableFileFilters(); // remove any existing filters
-    fileChooser.setDialogTitle("Select Unknown File or Folder...");
-    fileChooser.setFileHidingEnabled(! hiddenFlag); // may show hidden files
-    fileChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
-    fileChooser.setMultiSelectionEnabled(false); // allow only one file
-    if (fileChooser.showOpenDialog(mainFrame) != JFileChooser.APPROVE_OPTION)
-      return;                     // user cancelled file selection dialog box
-    unknownFolder = fileChooser.getSelectedFile(); // get user's selection
-    unknownDialog.setText(unknownFolder.getPath()); // show name in text box
+    return(this.count + (this.hasZero ? 1 : 0));
   }
 
+} // end of DeleteDupFiles2LongSet class
+
+// ------------------------------------------------------------------------- //
 
 /*
-  formatHexBytes() method
+  DeleteDupFiles2Move class
 
-  Format a raw array of binary bytes as a hexadecimal string.
+  One batch of duplicate files to be moved into the quarantine folder, queued
+  by the action thread for the move thread, which is also created by this
+  class.  An empty batch marks the end of the queue.
 */
-  static String formatHexBytes(byte[] raw)
-  {
-    StringBuffer buffer;          // faster than String for multiple appends
-    final char[] hexDigits = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9',
-      'a', 'b', 'c', 'd', 'e', 'f'}; // for converting binary to hexadecimal
-    int i;                        // index variable
-    int value;                    // one byte value from raw array
 
-    buffer = new StringBuffer(raw.length * 2);
-                                  // allocate empty string buffer for result
-    for (i = 0; i < raw.length; i ++)
-    {
-      value = raw[i];             // get one byte value from raw array
-      buffer.append(hexDigits[(value >> 4) & 0x0F]); // hex high-order nibble
-      buffer.append(hexDigits[value & 0x0F]); // hex low-order nibble
-    }
-    return(buffer.toString());    // give caller our converted string
+class DeleteDupFiles2Move implements Runnable
+{
+  /* class variables */
 
-  } // end of formatHexBytes() method
+  int count;                      // number of files in <entries>
+  DeleteDupFiles2Data[] entries;  // duplicate files, in the order confirmed
 
+  /* constructor (one argument) */
 
-/*
-  getFileOrName() method
+  public DeleteDupFiles2Move(int size)
+  {
+    this.count = 0;               // start with an empty batch
+    this.entries = new DeleteDupFiles2Data[size];
+  }
 
-  The user can select a trusted or unknown folder either with a GUI button and
-  its dialog box, or by typing the path name in a text field.  This is a helper
-  method for doStartButton() to choose between the two, or to return <null> if
-  neither is acceptable.
-*/
-  static File getFileOrName(File file, JTextField text)
+  /* separate thread for moving files to quarantine */
+
+  public void run()
   {
-    String path;                  // text from dialog box, no trimming
-    String trim;                  // text from dialog box, with trimming
+    DeleteDupFiles2.doMoveRunner();
+  }
 
-    path = text.getText();        // get current text from dialog box
-    if ((file != null) && file.getPath().equals(path))
-      return(file);               // existing selection, no change to text
+} // end of DeleteDupFiles2Move class
 
-    trim = path.trim();           // remove leading and trailing spaces
-    if (path.equals(trim) == false) // if trimming makes a difference
-      text.setText(trim);         // then force dialog to trimmed text
+// ------------------------------------------------------------------------- //
 
-    if (trim.length() > 0)        // no selection, or text has changed
-      return(new File(trim));     // create a new File object from text area
-    else                          // no selection, or selected path deleted
-      return(null);               // no File object that we can safely use
+/*
+  DeleteDupFiles2Run class
+
+  One sorted run file, with trusted files that were moved out of memory when
+  the trusted folder was too big for the memory limit.  Each run has all the
+  trusted files kept since the previous run, sorted by size, and in the order
+  found for the same size.  Each record is a size, a date, and a path name as
+  UTF-8 bytes.
+
+  After the trusted folder is scanned, all runs are merged by size into one
+  sorted record file, with the same layout as a trusted index file, which is
+  then searched the same way.  Files of the same size are taken from earlier
+  runs first, so they keep the order in which they were found.
+*/
 
-  } // end of getFileOrName() method
+class DeleteDupFiles2Run implements Comparable
+{
+  /* class variables */
 
+  long date;                      // last modified date of current record
+  File file;                      // temporary run file, deleted after merge
+  DataInputStream input;          // open run file while merging, or <null>
+  byte[] name;                    // path name of current record, UTF-8 bytes
+  int number;                     // run number, in the order runs were made
+  int remaining;                  // records not read yet
+  long size;                      // file size of current record
 
-/*
-  prettyPlural() method
+  /* constructor (three arguments) */
 
-  Return a string that formats a number and appends a lowercase "s" to a word
-  if the number is plural (not one).  Also provide a more general method that
-  accepts both a singular word and a plural word.
-*/
-  static String prettyPlural(
-    long number,                  // number to be formatted
-    String singular)              // singular word
+  public DeleteDupFiles2Run(File givenFile, int givenNumber, int givenCount)
   {
-    return(prettyPlural(number, singular, (singular + "s")));
+    this.date = this.size = 0;    // no current record until next()
+    this.file = givenFile;
+    this.input = null;            // opened only while merging
+    this.name = null;
+    this.number = givenNumber;
+    this.remaining = givenCount;
   }
 
-  static String prettyPlural(
-    long number,                  // number to be formatted
-    String singular,              // singular word
-    String plural)                // plural word
+  /* close and delete the run file */
+
+  void close()
   {
-    final String[] names = {"zero", "one", "two"};
-                                  // names for small counting numbers
-    String result;                // our converted result
+    try { if (this.input != null) this.input.close(); }
+    catch (IOException ioe) { }   // nothing useful to do about it
+    this.input = null;
+    this.file.delete();           // may already be gone
+  }
 
-    if ((number >= 0) && (number < names.length))
-      result = names[(int) number]; // use names for small counting numbers
-    else
-      result = formatComma.format(number); // format number with digit grouping
+  /* compare current records by size, then by run number (priority queue) */
 
-    if (number == 1)              // is the number singular or plural?
-      result += " " + singular;   // append singular word
-    else
-      result += " " + plural;     // append plural word
+  public int compareTo(Object other)
+  {
+    DeleteDupFiles2Run that = (DeleteDupFiles2Run) other;
+    int result = Long.compare(this.size, that.size);
+    if (result == 0)              // same size, earlier run comes first
+      result = Integer.compare(this.number, that.number);
+    return(result);
+  }
 
-    return(result);               // give caller our converted string
+  /* merge sorted runs into one sorted record file, numbering files of each
+  size in order, and return it as a trusted index; run files are deleted */
 
-  } // end of prettyPlural() method
+  static DeleteDupFiles2Index merge(Vector runs) throws IOException
+  {
+    int count = 0;                // total number of records in all runs
+    for (int i = 0; i < runs.size(); i ++)
+      count += ((DeleteDupFiles2Run) runs.get(i)).remaining;
+
+    File sortedFile = File.createTempFile("DeleteDupFiles2", ".idx");
+    sortedFile.deleteOnExit();    // in case it can't be deleted after mapping
+    File nameFile = File.createTempFile("DeleteDupFiles2", ".tmp");
+    nameFile.deleteOnExit();
+    DataOutputStream records = new DataOutputStream(new BufferedOutputStream(
+      new FileOutputStream(sortedFile), DeleteDupFiles2.BUFFER_SIZE));
+    DataOutputStream names = new DataOutputStream(new BufferedOutputStream(
+      new FileOutputStream(nameFile), DeleteDupFiles2.BUFFER_SIZE));
+    try
+    {
+      records.writeLong(DeleteDupFiles2Index.MAGIC); // same start as index,
+      records.writeLong(24);      // ... but no header, so it can't be opened
+      records.writeInt(count);    // ... as a trusted index by mistake
+      records.writeInt(0);        // align records
 
+      PriorityQueue queue = new PriorityQueue(); // smallest size first
+      for (int i = 0; i < runs.size(); i ++)
+      {
+        DeleteDupFiles2Run run = (DeleteDupFiles2Run) runs.get(i);
+        run.input = new DataInputStream(new BufferedInputStream(
+          new FileInputStream(run.file), DeleteDupFiles2.BUFFER_SIZE));
+        if (run.next())           // does this run have any records?
+          queue.add(run);
+      }
 
-/*
-  putOutput() method
+      long lastSize = -1;         // no file has this size
+      int order = 0;              // order of file within same size
+      long pathOffset = 0;        // byte offset of next path name
+      while (queue.isEmpty() == false) // until all runs are finished
+      {
+        DeleteDupFiles2Run run = (DeleteDupFiles2Run) queue.poll();
+        order = (run.size == lastSize) ? (order + 1) : 0;
+        lastSize = run.size;
+        records.writeLong(run.size); // same record layout as index file
+        records.writeLong(run.date);
+        records.writeLong(pathOffset);
+        records.writeInt(order);
+        records.writeInt(0);      // no checksum
+        for (int i = 0; i < 4; i ++)
+          records.writeLong(0);
+        names.writeInt(run.name.length);
+        names.write(run.name);
+        pathOffset += 4 + run.name.length;
+        if (run.next())           // put run back with its next record
+          queue.add(run);
+      }
+    }
+    finally
+    {
+      records.close();
+      names.close();
+      for (int i = 0; i < runs.size(); i ++)
+        ((DeleteDupFiles2Run) runs.get(i)).close(); // delete run files
+    }
 
-  Append a complete line of text to the end of the output text area.  We add a
-  newline character at the end of the line, not the caller.  By forcing all
-  output to go through this same method, one complete line at a time, the
-  generated output is cleaner and can be redirected.
+    /* Path names go after all records.  Copy them from their own file. */
 
-  The output text area is forced to scroll to the end, after the text line is
-  written, by selecting character positions that are much too large (and which
-  are allowed by the definition of the JTextComponent.select() method).  This
-  is easier and faster than manipulating the scroll bars directly.  However, it
-  does cancel any selection that the user might have made, for example, to copy
-  text from the output area.
-*/
-  static void putOutput(String text)
+    FileChannel from = new FileInputStream(nameFile).getChannel();
+    FileChannel to = new FileOutputStream(sortedFile, true).getChannel();
+    try
+    {
+      long done = 0;              // bytes copied so far
+      while (done < from.size())
+        done += from.transferTo(done, (from.size() - done), to);
+    }
+    finally
+    {
+      from.close();
+      to.close();
+      nameFile.delete();
+    }
+    DeleteDupFiles2Index result = DeleteDupFiles2Index.map(sortedFile, 24,
+      count);                     // search like a trusted index file
+    sortedFile.delete();          // mapping stays, except on Windows
+    return(result);
+  }
+
+  /* read the next record, or return <false> at the end of the run */
+
+  boolean next() throws IOException
   {
-    putOutput(text, scrollFlag);  // allow user to set default scroll behavior
+    if (this.remaining == 0)      // no more records?
+      return(false);
+    this.remaining --;
+    this.size = this.input.readLong();
+    this.date = this.input.readLong();
+    this.name = new byte[this.input.readInt()];
+    this.input.readFully(this.name);
+    return(true);
   }
 
-  static void putOutput(String text, boolean scroll)
+  /* write all trusted files from the size buckets into a new run file, sorted
+  by size, and in the order found for the same size */
+
+  static DeleteDupFiles2Run spill(DeleteDupFiles2SizeIndex sizeList,
+    int number) throws IOException
   {
-    if (consoleFlag)              // are we running as a console application?
-      System.out.println(text);   // console output goes onto standard output
-    else
+    int count = 0;                // number of records written
+    File runFile = File.createTempFile("DeleteDupFiles2", ".run");
+    runFile.deleteOnExit();       // in case it isn't deleted after merge
+    DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+      new FileOutputStream(runFile), DeleteDupFiles2.BUFFER_SIZE));
+    try
     {
-      outputText.append(text + "\n"); // graphical output goes into text area
-      if (scroll)                 // does caller want us to scroll?
-        outputText.select(999999999, 999999999); // force scroll to end of text
+      long[] sizes = sizeList.sizes(); // sorted from smallest to largest
+      for (int i = 0; i < sizes.length; i ++)
+      {
+        DeleteDupFiles2Bucket bucket = sizeList.get(sizes[i]);
+        for (int k = 0; k < bucket.unhashedCount; k ++) // in order found
+        {
+          DeleteDupFiles2Data entry = bucket.unhashed[k];
+          byte[] name = entry.getPath().getBytes("UTF-8");
+          output.writeLong(entry.size);
+          output.writeLong(entry.date);
+          output.writeInt(name.length);
+          output.write(name);
+          count ++;
+        }
+      }
     }
+    finally { output.close(); }
+    return(new DeleteDupFiles2Run(runFile, number, count));
   }
 
+} // end of DeleteDupFiles2Run class
+
+// ------------------------------------------------------------------------- //
 
 /*
-  showHelp() method
+  DeleteDupFiles2SizeIndex class
 
-  Show the help summary.  This is a UNIX standard and is expected for all
-  console applications, even very simple ones.
+  Mapping of file sizes to buckets of data objects, in a hash table with open
+  addressing on primitive long integers.  This replaces a TreeMap with a Long
+  object and a tree node for each different size.  Lookups don't need to be in
+  order, but sizes() returns all sizes sorted, the same as the keys of a
+  TreeMap, for anything that wants to go through the buckets in order.
 */
-  static void showHelp()
+
+class DeleteDupFiles2SizeIndex
+{
+  /* class variables */
+
+  int count;                      // number of buckets in the index
+  long[] sizes;                   // file size for each slot in the table
+  DeleteDupFiles2Bucket[] table;  // bucket for each slot, or <null> if empty
+  DeleteDupFiles2Index trusted;   // trusted index file, or <null>
+
+  /* empty constructor */
+
+  public DeleteDupFiles2SizeIndex()
   {
-    System.err.println();
-    System.err.println(PROGRAM_TITLE);
-    System.err.println();
-    System.err.println("  java  DeleteDupFiles2  [options]  [trusted_folder  unknown_folder]");
-    System.err.println("  java  DeleteDupFiles2  [options]  [unknown_folder]");
-    System.err.println();
-    System.err.println("Options:");
-    System.err.println("  -? = -help = show summary of command-line syntax");
-    System.err.println("  -d = show debug information (may be verbose)");
-//  System.err.println("  -h0 = ignore hidden files or folders (default)");
-//  System.err.println("  -h1 = -h = process hidden files and folders");
-//  System.err.println("  -r0 = don't try to delete read-only files (default)");
-//  System.err.println("  -r1 = -r = delete read-only files if permitted by system");
-    System.err.println("  -s0 = do only given files or folders, no subfolders");
-    System.err.println("  -s1 = -s = process files, folders, and subfolders (default)");
-    System.err.println("  -u# = font size for buttons, dialogs, etc; default is local system;");
-    System.err.println("      example: -u16");
-    System.err.println("  -w(#,#,#,#) = normal window position: left, top, width, height;");
-    System.err.println("      example: -w(50,50,700,500)");
-    System.err.println("  -x = maximize application window; default is normal window");
-    System.err.println("  -z0 = ignore zero-byte empty files (default)");
-    System.err.println("  -z1 = -z = process zero-byte empty files");
-    System.err.println();
-    System.err.println("Output may be redirected with the \">\" operator.  If no file or folder names");
-    System.err.println("are given on the command line, then a graphical interface will open.  PLEASE");
-    System.err.println("READ THE DOCUMENTATION.  Files are deleted permanently, and do not appear in");
-    System.err.println("the recycle bin or trash folder.  THERE IS NO PROMPTING WHEN RUN IN COMMAND");
-    System.err.println("MODE.  If in doubt, use the -d (debug) option to disable real file deletion,");
-    System.err.println("or mark files as read-only.");
-    System.err.println();
-    System.err.println(COPYRIGHT_NOTICE);
-//  System.err.println();
+    this.count = 0;               // start with an empty index
+    this.sizes = new long[1024];  // size is a power of two, grows as needed
+    this.table = new DeleteDupFiles2Bucket[1024];
+    this.trusted = null;          // trusted files are added by caller
+  }
 
-  } // end of showHelp() method
+  /* return bucket for a file size, creating an empty bucket if necessary, and
+  filling a new bucket from the trusted index file, if there is one */
 
+  DeleteDupFiles2Bucket bucket(long size)
+  {
+    int slot = find(size);
+    if (this.table[slot] != null) // does this size already have a bucket?
+      return(this.table[slot]);
+    DeleteDupFiles2Bucket result = new DeleteDupFiles2Bucket();
+    this.sizes[slot] = size;      // empty slot gets new bucket
+    this.table[slot] = result;
+    this.count ++;
+    if (this.trusted != null)     // are trusted files in an index file?
+      this.trusted.fill(result, size);
+    if ((this.count * 4) > (this.table.length * 3)) // more than 3/4 full?
+    {
+      long[] oldSizes = this.sizes; // double the size of the table
+      DeleteDupFiles2Bucket[] oldTable = this.table;
+      this.sizes = new long[oldSizes.length * 2];
+      this.table = new DeleteDupFiles2Bucket[oldTable.length * 2];
+      for (int i = 0; i < oldTable.length; i ++)
+        if (oldTable[i] != null)
+        {
+          slot = find(oldSizes[i]);
+          this.sizes[slot] = oldSizes[i];
+          this.table[slot] = oldTable[i];
+        }
+    }
+    return(result);
+  }
 
-/*
-  sortFileList() method
+  /* remove all buckets, and start again with a small table */
 
-  When we ask for a list of files or subfolders in a directory, the list is not
-  likely to be in our preferred order.  Java does not guarantee any particular
-  order, and the observed order is whatever is supplied by the underlying file
-  system (which can be very jumbled for FAT16/FAT32).  We would like the file
-  names to be sorted, and since we recurse on subfolders, we also want the
-  subfolders to appear in order.
+  void clear()
+  {
+    this.count = 0;               // same as empty constructor
+    this.sizes = new long[1024];
+    this.table = new DeleteDupFiles2Bucket[1024];
+  }
 
-  The caller's parameter may be <null> and this may happen if the caller asks
-  File.listFiles() for the contents of a protected system directory.  All calls
-  to listFiles() in this program are wrapped inside a call to us, so we replace
-  a null parameter with an empty array as our result.
-*/
-  static File[] sortFileList(File[] input)
+  /* return table slot with the same size, or the empty slot for it */
+
+  int find(long size)
   {
-    String fileName;              // file name without the path
-    int i;                        // index variable
-    TreeMap list;                 // our list of files
-    File[] result;                // our result
-    StringBuffer sortKey;         // created sorting key for each file
+    int mask = this.table.length - 1; // table size is a power of two
+    long mix = size * 0x9E3779B97F4A7C15L; // sizes are not well mixed
+    int slot = (int) (mix ^ (mix >>> 32)) & mask;
+    while ((this.table[slot] != null) && (this.sizes[slot] != size))
+      slot = (slot + 1) & mask;   // linear probing to next slot
+    return(slot);
+  }
 
-    if (input == null)            // were we given a null pointer?
-      result = new File[0];       // yes, replace with an empty array
-    else if (input.length < 2)    // don't sort lists with zero or one element
-      result = input;             // just copy input array as result array
-    else
+  /* return bucket for a file size, or <null> if there isn't one */
+
+  DeleteDupFiles2Bucket get(long size)
+  {
+    DeleteDupFiles2Bucket result = this.table[find(size)];
+    if ((result == null) && (this.trusted != null)
+      && this.trusted.hasSize(size)) // not loaded from index file yet?
     {
-      /* First, create a sorted list with our choice of index keys and the File
-      objects as data.  Names are sorted as files or folders, then in lowercase
-      to ignore differences in uppercase versus lowercase, then in the original
-      form for systems where case is distinct. */
+      result = bucket(size);      // create bucket with trusted files
+    }
+    return(result);
+  }
 
-      list = new TreeMap();       // create empty sorted list with keys
-      sortKey = new StringBuffer(); // allocate empty string buffer for keys
-      for (i = 0; i < input.length; i ++)
-      {
-        sortKey.setLength(0);     // empty any previous contents of buffer
-        if (input[i].isDirectory()) // is this "file" actually a folder?
-          sortKey.append("2 ");   // yes, put subfolders after files
-        else                      // must be a file or an unknown object
-          sortKey.append("1 ");   // put files before subfolders
+  /* return number of different sizes (buckets) in the index */
+
+  int size()
+  {
+    return(this.count);
+  }
+
+  /* return all file sizes in the index, sorted from smallest to largest */
+
+  long[] sizes()
+  {
+    long[] result = new long[this.count];
+    int used = 0;
+    for (int i = 0; i < this.table.length; i ++)
+      if (this.table[i] != null)
+        result[used ++] = this.sizes[i];
+    Arrays.sort(result);          // same order as keys of a TreeMap
+    return(result);
+  }
+
+} // end of DeleteDupFiles2SizeIndex class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  DeleteDupFiles2Store class
+
+  An optional place to keep trusted files while the trusted folder is scanned,
+  outside of the Java heap, so that a very big trusted folder doesn't give the
+  garbage collector millions of objects to look at.  Each file is a fixed-size
+  record with the same layout as a trusted index file (size, date, path name
+  offset, order, and checksum), and path names are kept as UTF-8 bytes.  Both
+  are in chunks of direct buffers, or in chunks of a memory-mapped scratch file
+  that is deleted when closed.
+
+  After the scan, the records are sorted by size in place, and this store is
+  searched the same way as a trusted index file, filling each bucket only when
+  an unknown file has the same size.  Only the methods that read records and
+  path names are different.
+*/
+
+class DeleteDupFiles2Store extends DeleteDupFiles2Index
+{
+  /* constants */
 
-        fileName = input[i].getName(); // get the file name without the path
-        sortKey.append(fileName.toLowerCase()); // start by ignoring case
-        sortKey.append(" ");      // separate lowercase from original case
-        sortKey.append(fileName); // then sort file name on original case
-        list.put(sortKey.toString(), input[i]); // put file into sorted list
-      }
+  static final int CHUNK_SHIFT = 20; // records per chunk (one million, 64 MB)
 
-      /* Second, now that the TreeMap object has done all the hard work of
-      sorting, pull the File objects from the list in order as determined by
-      the sort keys that we created. */
+  /* class variables */
 
-      result = (File[]) list.values().toArray(new File[0]);
-    }
-    return(result);               // give caller whatever we could find
+  boolean mapped;                 // true if scratch file, false if direct
+  long nextChunk;                 // byte offset of next chunk in scratch file
+  ByteBuffer pathChunk;           // path names are appended to this chunk
+  Vector pathChunks;              // all chunks with path names
+  ByteBuffer[] records;           // chunks with records, in order
 
-  } // end of sortFileList() method
+  /* constructor (one argument) */
 
+  public DeleteDupFiles2Store(boolean mappedFlag)
+  {
+    super();                      // empty trusted index, nothing to sort
+    this.mapped = mappedFlag;     // where chunks come from
+    this.nextChunk = 0;
+    this.pathChunk = null;        // chunks are created when needed
+    this.pathChunks = new Vector();
+    this.records = new ByteBuffer[16]; // array grows as needed
+  }
 
-/*
-  statusClear() method
+  /* append a trusted file, or return <false> if there is no room left */
 
-  Clear any pending status messages by setting their mapped values to <null>.
-  It is more efficient to use null and non-null values than to delete then
-  insert mappings into this list.
-*/
-  static void statusClear()
+  boolean add(DeleteDupFiles2Data entry)
   {
-    if (consoleFlag == false)     // only if running as GUI
+    byte[] name;                  // full path name as UTF-8 bytes
+    int record;                   // byte offset of new record in chunk
+
+    try
     {
-      Object[] list = statusMap.keySet().toArray(); // list of objects as keys
-      for (int i = 0; i < list.length; i ++)
+      name = entry.getPath().getBytes("UTF-8");
+      if ((this.pathChunk == null) // first path, or no room for this one?
+        || (this.pathChunk.remaining() < (4 + name.length)))
+      {
+        this.pathChunk = newChunk();
+        this.pathChunks.add(this.pathChunk);
+      }
+      if ((this.count & ((1 << CHUNK_SHIFT) - 1)) == 0) // need a new chunk?
       {
-        statusMap.put(list[i], null); // null value means nothing pending
+        if ((this.count >>> CHUNK_SHIFT) == this.records.length)
+          this.records = Arrays.copyOf(this.records,
+            (this.records.length * 2)); // double the array of chunks
+        this.records[this.count >>> CHUNK_SHIFT] = newChunk();
       }
     }
+    catch (IOException ioe) { return(false); } // scratch file can't grow
+    catch (OutOfMemoryError oome) { return(false); } // no direct memory left
+
+    putLong(this.count, RECORD_PATH, (((long) (this.pathChunks.size() - 1)
+      << 32) | this.pathChunk.position())); // chunk number and offset
+    this.pathChunk.putInt(name.length); // append path name to its chunk
+    this.pathChunk.put(name);
+    record = this.count ++;       // one more record
+    putLong(record, RECORD_SIZE, entry.size);
+    putLong(record, RECORD_DATE, entry.date);
+    putInt(record, RECORD_ORDER, record); // found order until sorted
+    putInt(record, RECORD_SUM_LENGTH, 0); // no checksums yet
+    return(true);
   }
 
+  /* release chunks and delete scratch file, if any */
 
-/*
-  statusFlush() method
-
-  Force pending status messages to be displayed in their GUI dialogs.  It is
-  neither necessary nor desirable for this method to know the purpose of the
-  text areas.
-*/
-  static void statusFlush()
+  void close()
   {
-    String text;                  // constructed or mapped text string
+    super.close();                // close scratch file, if any
+    this.pathChunk = null;        // let garbage collector free memory
+    this.pathChunks.clear();
+    this.records = null;
+  }
 
-    if (consoleFlag == false)     // only if running as GUI
+  /* create a new store with direct buffers or a memory-mapped scratch file */
+
+  static DeleteDupFiles2Store create(boolean mappedFlag) throws IOException
+  {
+    DeleteDupFiles2Store result = new DeleteDupFiles2Store(mappedFlag);
+    if (mappedFlag)               // need a scratch file?
     {
-      /* For each object that maps to a non-null string, compare the string
-      with the current text, and if the new string is different, then change
-      the text for the object. */
+      File scratch = File.createTempFile("DeleteDupFiles2", ".tmp");
+      scratch.deleteOnExit();     // in case closing doesn't delete it
+      result.channel = FileChannel.open(scratch.toPath(),
+        StandardOpenOption.READ, StandardOpenOption.WRITE,
+        StandardOpenOption.DELETE_ON_CLOSE);
+    }
+    return(result);
+  }
 
-      Object[] list = statusMap.keySet().toArray(); // list of objects as keys
-      for (int i = 0; i < list.length; i ++)
-      {
-        javax.swing.text.JTextComponent field // text area as mapping index
-          = (javax.swing.text.JTextComponent) list[i];
-        text = (String) statusMap.get(field); // mapped string value or null
-        if (text != null)         // is there a real string as a value?
-        {
-          String old = field.getText(); // get current value in GUI display
-          if (old.equals(text) == false) // has the dialog text changed?
-          {
-            field.setText(text);  // yes, show the new text in GUI display
-          }
-          statusMap.put(field, null); // null value means nothing pending
-        }
-      }
+  /* sort all records by size, in the order found for the same size, and then
+  number the files of each size, the same as adding them to a bucket */
 
-      /* This program keeps counters for files and sizes.  Most are not of
-      immediate interest to the user.  We show a summary in a special status
-      field that only gets updated on timer intervals.  Otherwise, we would
-      waste too much time formatting numbers that change very quickly. */
+  void finish()
+  {
+    sort(0, this.count);          // records move, path names stay
+    for (int i = 0; i < this.count; i ++)
+      putInt(i, RECORD_ORDER, (((i > 0) && (getLong(i, RECORD_SIZE)
+        == getLong((i - 1), RECORD_SIZE))) ? (getInt((i - 1), RECORD_ORDER)
+        + 1) : 0));
+  }
 
-      if (totalUnkFiles > 0)      // have we found any files yet?
-        text = "deleted: " + formatComma.format(totalDelFiles)
-          + "    duplicates: " + formatComma.format(totalDupFiles)
-          + "    files: " + formatComma.format(totalUnkFiles)
-          + "    folders: " + formatComma.format(totalUnkFolders);
-      else                        // no files, so nothing to display
-        text = EMPTY_STATUS;
-      if (countDialog.getText().equals(text) == false) // has text changed?
-        countDialog.setText(text); // yes, replace text with new string
-    }
-  } // end of statusFlush() method
+  /* get an integer or long integer from a record */
 
+  int getInt(int record, int offset)
+  {
+    return(this.records[record >>> CHUNK_SHIFT].getInt(((record
+      & ((1 << CHUNK_SHIFT) - 1)) * RECORD_BYTES) + offset));
+  }
 
-/*
-  statusPending() method
+  long getLong(int record, int offset)
+  {
+    return(this.records[record >>> CHUNK_SHIFT].getLong(((record
+      & ((1 << CHUNK_SHIFT) - 1)) * RECORD_BYTES) + offset));
+  }
 
-  The caller gives a string that will be displayed in a JTextArea or JTextField
-  after the next update of the status timer.  A string value of <null> means to
-  do nothing, which is different than displaying the string <EMPTY_STATUS>.
-*/
-  static void statusPending(javax.swing.text.JTextComponent field, String text)
+  /* read a path name from its chunk */
+
+  String getPath(long offset)
   {
-    if (consoleFlag == false)     // only if running as GUI
-    {
-      statusMap.put(field, text); // any object, any value acceptable here
-    }
+    ByteBuffer chunk = (ByteBuffer) this.pathChunks.get((int) (offset >>> 32));
+    int start = (int) offset;     // byte offset in chunk
+    byte[] name = new byte[chunk.getInt(start)];
+    for (int i = 0; i < name.length; i ++)
+      name[i] = chunk.get(start + 4 + i);
+    try { return(new String(name, "UTF-8")); }
+    catch (UnsupportedEncodingException uee) { return(""); } // can't happen
   }
 
+  /* return <true> if the first record sorts before the second record */
 
-/*
-  userButton() method
+  boolean less(int first, int second)
+  {
+    long firstSize = getLong(first, RECORD_SIZE);
+    long secondSize = getLong(second, RECORD_SIZE);
+    if (firstSize != secondSize)  // different sizes?
+      return(firstSize < secondSize);
+    return(getInt(first, RECORD_ORDER) < getInt(second, RECORD_ORDER));
+  }
 
-  This method is called by our action listener actionPerformed() to process
-  buttons, in the context of the main DeleteDupFiles2 class.
-*/
-  static void userButton(ActionEvent event)
+  /* return a new chunk of direct memory or of the scratch file */
+
+  ByteBuffer newChunk() throws IOException
   {
-    Object source = event.getSource(); // where the event came from
-    if (source == cancelButton)   // "Cancel" button
-    {
-      doCancelButton();           // stop opening files or folders
-    }
-    else if (source == debugCheckbox) // show debug information
-    {
-      debugFlag = debugCheckbox.isSelected();
-    }
-    else if (source == dialogAllCheckbox) // apply same reply to all files
-    {
-      dialogAllFlag = dialogAllCheckbox.isSelected();
-    }
-    else if (source == dialogDeleteButton) // "Yes, Delete File" button
-    {
-      dialogHasReply = true;      // user has answered the inner dialog box
-      dialogYesDelete = true;     // and the answer is: delete the file
-      dialogRelease();            // release wait on inner dialog box
-    }
-    else if (source == dialogIgnoreButton) // "Do Not Delete" button
-    {
-      dialogHasReply = true;      // user has answered the inner dialog box
-      dialogYesDelete = false;    // and the answer is: don't delete file
-      dialogRelease();            // release wait on inner dialog box
-    }
-    else if (source == exitButton) // "Exit" button
-    {
-      System.exit(0);             // always exit with zero status from GUI
-    }
-    else if (source == fontNameDialog) // font name for output text area
-    {
-      /* We can safely assume that the font name is valid, because we obtained
-      the names from getAvailableFontFamilyNames(), and the user can't edit
-      this dialog field. */
+    if (this.mapped == false)     // direct memory, outside of the heap
+      return(ByteBuffer.allocateDirect(DeleteDupFiles2.MAP_CHUNK));
+    ByteBuffer result = this.channel.map(FileChannel.MapMode.READ_WRITE,
+      this.nextChunk, DeleteDupFiles2.MAP_CHUNK); // file grows as needed
+    this.nextChunk += DeleteDupFiles2.MAP_CHUNK;
+    return(result);
+  }
 
-      fontName = (String) fontNameDialog.getSelectedItem();
-      outputText.setFont(new Font(fontName, Font.PLAIN, fontSize));
-    }
-    else if (source == fontSizeDialog) // point size for output text area
-    {
-      /* We can safely parse the point size as an integer, because we supply
-      the only choices allowed, and the user can't edit this dialog field. */
+  /* put an integer or long integer into a record */
 
-      fontSize = Integer.parseInt((String) fontSizeDialog.getSelectedItem());
-      outputText.setFont(new Font(fontName, Font.PLAIN, fontSize));
-    }
-    else if (source == licenseButton) // "Show License" button
+  void putInt(int record, int offset, int value)
+  {
+    this.records[record >>> CHUNK_SHIFT].putInt(((record
+      & ((1 << CHUNK_SHIFT) - 1)) * RECORD_BYTES) + offset, value);
+  }
+
+  void putLong(int record, int offset, long value)
+  {
+    this.records[record >>> CHUNK_SHIFT].putLong(((record
+      & ((1 << CHUNK_SHIFT) - 1)) * RECORD_BYTES) + offset, value);
+  }
+
+  /* quicksort records from <low> up to but not including <high>; no two
+  records are equal, because each has a different order found */
+
+  void sort(int low, int high)
+  {
+    while ((high - low) > 1)      // recursion on smaller part, loop on bigger
     {
-      JTextArea text = new JTextArea(16, 48); // where to put license text
-      text.setEditable(false);    // user can't change this text area
-      text.setFont(new Font(SYSTEM_FONT, Font.PLAIN, 18)); // preformatted
-      text.setLineWrap(false);    // don't wrap text lines
-      text.setOpaque(false);      // transparent background, not white
-      try { text.read(new FileReader(LICENSE_FILE), null); } // load text
-      catch (IOException ioe)     // includes FileNotFoundException
+      swap(((low + high) >>> 1), (high - 1)); // middle record is the pivot
+      int middle = low;           // records before <middle> are less
+      for (int i = low; i < (high - 1); i ++)
+        if (less(i, (high - 1)))
+          swap(i, middle ++);
+      swap(middle, (high - 1));   // pivot goes between the two parts
+      if ((middle - low) < (high - middle))
       {
-        JOptionPane.showMessageDialog(mainFrame,
-          ("Sorry, can't read from text file:\n" + LICENSE_FILE));
-        return;                   // do nothing and ignore License button
+        sort(low, middle);
+        low = middle + 1;
+      }
+      else
+      {
+        sort((middle + 1), high);
+        high = middle;
       }
-      JScrollPane scroll = new JScrollPane(text); // will need scroll bars
-      scroll.setBorder(BorderFactory.createEmptyBorder()); // but no borders
-      JOptionPane.showMessageDialog(mainFrame, scroll,
-        "GNU General Public License (GPL)", JOptionPane.PLAIN_MESSAGE);
-    }
-    else if (source == recurseCheckbox) // recursion for folders, subfolders
-    {
-      recurseFlag = recurseCheckbox.isSelected();
-    }
-    else if (source == saveButton) // "Save Output" button
-    {
-      doSaveButton();             // write output text area to a file
-    }
-    else if (source == scrollCheckbox) // scroll calls to <putOutput>
-    {
-      scrollFlag = scrollCheckbox.isSelected();
-    }
-    else if (source == startButton) // "Start" button
-    {
-      doStartButton();            // start opening files or folders
-    }
-    else if (source == statusTimer) // update timer for status message text
-    {
-      statusFlush();              // force display of pending status messages
-    }
-    else if (source == trustedButton) // "Trusted Folder" button
-    {
-      doTrustedButton();          // select "trusted" file or folder
-    }
-    else if (source == trustedDialog) // Enter key pressed in text area
-    {
-      unknownDialog.requestFocusInWindow(); // makes manual data entry easier
-    }
-    else if (source == unknownButton) // "Unknown Folder" button
-    {
-      doUnknownButton();          // select "unknown" file or folder
-    }
-    else if (source == unknownDialog) // Enter key pressed in text area
-    {
-      startButton.requestFocusInWindow(); // shift focus to Start button
-    }
-    else if (source == zeroCheckbox) // process zero-byte empty files
-    {
-      zeroFlag = zeroCheckbox.isSelected();
     }
-    else                          // fault in program logic, not by user
+  }
+
+  /* exchange two records */
+
+  void swap(int first, int second)
+  {
+    if (first == second)          // nothing to do
+      return;
+    for (int offset = 0; offset < RECORD_BYTES; offset += 8)
     {
-      System.err.println("Error in userButton(): unknown ActionEvent: "
-        + event);                 // should never happen, so write on console
+      long value = getLong(first, offset);
+      putLong(first, offset, getLong(second, offset));
+      putLong(second, offset, value);
     }
-  } // end of userButton() method
+  }
 
-} // end of DeleteDupFiles2 class
+} // end of DeleteDupFiles2Store class
 
 // ------------------------------------------------------------------------- //
 
 /*
-  DeleteDupFiles2Data class
+  DeleteDupFiles2Tree class
 
-  To avoid recalculating checksums, we pair Java File objects with their MD5
-  checksums and use these data objects in our lists sorted by file size.
+  One chunk of a big file, hashed by a thread in <treePool> as part of a tree
+  checksum.
 */
 
-class DeleteDupFiles2Data
+class DeleteDupFiles2Tree implements Callable
 {
   /* class variables */
 
-  File file;                      // Java File object
-  String md5;                     // MD5 checksum or <null>
+  FileChannel channel;            // caller's file, shared by all chunks
+  long length;                    // number of bytes in chunk
+  long start;                     // byte offset of first byte in chunk
 
-  /* constructor (one argument) */
+  /* constructor (three arguments) */
 
-  public DeleteDupFiles2Data(File givenFile)
+  public DeleteDupFiles2Tree(FileChannel givenChannel, long givenStart,
+    long givenLength)
   {
-    this.file = givenFile;        // caller must provide File value at creation
-    this.md5 = null;              // checksum will be added later as necessary
+    this.channel = givenChannel;
+    this.length = givenLength;
+    this.start = givenStart;
   }
 
-} // end of DeleteDupFiles2Data class
+  /* calculate checksum for one chunk in worker thread */
+
+  public Object call() throws Exception
+  {
+    return(DeleteDupFiles2.digestChunk(this.channel, this.start,
+      this.length));
+  }
+
+} // end of DeleteDupFiles2Tree class
 
 // ------------------------------------------------------------------------- //
 
@@ -2257,4 +7788,88 @@ class DeleteDupFiles2User implements ActionListener, Runnable
 
 } // end of DeleteDupFiles2User class
 
+// ------------------------------------------------------------------------- //
+
+/*
+  DeleteDupFiles2Walk class
+
+  This class lists one folder in a worker thread from a fork/join pool, then
+  starts more tasks for the subfolders that the search will go into, using the
+  same rules as doFileTrusted() and doFileUnknown().  The listing is collected
+  later by DeleteDupFiles2Data.getContents(), in the order that the search
+  needs it.  Nothing is decided here, so the report is the same as without
+  listing threads.
+
+  Listings are kept until the search uses them, so only <WALK_AHEAD> folders
+  per thread are listed ahead of the search.  Past that, subfolders get tasks
+  that aren't started.  Those are started when the search reaches their parent
+  folder, or are run by the search thread itself if it gets there first.
+*/
+
+class DeleteDupFiles2Walk extends RecursiveTask
+{
+  /* constants */
+
+  private static final long serialVersionUID = 1L; // tasks aren't serialized
+
+  /* class variables */
+
+  File avoid;                     // don't list this subfolder if found
+  DeleteDupFiles2Data entry;      // data object for folder to be listed
+  boolean started;                // true if given to a worker thread
+
+  /* constructor (two arguments) */
+
+  public DeleteDupFiles2Walk(DeleteDupFiles2Data givenEntry, File avoidFile)
+  {
+    this.avoid = avoidFile;       // unknown may be subfolder of trusted
+    this.entry = givenEntry;      // folder to be listed
+    this.started = false;         // see start()
+  }
+
+  /* list folder in worker thread, and start subfolders */
+
+  protected Object compute()
+  {
+    DeleteDupFiles2Data[] contents; // sorted entries in this folder
+
+    contents = DeleteDupFiles2.listFolder(this.entry); // slow part
+    if (DeleteDupFiles2.recurseFlag == false) // not going into subfolders?
+      return(contents);
+    for (int i = 0; i < contents.length; i ++) // for each entry in order
+    {
+      DeleteDupFiles2Data next = contents[i];
+      if (DeleteDupFiles2.cancelFlag) // stop if user hit the panic button
+        break;
+      if (next.folder && (DeleteDupFiles2.hiddenFlag || (next.hidden == false))
+        && (next.sameFile(this.avoid) == false)) // will search go here?
+      {
+        next.listing = new DeleteDupFiles2Walk(next, this.avoid);
+        next.listing.start();     // list subfolder if search isn't too far
+      }
+    }
+    return(contents);             // give caller whatever we could find
+  }
+
+  /* give this listing to a worker thread, unless too many folders are already
+  listed ahead of the search, in which case it waits to be started later */
+
+  void start()
+  {
+    ForkJoinPool pool = DeleteDupFiles2.walkPool; // <null> after search ends
+    if (this.started || (pool == null) || (DeleteDupFiles2.walkAhead.get()
+      >= (DeleteDupFiles2.walkCount * DeleteDupFiles2.WALK_AHEAD)))
+    {
+      return;                     // already started, or too far ahead
+    }
+    this.started = true;
+    DeleteDupFiles2.walkAhead.incrementAndGet(); // one more listing waiting
+    if (inForkJoinPool())         // called from a listing thread?
+      fork();                     // list subfolder in any worker thread
+    else
+      pool.execute(this);         // search thread starts first listings
+  }
+
+} // end of DeleteDupFiles2Walk class
+
 /* Copyright (c) 2009 by Keith Fenske.  Apache License or GNU GPL. */
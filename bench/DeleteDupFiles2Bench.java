@@ -0,0 +1,131 @@
+/*
+  Delete Duplicate Files #2 - Size Index Benchmark
+  Java class name: DeleteDupFiles2Bench
+  Copyright (c) 2009 by Keith Fenske.  Apache License or GNU GPL.
+*/
+
+import java.text.*;               // number formatting
+import java.util.*;               // random numbers, maps, vectors
+
+/*
+  DeleteDupFiles2Bench class
+
+  A microbenchmark for the size index in DeleteDupFiles2.java.  It is not part
+  of the application, and is compiled separately, after the application, from
+  the folder with DeleteDupFiles2.java:
+
+      javac  DeleteDupFiles2.java
+      javac  -cp .  -d .  bench/DeleteDupFiles2Bench.java
+      java  -Xmx4g  -cp .  DeleteDupFiles2Bench  10000000
+
+  The number is how many files to simulate (default 10 million).  The sizes are
+  random, spread over several orders of magnitude like real files, so that many
+  sizes are shared.  Each file is inserted and then looked up, first with the
+  TreeMap of Long objects and Vectors used by earlier versions of this program,
+  then with DeleteDupFiles2SizeIndex and DeleteDupFiles2Bucket.  The same data
+  object is used for every file, so only the memory used by the index itself
+  is measured.  Results are written on standard output.
+*/
+
+class DeleteDupFiles2Bench
+{
+  /* run the benchmark */
+
+  public static void main(String[] args)
+  {
+    int count = 10000000;         // default number of files to simulate
+    if (args.length > 0)          // did user give a different number?
+      count = Integer.parseInt(args[0]);
+    DeleteDupFiles2.formatComma = NumberFormat.getInstance(); // for output
+
+    /* Random sizes: a random number of bits from 8 to 30, then random bits,
+    which gives as many small files as large files, and many duplicates. */
+
+    long[] sizes = new long[count];
+    Random random = new Random(20091116); // same sizes for each run
+    for (int i = 0; i < count; i ++)
+      sizes[i] = random.nextInt(1 << (8 + random.nextInt(23)));
+    DeleteDupFiles2Data entry = new DeleteDupFiles2Data(null, null); // shared
+
+    System.out.println("Simulating " + DeleteDupFiles2.prettyPlural(count,
+      "file") + ".");
+    runTreeMap(sizes, entry);     // once to warm up the compiler
+    runSizeIndex(sizes, entry);
+    runTreeMap(sizes, entry);     // then once to measure
+    runSizeIndex(sizes, entry);
+  }
+
+  /* return bytes now in use on the Java heap, after collecting garbage */
+
+  static long heapUsed()
+  {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 4; i ++)  // more than one request is often needed
+      System.gc();
+    return(runtime.totalMemory() - runtime.freeMemory());
+  }
+
+  /* print one line of results */
+
+  static void report(String name, long bytes, int count, long insertNanos,
+    long lookupNanos, int found)
+  {
+    System.out.println(name + ": " + (bytes / count) + " bytes per file, "
+      + DeleteDupFiles2.formatComma.format(count * 1000000000L / Math.max(1,
+      insertNanos)) + " inserts and " + DeleteDupFiles2.formatComma.format(
+      count * 1000000000L / Math.max(1, lookupNanos)) + " lookups per second ("
+      + found + " found)");
+  }
+
+  /* insert and look up with DeleteDupFiles2SizeIndex */
+
+  static void runSizeIndex(long[] sizes, DeleteDupFiles2Data entry)
+  {
+    long before = heapUsed();
+    long start = System.nanoTime();
+    DeleteDupFiles2SizeIndex index = new DeleteDupFiles2SizeIndex();
+    for (int i = 0; i < sizes.length; i ++)
+      index.bucket(sizes[i]).add(entry);
+    long middle = System.nanoTime();
+    int found = 0;
+    for (int i = 0; i < sizes.length; i ++)
+      if (index.get(sizes[i]) != null)
+        found ++;
+    long end = System.nanoTime();
+    long bytes = heapUsed() - before;
+    report("DeleteDupFiles2SizeIndex", bytes, sizes.length, (middle - start),
+      (end - middle), found);
+    if (index.size() < 0) System.out.println(); // keep index until measured
+  }
+
+  /* insert and look up with TreeMap of Long objects and Vectors */
+
+  static void runTreeMap(long[] sizes, DeleteDupFiles2Data entry)
+  {
+    long before = heapUsed();
+    long start = System.nanoTime();
+    TreeMap map = new TreeMap();
+    for (int i = 0; i < sizes.length; i ++)
+    {
+      Long key = Long.valueOf(sizes[i]); // one object per file, as before
+      Vector list = (Vector) map.get(key);
+      if (list == null)
+      {
+        list = new Vector();
+        map.put(key, list);
+      }
+      list.add(entry);
+    }
+    long middle = System.nanoTime();
+    int found = 0;
+    for (int i = 0; i < sizes.length; i ++)
+      if (map.get(Long.valueOf(sizes[i])) != null)
+        found ++;
+    long end = System.nanoTime();
+    long bytes = heapUsed() - before;
+    report("TreeMap and Vector", bytes, sizes.length, (middle - start),
+      (end - middle), found);
+    if (map.size() < 0) System.out.println(); // keep map until measured
+  }
+
+} // end of DeleteDupFiles2Bench class